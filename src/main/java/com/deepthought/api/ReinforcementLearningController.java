@@ -1,16 +1,24 @@
 package com.qanairy.api;
 
 import java.io.IOException;
+import java.nio.file.NoSuchFileException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 import org.json.JSONException;
-import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
@@ -21,12 +29,20 @@ import org.springframework.web.server.ResponseStatusException;
 
 import com.deepthought.models.Token;
 import com.deepthought.models.MemoryRecord;
+import com.deepthought.models.PolicyMatrixCodec;
 import com.deepthought.models.edges.Prediction;
 import com.deepthought.models.repository.TokenRepository;
 import com.deepthought.models.repository.MemoryRecordRepository;
-import com.deepthought.models.repository.PredictionRepository;
+import com.qanairy.api.dto.BatchLearnRequest;
+import com.qanairy.api.dto.LearnFeedback;
 import com.qanairy.brain.Brain;
+import com.qanairy.brain.PredictionKernel;
+import com.qanairy.brain.TokenWeightCache;
 import com.qanairy.db.DataDecomposer;
+import com.qanairy.db.JsonDecomposer;
+import com.qanairy.db.MemoryArchive;
+import com.qanairy.db.MemoryRecordWriter;
+import com.qanairy.db.TokenWeightSnapshot;
 
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.media.Schema;
@@ -48,10 +64,28 @@ public class ReinforcementLearningController {
 	private MemoryRecordRepository memory_repo;
 
 	@Autowired
-	private PredictionRepository prediction_repo;
+	private Brain brain;
 
 	@Autowired
-	private Brain brain;
+	private TokenWeightCache weight_cache;
+
+	@Autowired
+	private MemoryRecordWriter memory_writer;
+
+	@Autowired
+	private MemoryArchive memory_archive;
+
+	@Autowired
+	private TokenWeightSnapshot weight_snapshot;
+
+	@Autowired
+	private JsonDecomposer json_decomposer;
+
+	@Value("${deepthought.memory.policy-encoding:FLOAT32}")
+	private PolicyMatrixCodec.Encoding policy_encoding = PolicyMatrixCodec.Encoding.FLOAT32;
+
+	@Value("${deepthought.memory.policy-by-reference:false}")
+	private boolean policy_by_reference;
 
     /**
      * Generates a prediction based on stringified JSON object, input and output {@link Vocabulary}
@@ -60,6 +94,8 @@ public class ReinforcementLearningController {
      *
      * @param json_obj stringified JSON object containing data that user would like used for prediction
      * @param new_output_tokens
+     * @param top_k optional number of best output tokens to persist and return {@link Prediction}s for.
+     * 			When absent a {@link Prediction} is created for every output token
      *
      * @return
      *
@@ -71,14 +107,19 @@ public class ReinforcementLearningController {
 	@Operation(summary = "Make a prediction and return a MemoryRecord", description = "", tags = { "Reinforcement Learning" })
     @RequestMapping(value ="/predict", method = RequestMethod.POST)
     public @ResponseBody MemoryRecord predict(@Schema(description = "JSON representation of data", example = "{'field_1':{'field_2':'hello'}}", required = true) @RequestParam(value="input", required=true) String input,
-    										  @Schema(description = "List of output labels to be predicted", example = "label_1,label_2,label_n", required = true) @RequestParam(value="output_tokens", required=true) String[] output_labels)
+    										  @Schema(description = "List of output labels to be predicted", example = "label_1,label_2,label_n", required = true) @RequestParam(value="output_tokens", required=true) String[] output_labels,
+    										  @Schema(description = "Only persist and return predictions for the k highest weighted output labels", example = "3", required = false) @RequestParam(value="top_k", required=false) Integer top_k)
     												  throws IllegalArgumentException, IllegalAccessException, NullPointerException{
+		if(top_k != null && top_k < 1) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "top_k must be greater than 0");
+		}
+
 		List<Token> input_tokens;
 		try {
     		//Break down object into list of tokens
-        	input_tokens = DataDecomposer.decompose(new JSONObject(input));
+        	input_tokens = json_decomposer.decomposeJson(input);
     	}
-    	catch(JSONException e) {
+    	catch(IOException e) {
     		input_tokens = DataDecomposer.decompose(input);
     	}
 
@@ -101,22 +142,12 @@ public class ReinforcementLearningController {
     	//for each token, check if token is in input_vocab
     	List<String> input_token_keys = new ArrayList<String>();
 
+    	//drop repeated tokens and tokens that equal an output label, ignoring case, with one set lookup per token
     	List<Token> scrubbed_input_tokens = new ArrayList<Token>();
-    	List<String> seen_tokens = new ArrayList<String>();
-		for(Token input_token : input_tokens){
-			boolean input_equals_output = false;
-	    	for(Token output_token : output_tokens){
-    			if(output_token.getValue().equalsIgnoreCase(input_token.getValue())){
-    				input_equals_output = true;
-    			}
-    		}
-
-    		if(!input_equals_output && input_token.getValue() != null && !input_token.getValue().equals("null") && !input_token.getValue().trim().isEmpty()
-    				&& !seen_tokens.contains(input_token.getValue())){
+		for(Token input_token : DataDecomposer.distinct(input_tokens, output_tokens)){
+    		if(!input_token.getValue().equals("null") && !input_token.getValue().trim().isEmpty()){
     			scrubbed_input_tokens.add(input_token);
     		}
-
-    		seen_tokens.add(input_token.getValue());
     	}
 
     	for(Token token : scrubbed_input_tokens){
@@ -129,6 +160,9 @@ public class ReinforcementLearningController {
     	//load token vector for output_vocab
     	log.debug("loading output token set");
 
+    	//the version is taken before the weights are read, so updates the policy cannot include have a later version
+    	Long weight_version = policy_by_reference ? token_repo.getWeightVersion() : null;
+
     	//generate policy for input vocab token vector and output vocab token vector
     	double[][] policy = brain.generatePolicy(scrubbed_input_tokens, output_tokens);
 
@@ -141,32 +175,53 @@ public class ReinforcementLearningController {
     		output_token_keys[i] = output_tokens.get(i).getValue();
       	}
 
-		int max_idx = getMaxPredictionIndex(prediction);
+		//select outputs to persist. Top-k selection avoids sorting the full prediction vector
+		int[] selected_idxs;
+		int max_idx;
+		if(top_k != null && top_k < prediction.length) {
+			selected_idxs = new int[top_k];
+			PredictionKernel.topK(prediction, top_k, selected_idxs);
+			max_idx = selected_idxs[0];
+		}
+		else {
+			selected_idxs = new int[prediction.length];
+			for(int i=0; i < selected_idxs.length; i++) {
+				selected_idxs[i] = i;
+			}
+			max_idx = getMaxPredictionIndex(prediction);
+		}
 
     	//create memory and save vocabularies, policy matrix and prediction vector
     	MemoryRecord memory = new MemoryRecord();
-    	memory.setPolicyMatrix(policy);
+		if(policy_by_reference) {
+			//policy can be rebuilt from the versioned token weights, so only keep the version and prediction
+			memory.setWeightVersion(weight_version);
+			memory.setPrediction(prediction);
+		}
+		else {
+			memory.setPolicyMatrix(policy, policy_encoding);
+		}
     	memory.setInputTokenValues(input_token_keys);
     	memory.setOutputTokenKeys(output_token_keys);
-    	//memory.setPrediction(prediction);
     	memory.setPredictedToken(output_tokens.get(max_idx));
-		memory = memory_repo.save(memory);
 
 		//iterate over tokens to create prediction edges for the memory
-		List<Prediction> prediction_edges = new ArrayList<>();
-		for(int i=0; i< output_tokens.size(); i++) {
-    		Prediction prediction_edge = new Prediction(memory, output_tokens.get(i), prediction[i]);
-    		prediction_edges.add(prediction_repo.save(prediction_edge));
+		List<Prediction> prediction_edges = new ArrayList<>(selected_idxs.length);
+		for(int i : selected_idxs) {
+    		prediction_edges.add(new Prediction(memory, output_tokens.get(i), prediction[i]));
 		}
 
-		memory.setPredictions(prediction_edges);
-       	return memory;
+		//with write-behind enabled the memory gets a reserved id now and is written to the graph in a later batch
+		return memory_writer.save(memory, prediction_edges);
 	}
 
     /**
+     * Learns from the token a memory should have predicted. Archived memories are looked up in the
+     *  {@link MemoryArchive} and update the token weights like any other memory
      *
      * @param memory_id
      * @param token_value
+     * @throws ResponseStatusException 404 if the memory does not exist in the graph or the archive
      * @throws JSONException
      * @throws IllegalArgumentException
      * @throws IllegalAccessException
@@ -180,10 +235,8 @@ public class ReinforcementLearningController {
     							 @Schema(description = "value of token that you want to label memory with and learn from", example = "VERB", required = true) @RequestParam(value="token_value", required=true) String token_value)
 					 throws JSONException, IllegalArgumentException, IllegalAccessException, NullPointerException, IOException
     {
-	    Optional<MemoryRecord> optional_memory = memory_repo.findById(memory_id);
-	    if(!optional_memory.isPresent()) {
-	    	throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Memory record not found for id " + memory_id);
-	    }
+		//memories created with write-behind enabled may still be queued
+	    MemoryRecord memory = findMemory(memory_id);
 
 	    //log.info("object definition list size :: "+token_list.size());
     	Token token = new Token(token_value);
@@ -192,9 +245,192 @@ public class ReinforcementLearningController {
     		token = token_record;
     	}
     	//LOAD OBJECT DEFINITION LIST BY DECOMPOSING json_string
-	    brain.learn(memory_id, token); //token_list, predicted, token, isRewarded);
+	    brain.learn(memory, token); //token_list, predicted, token, isRewarded);
     }
 
+	/**
+	 * Applies a batch of learning feedback. All referenced memories are loaded with one query and the
+	 *  resulting weight updates are written in a single transaction
+	 *
+	 * @param request feedback to apply, in order
+	 *
+	 * @throws ResponseStatusException 400 if the batch is empty or incomplete, 404 if any memory does not exist
+	 * 			in the graph or the {@link MemoryArchive}
+	 */
+	@Operation(summary = "Applies learning to a batch of memories", description = "", tags = { "Reinforcement Learning" })
+    @RequestMapping(value ="/learn/batch", method = RequestMethod.POST, consumes = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseStatus(value = HttpStatus.ACCEPTED, reason = "Successfully learned from feedback")
+    public @ResponseBody void learnBatch(@RequestBody BatchLearnRequest request) {
+		if(request == null || request.getFeedback() == null || request.getFeedback().isEmpty()) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "feedback cannot be empty");
+		}
+
+		Set<Long> memory_ids = new LinkedHashSet<>();
+		for(LearnFeedback feedback : request.getFeedback()) {
+			if(feedback == null || feedback.getMemoryId() == null || feedback.getTokenValue() == null) {
+				throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Each feedback entry requires memory_id and token_value");
+			}
+			memory_ids.add(feedback.getMemoryId());
+		}
+
+		for(long memory_id : memory_ids) {
+			awaitPersisted(memory_id);
+		}
+		Map<Long, MemoryRecord> memories_by_id = new HashMap<>();
+		for(MemoryRecord memory : memory_repo.findAllById(memory_ids)) {
+			if(isWritten(memory)) {
+				memories_by_id.put(memory.getID(), memory);
+			}
+		}
+		for(long memory_id : memory_ids) {
+			if(!memories_by_id.containsKey(memory_id)) {
+				MemoryRecord archived_memory = memory_archive.find(memory_id);
+				if(archived_memory != null) {
+					memories_by_id.put(memory_id, archived_memory);
+				}
+			}
+		}
+
+		if(memories_by_id.size() < memory_ids.size()) {
+			memory_ids.removeAll(memories_by_id.keySet());
+			throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Memory records not found for ids " + memory_ids);
+		}
+
+		List<MemoryRecord> memories = new ArrayList<>(request.getFeedback().size());
+		List<String> token_values = new ArrayList<>(request.getFeedback().size());
+		for(LearnFeedback feedback : request.getFeedback()) {
+			memories.add(memories_by_id.get(feedback.getMemoryId()));
+			token_values.add(feedback.getTokenValue());
+		}
+		brain.learnBatch(memories, token_values);
+	}
+
+	/**
+	 * Retrieves a memory from the graph, or from the {@link MemoryArchive} once it has been archived
+	 *
+	 * @param memory_id unique identifier of the memory
+	 *
+	 * @return memory
+	 *
+	 * @throws ResponseStatusException 404 if the memory does not exist in the graph or the archive
+	 */
+	@Operation(summary = "Returns a memory, including archived memories", description = "", tags = { "Reinforcement Learning" })
+    @RequestMapping(value ="/memory/{memory_id}", method = RequestMethod.GET)
+    public @ResponseBody MemoryRecord memory(@PathVariable("memory_id") long memory_id) {
+		return findMemory(memory_id);
+	}
+
+	/**
+	 * Retrieves the policy matrix a memory was predicted with. Memories stored by reference have their
+	 *  policy rebuilt from the token weights as of the memory's weight version
+	 *
+	 * @param memory_id unique identifier of the memory
+	 *
+	 * @return policy matrix of the memory's input tokens x output tokens
+	 *
+	 * @throws ResponseStatusException 404 if the memory or its policy does not exist
+	 */
+	@Operation(summary = "Returns the policy matrix a memory was predicted with", description = "", tags = { "Reinforcement Learning" })
+    @RequestMapping(value ="/memory/{memory_id}/policy", method = RequestMethod.GET)
+    public @ResponseBody double[][] memoryPolicy(@PathVariable("memory_id") long memory_id) {
+		double[][] policy = brain.loadPolicy(findMemory(memory_id));
+		if(policy == null) {
+			throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No policy stored for memory " + memory_id);
+		}
+		return policy;
+	}
+
+	/**
+	 * Retrieves hit, miss and eviction counters for the token weight cache
+	 *
+	 * @return {@link TokenWeightCache.Stats} snapshot
+	 */
+	@Operation(summary = "Returns token weight cache statistics", description = "", tags = { "Reinforcement Learning" })
+    @RequestMapping(value ="/cache/stats", method = RequestMethod.GET)
+    public @ResponseBody TokenWeightCache.Stats cacheStats() {
+		return weight_cache.getStats();
+	}
+
+	/**
+	 * Exports every token and token weight to a snapshot file in the snapshot directory
+	 *
+	 * @param name name of the snapshot, letters, digits, '.', '_' and '-' only
+	 *
+	 * @return {@link TokenWeightSnapshot.Summary} of the exported snapshot
+	 *
+	 * @throws ResponseStatusException 400 if the name is invalid
+	 */
+	@Operation(summary = "Exports the token weight graph to a snapshot", description = "", tags = { "Reinforcement Learning" })
+    @RequestMapping(value ="/snapshots/{name}", method = RequestMethod.POST)
+    public @ResponseBody TokenWeightSnapshot.Summary exportSnapshot(@PathVariable("name") String name) throws IOException {
+		try {
+			return weight_snapshot.export(name);
+		} catch(IllegalArgumentException e) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+		}
+	}
+
+	/**
+	 * Rebuilds tokens and token weights from a snapshot in the snapshot directory
+	 *
+	 * @param name name of the snapshot
+	 * @param replace true to delete every existing token weight before restoring
+	 *
+	 * @return {@link TokenWeightSnapshot.Summary} of the restored snapshot
+	 *
+	 * @throws ResponseStatusException 400 if the name is invalid, 404 if the snapshot does not exist
+	 */
+	@Operation(summary = "Restores the token weight graph from a snapshot", description = "", tags = { "Reinforcement Learning" })
+    @RequestMapping(value ="/snapshots/{name}/restore", method = RequestMethod.POST)
+    public @ResponseBody TokenWeightSnapshot.Summary restoreSnapshot(@PathVariable("name") String name,
+    		@Schema(description = "delete every existing token weight before restoring", example = "false") @RequestParam(value="replace", required=false, defaultValue="false") boolean replace) throws IOException {
+		try {
+			return weight_snapshot.restore(name, replace);
+		} catch(IllegalArgumentException e) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+		} catch(NoSuchFileException e) {
+			throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Snapshot not found " + name);
+		}
+	}
+
+	/**
+	 * Waits until a memory queued by write-behind has been written to the graph
+	 *
+	 * @throws ResponseStatusException 503 if the memory is still queued because writing it failed
+	 */
+	private void awaitPersisted(long memory_id) {
+		if(!memory_writer.awaitPersisted(memory_id)) {
+			throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Memory record " + memory_id + " could not be persisted yet, retry later");
+		}
+	}
+
+	/**
+	 * Ids reserved for write-behind point at empty nodes until the memory is written, and such a
+	 *  node has no predicted token
+	 */
+	private static boolean isWritten(MemoryRecord memory) {
+		return memory.getPredictedToken() != null;
+	}
+
+	/**
+	 * Looks a memory up in the graph first and falls back to the {@link MemoryArchive}
+	 *
+	 * @throws ResponseStatusException 404 if the memory does not exist in either
+	 */
+	private MemoryRecord findMemory(long memory_id) {
+		awaitPersisted(memory_id);
+		Optional<MemoryRecord> optional_memory = memory_repo.findById(memory_id);
+		if(optional_memory.isPresent() && isWritten(optional_memory.get())) {
+			return optional_memory.get();
+		}
+
+		MemoryRecord archived_memory = memory_archive.find(memory_id);
+		if(archived_memory == null) {
+			throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Memory record not found for id " + memory_id);
+		}
+		return archived_memory;
+	}
+
 	static int getMaxPredictionIndex(double[] prediction) {
 		if (prediction == null || prediction.length == 0) {
 			throw new IllegalArgumentException("Prediction array cannot be null or empty");
@@ -228,8 +464,7 @@ public class ReinforcementLearningController {
 						 throws JSONException, IllegalArgumentException, IllegalAccessException, NullPointerException, IOException
     {
 
-    	JSONObject json_obj = new JSONObject(json_object);
-    	List<Token> token_list = DataDecomposer.decompose(json_obj);
+    	List<Token> token_list = json_decomposer.decomposeJson(json_object);
     	brain.train(token_list, label);
     }
 }
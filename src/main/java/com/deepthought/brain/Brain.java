@@ -2,24 +2,30 @@ package com.qanairy.brain;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
 
 import com.deepthought.models.Token;
 import com.deepthought.models.MemoryRecord;
 import com.deepthought.models.Vocabulary;
 import com.deepthought.models.edges.TokenWeight;
 import com.deepthought.models.repository.TokenRepository;
-import com.deepthought.models.repository.TokenWeightRepository;
 import com.deepthought.models.repository.MemoryRecordRepository;
-
-import edu.stanford.nlp.util.ArrayUtils;
+import com.deepthought.models.repository.TokenPairWeight;
+import com.deepthought.models.repository.TokenPairWeightHistory;
+import com.qanairy.db.LearningLog;
 
 /**
  * Provides ability to predict and learn from data
@@ -29,30 +35,53 @@ import edu.stanford.nlp.util.ArrayUtils;
 public class Brain {
 	private static Logger log = LoggerFactory.getLogger(Brain.class);
 
+	//Q-LEARNING VARIABLES
+	private static final double LEARNING_RATE = .1;
+	private static final double DISCOUNT_FACTOR = .1;
+
+	//replace with steps to estimate reward for an output token independent of actual desired output token
+	private static final double ESTIMATED_REWARD = 1.0;
+
+	private static final QLearn Q_LEARN = new QLearn(LEARNING_RATE, DISCOUNT_FACTOR);
+
 	@Autowired
 	private TokenRepository token_repo;
 
 	@Autowired
-	private TokenWeightRepository token_weight_repo;
+	private MemoryRecordRepository memory_repo;
 
 	@Autowired
-	private MemoryRecordRepository memory_repo;
+	private TokenWeightCache weight_cache;
 
-	public Brain(){}
+	@Autowired
+	private TokenDictionary token_dictionary;
 
-	public double[] predict(double[][] policy){
+	@Autowired
+	private LearningLog learning_log;
 
-		double[] prediction = new double[policy[0].length];
-		for(int idx1 = 0; idx1 < policy[0].length; idx1++){
-			double sum = 0.0;
-			for(int idx2 = 0; idx2 < policy.length; idx2++){
-				sum += policy[idx2][idx1];
-			}
+	@Value("${deepthought.policy.virtual-initial-weights:false}")
+	private boolean virtual_initial_weights;
 
-			prediction[idx1] = sum;
-		}
-		prediction = ArrayUtils.normalize(prediction);
+	@Value("${deepthought.policy.initial-weight-seed:0}")
+	private long initial_weight_seed;
+
+	@Value("${deepthought.policy.weight-history-size:16}")
+	private int weight_history_size;
+
+	@Value("${deepthought.memory.policy-by-reference:false}")
+	private boolean policy_by_reference;
 
+	public Brain(){}
+
+	/**
+	 * Generates a normalized prediction vector from the column sums of the policy
+	 *
+	 * @param policy policy matrix of input tokens x output tokens
+	 * @return prediction vector with one weight per output token
+	 */
+	public double[] predict(double[][] policy){
+		double[] prediction = new double[policy[0].length];
+		PredictionKernel.predict(policy, prediction);
 		return prediction;
 	}
 
@@ -66,88 +95,172 @@ public class Brain {
 		//  3. load known vocabulary action policies
 		//  4. perform matrix math to inline update vocabulary policies for record based on reward/penalty for productivity
 	 *
-	 * @param path an {@link ArrayList} of graph vertex indices. Order matters
+	 * Memories read from the archive only update the token weights, their desired token cannot be
+	 *  recorded because they are no longer in the graph.
+	 *
+	 * @param memory memory being labeled, from the graph or the archive
+	 * @param actual_token token that should have been predicted
 	 * @throws IllegalArgumentException
 	 * @throws IllegalAccessException
 	 * @throws NullPointerException
 	 * @throws IOException
 	 */
-	public void learn(long memory_id,
+	public void learn(MemoryRecord memory,
 					  Token actual_token)
 						  throws IllegalArgumentException, IllegalAccessException,
 							  NullPointerException, IOException{
-		//Load memory from database
-		Optional<MemoryRecord> memory_record = memory_repo.findById(memory_id);
+		// 3. determine reward/regret score based on productivity status and apply all updates in one statement
+		List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+		addRewardRows(memory, actual_token.getValue(), new Random(), rows);
 
-		// 2a. load known action policies/probabilities for each object definition in the definition list
-		MemoryRecord memory = memory_record.get();
+		List<Map<String, Object>> desired_tokens = new ArrayList<Map<String, Object>>();
+		addDesiredTokenRow(memory, actual_token.getValue(), desired_tokens);
+		record(rows, desired_tokens);
+	}
 
-		// 3. determine reward/regret score based on productivity status
-		//Q-LEARNING VARIABLES
-		final double learning_rate = .1;
-		final double discount_factor = .1;
+	/**
+	 * Applies a batch of feedback in a single transaction. The rewards for every (input, output) pair of
+	 *  every memory are computed in memory and applied with one bulk statement, in feedback order so
+	 *  repeated feedback for the same pair compounds as it would for separate calls.
+	 *
+	 * @param memories memories to learn from, memories.get(i) is labeled with token_values.get(i).
+	 * 			Archived memories are learned from as in {@link #learn(MemoryRecord, Token)}
+	 * @param token_values values of the tokens that should have been predicted
+	 *
+	 * @pre memories.size() == token_values.size()
+	 */
+	@Transactional
+	public void learnBatch(List<MemoryRecord> memories, List<String> token_values){
+		if(memories.size() != token_values.size()){
+			throw new IllegalArgumentException("Each memory must have exactly one token value");
+		}
 
-		//set estimated reward using prediction from memory.
+		Random random = new Random();
+		List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+		List<Map<String, Object>> desired_tokens = new ArrayList<Map<String, Object>>();
+		for(int idx = 0; idx < memories.size(); idx++){
+			addRewardRows(memories.get(idx), token_values.get(idx), random, rows);
+			addDesiredTokenRow(memories.get(idx), token_values.get(idx), desired_tokens);
+		}
+		record(rows, desired_tokens);
+		log.debug("recorded "+memories.size()+" feedback entries as "+rows.size()+" token weight updates");
+	}
 
-		//replace with steps to estimate reward for an output token independent of actual desired output token
-		double estimated_reward = 1.0;
+	/**
+	 * Appends the feedback to the {@link LearningLog} when it is enabled, otherwise applies the rewards
+	 *  and desired tokens to the graph
+	 */
+	private void record(List<Map<String, Object>> rows, List<Map<String, Object>> desired_tokens){
+		if(learning_log.isEnabled()){
+			learning_log.append(rows, desired_tokens);
+			return;
+		}
+		applyRewards(rows);
+		memory_repo.recordDesiredTokens(desired_tokens);
+	}
 
-		// 3. determine reward/regret score based on productivity status
-		double actual_reward = 0.0;
-		QLearn q_learn = new QLearn(learning_rate, discount_factor);
+	/**
+	 * Adds one row for every (input, output) token pair of the memory with the weight delta that the
+	 *  Q-learning update adds for its reward
+	 *
+	 * @param memory memory being labeled
+	 * @param actual_value value of the token that should have been predicted
+	 * @param random source of random initial weights for pairs that are not connected yet
+	 * @param rows rows that the reward rows are appended to
+	 */
+	private void addRewardRows(MemoryRecord memory, String actual_value, Random random, List<Map<String, Object>> rows){
+		String predicted_value = memory.getPredictedToken().getValue();
 		for(String output_key : memory.getOutputTokenKeys()){
-
-			//if predicted token is equal to output token and actual token is equal to predicted token  OR output key equals actual token key
-			if(output_key.equals(actual_token.getValue()) && actual_token.getValue().equals(memory.getPredictedToken().getValue())){
-				log.debug("REWARD   ::    2");
-				actual_reward = 2.0;
-			}
-			else if(output_key.equals(actual_token.getValue())){
-				log.debug("REWARD   ::   1");
-				actual_reward = 1.0;
-			}
-			//if output isn't equal to the actual token or the predicted token, don't affect weights
-			else if(output_key.equals(memory.getPredictedToken().getValue()) && !output_key.equals(actual_token.getValue())){
-				log.debug("REWARD   ::     -2");
-				actual_reward = -1.0;
-			}
-			else if(!output_key.equals(actual_token.getValue())) {
-				log.debug("REWARD   ::     -1");
-				actual_reward = -2.0;
-			}
-			else {
-				log.debug("REWARD   ::    0");
-				//nothing changed so there was no reward for that combination. We want to remember this in the future
-				// so we set it to a negative value to simulate regret
-				actual_reward = 0.0;
-			}
-
-			List<TokenWeight> token_weights = new ArrayList<TokenWeight>();
+			double actual_reward = calculateReward(output_key, actual_value, predicted_value);
 			for(String input_key : memory.getInputTokenValues()){
-				memory.setDesiredToken(actual_token);
-				log.info("input key :: "+input_key);
-				log.info("output key :: " + output_key);
-				List<Token> tokens = token_repo.getConnectedTokens(input_key, output_key);
-				TokenWeight token_weight = null;
-				if(tokens.isEmpty()) {
-					Random random = new Random();
-					double weight = random.nextDouble();
-
-					token_weight = token_repo.createWeightedConnection(input_key, output_key, weight);
-				}
-				else {
-					token_weight = tokens.get(0).getTokenWeights().get(0);
-				}
-				double q_learn_val = Math.abs(q_learn.calculate(token_weight.getWeight(), actual_reward, estimated_reward ));
-				//updated token weight with q_learn_val
-				token_weight.setWeight(q_learn_val);
-				token_weights.add(token_weight);
-				log.debug("token ::    " + token_weight.getToken().getValue() + "  :::   " + token_weight.getWeight());
-				token_weight_repo.save(token_weight);
+				Map<String, Object> row = new HashMap<String, Object>();
+				row.put("input_value", input_key);
+				row.put("output_value", output_key);
+				row.put("delta", Q_LEARN.delta(actual_reward, ESTIMATED_REWARD));
+				row.put("initial_weight", initialWeight(input_key, output_key, random));
+				rows.add(row);
 			}
 		}
 	}
 
+	/**
+	 * Adds a row recording the token a memory should have predicted, which marks the memory as learned from.
+	 *  Archived memories get no row, since their id may have been reused by another node.
+	 */
+	private static void addDesiredTokenRow(MemoryRecord memory, String actual_value, List<Map<String, Object>> rows){
+		if(memory.isArchived()){
+			return;
+		}
+		Map<String, Object> row = new HashMap<String, Object>();
+		row.put("id", memory.getID());
+		row.put("token", actual_value);
+		rows.add(row);
+	}
+
+	/**
+	 * Adds the weight deltas of all reward rows to the graph, the same way the {@link LearningLog} applies
+	 *  them, and writes the resulting weights through to the {@link TokenWeightCache}
+	 *
+	 * @param rows reward rows built by {@link #addRewardRows(MemoryRecord, String, Random, List)}
+	 */
+	private void applyRewards(List<Map<String, Object>> rows){
+		if(rows.isEmpty()){
+			return;
+		}
+
+		//the history is only read to rebuild the policies of memories stored by reference
+		List<Map<String, Object>> folded_rows = LearningLog.foldRows(rows);
+		List<TokenPairWeight> updated_weights;
+		if(policy_by_reference && weight_history_size > 0){
+			updated_weights = token_repo.applyWeightDeltasWithHistory(folded_rows, weight_history_size);
+		}
+		else{
+			updated_weights = token_repo.applyWeightDeltas(folded_rows);
+		}
+		for(TokenPairWeight updated_weight : updated_weights){
+			log.debug("token ::    " + updated_weight.getInputValue() + "  :::   " + updated_weight.getWeight());
+			weight_cache.put(token_dictionary.idOf(updated_weight.getInputValue()),
+							 token_dictionary.idOf(updated_weight.getOutputValue()),
+							 updated_weight.getWeight());
+		}
+	}
+
+	/**
+	 * Determines the reward for an output token of a memory given the token that should have been predicted
+	 *
+	 * @param output_key value of the output token being rewarded
+	 * @param actual_value value of the token that should have been predicted
+	 * @param predicted_value value of the token that was predicted
+	 *
+	 * @return reward for the output token
+	 */
+	static double calculateReward(String output_key, String actual_value, String predicted_value){
+		//if predicted token is equal to output token and actual token is equal to predicted token  OR output key equals actual token key
+		if(output_key.equals(actual_value) && actual_value.equals(predicted_value)){
+			log.debug("REWARD   ::    2");
+			return 2.0;
+		}
+		else if(output_key.equals(actual_value)){
+			log.debug("REWARD   ::   1");
+			return 1.0;
+		}
+		//if output isn't equal to the actual token or the predicted token, don't affect weights
+		else if(output_key.equals(predicted_value) && !output_key.equals(actual_value)){
+			log.debug("REWARD   ::     -2");
+			return -1.0;
+		}
+		else if(!output_key.equals(actual_value)) {
+			log.debug("REWARD   ::     -1");
+			return -2.0;
+		}
+		else {
+			log.debug("REWARD   ::    0");
+			//nothing changed so there was no reward for that combination. We want to remember this in the future
+			// so we set it to a negative value to simulate regret
+			return 0.0;
+		}
+	}
+
 	/**
 	 *
 	 * @param object_list
@@ -206,6 +319,18 @@ public class Brain {
 
 	}
 
+	/**
+	 * Builds the policy matrix for the given input and output tokens. All existing
+	 *  {@link TokenWeight}s for the input x output grid are read through the {@link TokenWeightCache},
+	 *  cache misses are loaded with a single query, and all pairs without a connection are created
+	 *  with a random weight in one batched upsert. When virtual initial weights are enabled, pairs
+	 *  without a connection use their {@link InitialWeights} weight instead and nothing is written.
+	 *
+	 * @param input_tokens tokens that make up the rows of the policy
+	 * @param output_tokens tokens that make up the columns of the policy
+	 *
+	 * @return policy matrix of dimensions input_tokens.size() x output_tokens.size()
+	 */
 	public double[][] generatePolicy(List<Token> input_tokens, List<Token> output_tokens){
 		// 1. Create a memory record for prediction
 		Random random = new Random();
@@ -214,35 +339,79 @@ public class Brain {
 		log.info("input tokens size :: "+input_tokens.size());
 		log.info("output tokens size :: "+output_tokens.size());
 
-		for(int in_idx = 0; in_idx < input_tokens.size(); in_idx++){
-			for(int out_idx = 0; out_idx < output_tokens.size(); out_idx++){
-				List<Token> tokens = token_repo.getConnectedTokens(input_tokens.get(in_idx).getValue(), output_tokens.get(out_idx).getValue());
-				double weight = -1.0;
-
-				if(!tokens.isEmpty()){
-					for(TokenWeight token_weight : tokens.get(0).getTokenWeights()){
-						if(token_weight.getEndToken().equals(output_tokens.get(out_idx))){
-							weight = token_weight.getWeight();
-						}
-					}
+		//rows and columns are the distinct token values; values that are not in the graph yet have no dictionary id
+		Map<String, Integer> input_index = new HashMap<String, Integer>();
+		Map<String, Integer> output_index = new HashMap<String, Integer>();
+		int[] input_rows = distinctPositions(input_tokens, input_index);
+		int[] output_columns = distinctPositions(output_tokens, output_index);
+		String[] distinct_inputs = distinctValues(input_index);
+		String[] distinct_outputs = distinctValues(output_index);
+		int[] distinct_input_ids = lookupIds(distinct_inputs);
+		int[] distinct_output_ids = lookupIds(distinct_outputs);
+
+		//read through the weight cache and only query the graph for rows and columns that missed
+		double[][] known_weights = new double[distinct_input_ids.length][distinct_output_ids.length];
+		Set<String> uncached_inputs = new HashSet<String>();
+		Set<String> uncached_outputs = new HashSet<String>();
+		for(int in_idx = 0; in_idx < distinct_input_ids.length; in_idx++){
+			for(int out_idx = 0; out_idx < distinct_output_ids.length; out_idx++){
+				Double cached_weight = weight_cache.get(distinct_input_ids[in_idx], distinct_output_ids[out_idx]);
+				if(cached_weight != null){
+					known_weights[in_idx][out_idx] = cached_weight;
 				}
 				else{
-					weight = random.nextDouble();
-					TokenWeight token_weight = new TokenWeight();
-					token_weight.setEndToken(output_tokens.get(out_idx));
-					token_weight.setWeight(weight);
-					token_weight.setToken(input_tokens.get(in_idx));
-					Token input_token = input_tokens.get(in_idx);
-					Token input_token_record = token_repo.findByValue(input_token.getValue());
-					if(input_token_record != null){
-						input_token = input_token_record;
-					}
+					known_weights[in_idx][out_idx] = Double.NaN;
+					uncached_inputs.add(distinct_inputs[in_idx]);
+					uncached_outputs.add(distinct_outputs[out_idx]);
+				}
+			}
+		}
+
+		if(!uncached_inputs.isEmpty()){
+			//taken before the read, so that weights a learn writes through meanwhile are not overwritten with older ones
+			long read_stamp = weight_cache.readStamp();
+			List<TokenPairWeight> pair_weights = token_repo.getWeightsForPairs(uncached_inputs, uncached_outputs);
+			putKnownWeights(pair_weights, input_index, output_index, known_weights, read_stamp);
+		}
 
-					input_token.getTokenWeights().add(token_weight);
-					token_repo.save(input_token);
+		if(virtual_initial_weights){
+			//unseen pairs use their deterministic initial weight and are only written once they are learned from
+			for(int in_idx = 0; in_idx < distinct_input_ids.length; in_idx++){
+				for(int out_idx = 0; out_idx < distinct_output_ids.length; out_idx++){
+					if(Double.isNaN(known_weights[in_idx][out_idx])){
+						known_weights[in_idx][out_idx] = InitialWeights.weight(initial_weight_seed,
+																			   distinct_inputs[in_idx],
+																			   distinct_outputs[out_idx]);
+					}
 				}
+			}
+		}
+		else{
+			//create every missing connection with a random weight in a single upsert
+			List<Map<String, Object>> missing_connections = new ArrayList<Map<String, Object>>();
+			for(int in_idx = 0; in_idx < distinct_input_ids.length; in_idx++){
+				for(int out_idx = 0; out_idx < distinct_output_ids.length; out_idx++){
+					if(Double.isNaN(known_weights[in_idx][out_idx])){
+						Map<String, Object> row = new HashMap<String, Object>();
+						row.put("input_value", distinct_inputs[in_idx]);
+						row.put("output_value", distinct_outputs[out_idx]);
+						row.put("weight", random.nextDouble());
+						missing_connections.add(row);
+					}
+				}
+			}
+			if(!missing_connections.isEmpty()){
+				log.info("creating "+missing_connections.size()+" token connections");
+				long merge_stamp = weight_cache.readStamp();
+				List<TokenPairWeight> created_weights = token_repo.mergeWeightedConnections(missing_connections);
+				putKnownWeights(created_weights, input_index, output_index, known_weights, merge_stamp);
+			}
+		}
 
-				policy[in_idx][out_idx] = weight;
+		for(int in_idx = 0; in_idx < input_tokens.size(); in_idx++){
+			double[] known_row = known_weights[input_rows[in_idx]];
+			for(int out_idx = 0; out_idx < output_tokens.size(); out_idx++){
+				policy[in_idx][out_idx] = known_row[output_columns[out_idx]];
 			}
 		}
 		log.info("###################################################################");
@@ -251,6 +420,143 @@ public class Brain {
 		return policy;
 	}
 
+	/**
+	 * Retrieves the policy matrix a memory was predicted with. Memories stored by reference are rebuilt
+	 *  from the update history of each connection as of the memory's weight version.
+	 *
+	 * @param memory memory to load the policy of
+	 *
+	 * @return policy matrix of the memory's input tokens x output tokens, or null if the memory has
+	 * 			neither a policy matrix nor a weight version, or its weight version predates the last
+	 * 			snapshot restore
+	 */
+	public double[][] loadPolicy(MemoryRecord memory){
+		double[][] stored_policy = memory.getPolicyMatrix();
+		if(stored_policy != null || memory.getWeightVersion() == null){
+			return stored_policy;
+		}
+
+		long version = memory.getWeightVersion();
+		Long restored_version = token_repo.getRestoredWeightVersion();
+		if(restored_version != null && version < restored_version){
+			log.debug("policy of memory " + memory.getID() + " predates the last snapshot restore");
+			return null;
+		}
+
+		List<String> input_values = memory.getInputTokenValues();
+		String[] output_values = memory.getOutputTokenKeys();
+
+		Map<Long, Double> weights = new HashMap<Long, Double>();
+		if(!input_values.isEmpty() && output_values.length > 0){
+			for(TokenPairWeightHistory history : token_repo.getWeightHistoryForPairs(input_values, Arrays.asList(output_values))){
+				long key = TokenWeightCache.pairKey(token_dictionary.idOf(history.getInputValue()),
+													token_dictionary.idOf(history.getOutputValue()));
+				weights.put(key, history.weightAt(version));
+			}
+		}
+
+		double[][] policy = new double[input_values.size()][output_values.length];
+		for(int in_idx = 0; in_idx < input_values.size(); in_idx++){
+			int input_id = token_dictionary.lookup(input_values.get(in_idx));
+			for(int out_idx = 0; out_idx < output_values.length; out_idx++){
+				int output_id = token_dictionary.lookup(output_values[out_idx]);
+				Double weight = input_id < 0 || output_id < 0 ? null : weights.get(TokenWeightCache.pairKey(input_id, output_id));
+				if(weight == null){
+					//connection has not been created, so it still holds its virtual initial weight
+					weight = virtual_initial_weights ? InitialWeights.weight(initial_weight_seed, input_values.get(in_idx), output_values[out_idx]) : 0.0;
+				}
+				policy[in_idx][out_idx] = weight;
+			}
+		}
+		return policy;
+	}
+
+	/**
+	 * Weight that a connection starts with when it is first created
+	 *
+	 * @param input_value value of the input token
+	 * @param output_value value of the output token
+	 * @param random source of random initial weights
+	 *
+	 * @return deterministic {@link InitialWeights} weight when virtual initial weights are enabled, otherwise a random weight
+	 */
+	private double initialWeight(String input_value, String output_value, Random random){
+		if(virtual_initial_weights){
+			return InitialWeights.weight(initial_weight_seed, input_value, output_value);
+		}
+		return random.nextDouble();
+	}
+
+	/**
+	 * Copies weights read from the graph into the known weight matrix and the {@link TokenWeightCache}.
+	 *  The values of returned weights exist in the graph, so this is where they are assigned dictionary ids.
+	 *
+	 * @param pair_weights weights returned by the graph
+	 * @param input_index map of input token value to row of known_weights
+	 * @param output_index map of output token value to column of known_weights
+	 * @param known_weights weights of the distinct input x output tokens
+	 * @param read_stamp {@link TokenWeightCache#readStamp()} taken before the weights were read
+	 */
+	private void putKnownWeights(List<TokenPairWeight> pair_weights,
+								 Map<String, Integer> input_index,
+								 Map<String, Integer> output_index,
+								 double[][] known_weights,
+								 long read_stamp){
+		for(TokenPairWeight pair_weight : pair_weights){
+			Integer in_idx = input_index.get(pair_weight.getInputValue());
+			Integer out_idx = output_index.get(pair_weight.getOutputValue());
+			if(in_idx != null && out_idx != null){
+				known_weights[in_idx][out_idx] = pair_weight.getWeight();
+				weight_cache.putIfNotWrittenSince(token_dictionary.idOf(pair_weight.getInputValue()),
+												  token_dictionary.idOf(pair_weight.getOutputValue()),
+												  pair_weight.getWeight(),
+												  read_stamp);
+			}
+		}
+	}
+
+	/**
+	 * Records the position of each distinct token value in order of first appearance
+	 *
+	 * @param tokens tokens that may contain duplicate values
+	 * @param index map that is populated with value to position among the distinct values
+	 * @return position of each token's value, aligned with the token list
+	 */
+	private static int[] distinctPositions(List<Token> tokens, Map<String, Integer> index){
+		int[] positions = new int[tokens.size()];
+		for(int idx = 0; idx < positions.length; idx++){
+			Integer position = index.putIfAbsent(tokens.get(idx).getValue(), index.size());
+			positions[idx] = position == null ? index.size() - 1 : position;
+		}
+		return positions;
+	}
+
+	/**
+	 * @param index map of distinct value to position
+	 * @return distinct values ordered by position
+	 */
+	private static String[] distinctValues(Map<String, Integer> index){
+		String[] values = new String[index.size()];
+		for(Map.Entry<String, Integer> entry : index.entrySet()){
+			values[entry.getValue()] = entry.getKey();
+		}
+		return values;
+	}
+
+	/**
+	 * Looks up the {@link TokenDictionary} id of each value without assigning ids
+	 *
+	 * @param values token values
+	 * @return ids aligned with the values, -1 for values that have no id yet
+	 */
+	private int[] lookupIds(String[] values){
+		int[] ids = new int[values.length];
+		for(int idx = 0; idx < values.length; idx++){
+			ids[idx] = token_dictionary.lookup(values[idx]);
+		}
+		return ids;
+	}
+
 	public void train(List<Token> token_list, String label) {
 		//REINFORCEMENT LEARNING
 		log.info( " Initiating learning");
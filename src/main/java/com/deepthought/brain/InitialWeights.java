@@ -0,0 +1,50 @@
+package com.qanairy.brain;
+
+/**
+ * Derives the initial weight of a token connection from a seeded hash of its input and output token
+ *  values. The same seed and values always produce the same weight in [0, 1), so a connection that
+ *  has not been written to the graph yet can be treated as if it already held that weight.
+ */
+public final class InitialWeights {
+
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private InitialWeights(){}
+
+	/**
+	 * Computes the initial weight of the connection from the input token to the output token
+	 *
+	 * @param seed seed that selects the family of initial weights
+	 * @param input_value value of the input token
+	 * @param output_value value of the output token
+	 *
+	 * @return weight in [0, 1)
+	 */
+	public static double weight(long seed, String input_value, String output_value){
+		long hash = FNV_OFFSET_BASIS ^ mix(seed);
+		hash = hash(hash, input_value);
+		//separate the values so ("ab", "c") and ("a", "bc") hash differently
+		hash = (hash ^ 0xFFFF) * FNV_PRIME;
+		hash = hash(hash, output_value);
+		return (mix(hash) >>> 11) * 0x1.0p-53;
+	}
+
+	private static long hash(long hash, String value){
+		for(int idx = 0; idx < value.length(); idx++){
+			char c = value.charAt(idx);
+			hash = (hash ^ (c & 0xFF)) * FNV_PRIME;
+			hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+		}
+		return hash;
+	}
+
+	/**
+	 * SplitMix64 finalizer, spreads every input bit across the whole output
+	 */
+	private static long mix(long value){
+		value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+		value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+		return value ^ (value >>> 31);
+	}
+}
@@ -0,0 +1,133 @@
+package com.qanairy.brain;
+
+/**
+ * Allocation-free kernels that turn a policy matrix into a normalized prediction vector. Each
+ *  output weight is the column sum of the policy divided by the total of all column sums.
+ *
+ * Policies are walked row by row so that the inner loop reads memory sequentially, and results
+ *  are written into caller-supplied buffers so the kernels can be reused across requests.
+ *  {@link #topK(double[], int, int[])} selects the best outputs of a prediction vector.
+ */
+public final class PredictionKernel {
+
+	private PredictionKernel(){}
+
+	/**
+	 * Computes the normalized prediction for a policy stored as separate rows. Rows are accumulated
+	 *  one at a time so each row is read sequentially.
+	 *
+	 * @param policy policy matrix where policy[row][column] is the weight of (row, column)
+	 * @param prediction output buffer of at least policy[0].length elements
+	 */
+	public static void predict(double[][] policy, double[] prediction){
+		int columns = policy[0].length;
+		if(prediction.length < columns){
+			throw new IllegalArgumentException("Prediction buffer is smaller than the number of policy columns");
+		}
+
+		for(int column = 0; column < columns; column++){
+			prediction[column] = 0.0;
+		}
+		for(double[] row : policy){
+			for(int column = 0; column < columns; column++){
+				prediction[column] += row[column];
+			}
+		}
+		normalize(prediction, columns);
+	}
+
+	/**
+	 * Divides the first {@code length} values by their total in place
+	 *
+	 * @param values values to normalize
+	 * @param length number of leading values to normalize
+	 */
+	public static void normalize(double[] values, int length){
+		double total = 0.0;
+		for(int idx = 0; idx < length; idx++){
+			total += values[idx];
+		}
+		for(int idx = 0; idx < length; idx++){
+			values[idx] /= total;
+		}
+	}
+
+	/**
+	 * Selects the indices of the k largest values without sorting the whole vector. A bounded
+	 *  min-heap of the best k candidates is kept in the index buffer and sorted once at the end,
+	 *  so selection costs O(n log k). Ties are broken in favour of the lower index.
+	 *
+	 * @param values values to select from
+	 * @param k maximum number of indices to select
+	 * @param indices output buffer that receives the selected indices ordered from largest to smallest value
+	 *
+	 * @return number of selected indices, min(k, values.length)
+	 */
+	public static int topK(double[] values, int k, int[] indices){
+		if(k < 0){
+			throw new IllegalArgumentException("k cannot be negative");
+		}
+		int count = Math.min(k, values.length);
+		if(indices.length < count){
+			throw new IllegalArgumentException("Index buffer is smaller than k");
+		}
+
+		for(int idx = 0; idx < count; idx++){
+			indices[idx] = idx;
+			siftUp(values, indices, idx);
+		}
+		for(int idx = count; idx < values.length; idx++){
+			if(count > 0 && isBetter(values, idx, indices[0])){
+				indices[0] = idx;
+				siftDown(values, indices, 0, count);
+			}
+		}
+
+		//repeatedly move the worst remaining candidate to the end so the buffer ends up best first
+		for(int end = count - 1; end > 0; end--){
+			swap(indices, 0, end);
+			siftDown(values, indices, 0, end);
+		}
+		return count;
+	}
+
+	private static boolean isBetter(double[] values, int a, int b){
+		return values[a] > values[b] || (values[a] == values[b] && a < b);
+	}
+
+	private static void siftUp(double[] values, int[] heap, int position){
+		while(position > 0){
+			int parent = (position - 1) >>> 1;
+			if(!isBetter(values, heap[parent], heap[position])){
+				return;
+			}
+			swap(heap, parent, position);
+			position = parent;
+		}
+	}
+
+	private static void siftDown(double[] values, int[] heap, int position, int size){
+		while(true){
+			int worst = position;
+			int left = 2 * position + 1;
+			int right = left + 1;
+			if(left < size && isBetter(values, heap[worst], heap[left])){
+				worst = left;
+			}
+			if(right < size && isBetter(values, heap[worst], heap[right])){
+				worst = right;
+			}
+			if(worst == position){
+				return;
+			}
+			swap(heap, position, worst);
+			position = worst;
+		}
+	}
+
+	private static void swap(int[] array, int a, int b){
+		int tmp = array[a];
+		array[a] = array[b];
+		array[b] = tmp;
+	}
+}
@@ -28,7 +28,18 @@ public class QLearn {
 	 * @return
 	 */
 	public double calculate(double old_value, double actual_reward, double estimated_future_reward){
-		return (old_value + learning_rate * (actual_reward + (discount_factor * estimated_future_reward)));
+		return (old_value + delta(actual_reward, estimated_future_reward));
+	}
+
+	/**
+	 * Calculates the amount the q-learning equation adds to the value experienced previously
+	 *
+	 * @param actual_reward
+	 * @param estimated_future_reward predicted reward
+	 * @return
+	 */
+	public double delta(double actual_reward, double estimated_future_reward){
+		return learning_rate * (actual_reward + (discount_factor * estimated_future_reward));
 	}
 
 }
@@ -0,0 +1,97 @@
+package com.qanairy.brain;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.deepthought.models.Token;
+import com.deepthought.models.repository.TokenRepository;
+
+/**
+ * Process-wide dictionary that assigns a dense int id to the value of every {@link Token} in the graph,
+ *  so that the {@link TokenWeightCache} can key its entries by a pair of ints. Ids are assigned once,
+ *  never reused and are only meaningful within the running process. The dictionary is seeded with all
+ *  {@link Token} values in the graph at startup and only grows as values are read back from the graph,
+ *  so it is bounded by the graph's vocabulary rather than by request input. Values that are not in the
+ *  graph yet are resolved with {@link #lookup(String)}, which never assigns an id. Request tokens and
+ *  policies are not indexed by these ids, since new tokens have none until their connections are written.
+ *
+ * @threadsafe
+ */
+@Component
+public class TokenDictionary {
+	private static Logger log = LoggerFactory.getLogger(TokenDictionary.class);
+
+	@Autowired
+	private TokenRepository token_repo;
+
+	private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+	private final AtomicInteger next_id = new AtomicInteger();
+
+	/**
+	 * Assigns ids to all {@link Token} values that already exist in the graph
+	 */
+	@PostConstruct
+	public void loadTokens() {
+		if(token_repo == null){
+			return;
+		}
+
+		try{
+			List<String> token_values = token_repo.findAllValues();
+			for(String value : token_values){
+				if(value != null && !value.isEmpty()){
+					idOf(value);
+				}
+			}
+			log.info("loaded "+size()+" token values into dictionary");
+		}
+		catch(RuntimeException e){
+			log.warn("Unable to preload token dictionary; ids will be assigned lazily. "+e.getMessage());
+		}
+	}
+
+	/**
+	 * Returns the id for the given value, assigning a new id if the value has not been seen before.
+	 *  Only call with values read from the graph; use {@link #lookup(String)} for request input.
+	 *
+	 * @param value value of a {@link Token} in the graph
+	 * @return dense id of the value, or -1 if the value is null or empty
+	 */
+	public int idOf(String value) {
+		if(value == null || value.isEmpty()){
+			return -1;
+		}
+
+		Integer id = ids.get(value);
+		if(id != null){
+			return id;
+		}
+		return ids.computeIfAbsent(value, new_value -> next_id.getAndIncrement());
+	}
+
+	/**
+	 * Looks up the id for the given value without assigning one
+	 *
+	 * @param value token value
+	 * @return id of the value or -1 if the value has no id
+	 */
+	public int lookup(String value) {
+		if(value == null){
+			return -1;
+		}
+		Integer id = ids.get(value);
+		return id == null ? -1 : id;
+	}
+
+	public int size() {
+		return ids.size();
+	}
+}
@@ -0,0 +1,297 @@
+package com.qanairy.brain;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Bounded, in-process cache of {@code HAS_RELATED_TOKEN} weights keyed by the {@link TokenDictionary} ids
+ *  of the (input, output) token pair. Entries are evicted in least-recently-used order once the cache is full and expire after a fixed
+ *  time-to-live so that weights written by other instances are eventually re-read from the graph.
+ *
+ * The cache is split into stripes, each an access ordered map with its own lock and an equal share of the
+ *  capacity, so that predictions and learns on different pairs do not contend on one lock. Eviction is
+ *  least-recently-used within a stripe.
+ *
+ * Weights come from two kinds of writers. Learns write the weight they just stored in the graph through
+ *  with {@link #put(int, int, double)}, and predictions fill misses with weights they read from the graph
+ *  with {@link #putIfNotWrittenSince(int, int, double, long)}. A prediction may read a weight before a
+ *  learn updates it and try to cache it after the learn wrote the newer weight through, so each stripe
+ *  records the stamp of its latest write through and fills read before that stamp are dropped.
+ *
+ * @threadsafe
+ */
+@Component
+public class TokenWeightCache {
+
+	private final int max_size;
+	private final long ttl_nanos;
+	private final LongSupplier clock;
+	private final Stripe[] stripes;
+	private final int stripe_mask;
+
+	//incremented by every write through and clear, fills read at an older stamp may be stale
+	private final AtomicLong write_stamp = new AtomicLong();
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	@Autowired
+	public TokenWeightCache(@Value("${deepthought.weight-cache.max-size:100000}") int max_size,
+							@Value("${deepthought.weight-cache.ttl-seconds:600}") long ttl_seconds) {
+		this(max_size, TimeUnit.SECONDS.toNanos(ttl_seconds), System::nanoTime,
+			 defaultStripeCount(max_size, Runtime.getRuntime().availableProcessors()));
+	}
+
+	/**
+	 * @param stripe_count number of stripes, a power of two
+	 */
+	TokenWeightCache(int max_size, long ttl_nanos, LongSupplier clock, int stripe_count) {
+		if(max_size < 0){
+			throw new IllegalArgumentException("Cache size cannot be negative");
+		}
+		if(stripe_count < 1 || Integer.bitCount(stripe_count) != 1){
+			throw new IllegalArgumentException("Stripe count must be a positive power of two");
+		}
+		this.max_size = max_size;
+		this.ttl_nanos = ttl_nanos;
+		this.clock = clock;
+		this.stripe_mask = stripe_count - 1;
+		this.stripes = new Stripe[stripe_count];
+		//round up so that the stripes together hold at least max_size entries
+		int stripe_size = (max_size + stripe_count - 1) / stripe_count;
+		for(int idx = 0; idx < stripe_count; idx++){
+			stripes[idx] = new Stripe(stripe_size);
+		}
+	}
+
+	/**
+	 * @return four stripes per processor rounded up to a power of two, but no more stripes than entries
+	 */
+	static int defaultStripeCount(int max_size, int processors) {
+		int stripe_count = Integer.highestOneBit(Math.max(1, processors * 4 - 1)) << 1;
+		while(stripe_count > 1 && stripe_count > max_size){
+			stripe_count >>>= 1;
+		}
+		return stripe_count;
+	}
+
+	/**
+	 * Looks up the cached weight for the given token pair
+	 *
+	 * @param input_id id of the input token
+	 * @param output_id id of the output token
+	 *
+	 * @return cached weight, or null if either id is negative, the pair is not cached or its entry has expired
+	 */
+	public Double get(int input_id, int output_id) {
+		if(input_id < 0 || output_id < 0){
+			misses.increment();
+			return null;
+		}
+		long key = pairKey(input_id, output_id);
+		Stripe stripe = stripeOf(key);
+		CachedWeight cached;
+		synchronized(stripe){
+			cached = stripe.get(key);
+			if(cached != null && clock.getAsLong() - cached.written_at > ttl_nanos){
+				stripe.remove(key);
+				evictions.increment();
+				cached = null;
+			}
+		}
+
+		if(cached == null){
+			misses.increment();
+			return null;
+		}
+		hits.increment();
+		return cached.weight;
+	}
+
+	/**
+	 * Writes through the weight a learn stored in the graph for the given token pair, replacing any
+	 *  existing entry. Pairs with a negative id, i.e. a value without a {@link TokenDictionary} id, are not cached
+	 *
+	 * @param input_id id of the input token
+	 * @param output_id id of the output token
+	 * @param weight current weight of the connection
+	 */
+	public void put(int input_id, int output_id, double weight) {
+		if(max_size == 0 || input_id < 0 || output_id < 0){
+			return;
+		}
+		long key = pairKey(input_id, output_id);
+		Stripe stripe = stripeOf(key);
+		CachedWeight cached = new CachedWeight(weight, clock.getAsLong());
+		synchronized(stripe){
+			stripe.last_write_stamp = write_stamp.incrementAndGet();
+			stripe.put(key, cached);
+		}
+	}
+
+	/**
+	 * @return stamp to take before reading weights from the graph, and to pass to
+	 *  {@link #putIfNotWrittenSince(int, int, double, long)} when caching them
+	 */
+	public long readStamp() {
+		return write_stamp.get();
+	}
+
+	/**
+	 * Caches a weight read from the graph, unless a weight may have been written through or the cache
+	 *  cleared since the read started. Stamps are tracked per stripe, so a write through to another pair
+	 *  of the same stripe also drops the fill, which only costs a later miss.
+	 *
+	 * @param input_id id of the input token
+	 * @param output_id id of the output token
+	 * @param weight weight read from the graph
+	 * @param read_stamp {@link #readStamp()} taken before the weight was read
+	 *
+	 * @return true if the weight was cached
+	 */
+	public boolean putIfNotWrittenSince(int input_id, int output_id, double weight, long read_stamp) {
+		if(max_size == 0 || input_id < 0 || output_id < 0){
+			return false;
+		}
+		long key = pairKey(input_id, output_id);
+		Stripe stripe = stripeOf(key);
+		CachedWeight cached = new CachedWeight(weight, clock.getAsLong());
+		synchronized(stripe){
+			if(stripe.last_write_stamp > read_stamp){
+				return false;
+			}
+			stripe.put(key, cached);
+			return true;
+		}
+	}
+
+	/**
+	 * Removes all entries without affecting the hit/miss/eviction counters. Weights read from the graph
+	 *  before the clear are not cached afterwards.
+	 */
+	public void clear() {
+		for(Stripe stripe : stripes){
+			synchronized(stripe){
+				stripe.last_write_stamp = write_stamp.incrementAndGet();
+				stripe.clear();
+			}
+		}
+	}
+
+	public int size() {
+		int size = 0;
+		for(Stripe stripe : stripes){
+			synchronized(stripe){
+				size += stripe.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * @return snapshot of the cache counters
+	 */
+	public Stats getStats() {
+		return new Stats(hits.sum(), misses.sum(), evictions.sum(), size(), max_size);
+	}
+
+	/**
+	 * Point in time snapshot of cache counters, used to size the cache
+	 */
+	public static class Stats {
+		private final long hits;
+		private final long misses;
+		private final long evictions;
+		private final int size;
+		private final int max_size;
+
+		public Stats(long hits, long misses, long evictions, int size, int max_size) {
+			this.hits = hits;
+			this.misses = misses;
+			this.evictions = evictions;
+			this.size = size;
+			this.max_size = max_size;
+		}
+
+		public long getHits() {
+			return hits;
+		}
+
+		public long getMisses() {
+			return misses;
+		}
+
+		public long getEvictions() {
+			return evictions;
+		}
+
+		public int getSize() {
+			return size;
+		}
+
+		public int getMaxSize() {
+			return max_size;
+		}
+
+		public double getHitRate() {
+			long total = hits + misses;
+			return total == 0 ? 0.0 : (double)hits / total;
+		}
+	}
+
+	/**
+	 * Packs an (input, output) id pair into a single key, input id in the high 32 bits
+	 */
+	static long pairKey(int input_id, int output_id) {
+		return ((long)input_id << 32) | (output_id & 0xFFFFFFFFL);
+	}
+
+	private static final class CachedWeight {
+		private final double weight;
+		private final long written_at;
+
+		CachedWeight(double weight, long written_at) {
+			this.weight = weight;
+			this.written_at = written_at;
+		}
+	}
+
+	private Stripe stripeOf(long key) {
+		int hash = Long.hashCode(key) * 0x9E3779B9;
+		return stripes[(hash ^ (hash >>> 16)) & stripe_mask];
+	}
+
+	/**
+	 * Access ordered map of one stripe, guarded by its own monitor
+	 */
+	private final class Stripe extends LinkedHashMap<Long, CachedWeight> {
+		private static final long serialVersionUID = 1L;
+
+		private final int max_size;
+		//write_stamp of the latest write through or clear of this stripe
+		private long last_write_stamp = 0;
+
+		Stripe(int max_size) {
+			super(16, 0.75f, true);
+			this.max_size = max_size;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, CachedWeight> eldest) {
+			if(size() > max_size){
+				evictions.increment();
+				return true;
+			}
+			return false;
+		}
+	}
+}
@@ -0,0 +1,259 @@
+package com.qanairy.config;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Parameter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.PostConstruct;
+
+import org.neo4j.driver.Driver;
+import org.neo4j.driver.Session;
+import org.neo4j.driver.exceptions.Neo4jException;
+import org.neo4j.driver.summary.Plan;
+import org.neo4j.driver.summary.ResultSummary;
+import org.neo4j.ogm.session.SessionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.AnnotatedBeanDefinition;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.context.annotation.ClassPathScanningCandidateComponentProvider;
+import org.springframework.core.type.filter.AssignableTypeFilter;
+import org.springframework.data.neo4j.annotation.Query;
+import org.springframework.data.repository.Repository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ClassUtils;
+
+import com.deepthought.models.repository.AllowLabelScan;
+
+/**
+ * Ensures the constraints and indexes that repository lookups rely on exist when the application
+ *  starts, then runs {@code EXPLAIN} on every {@link Query} in the repository package and reports
+ *  queries whose plan scans every node of a label. Queries annotated with {@link AllowLabelScan}
+ *  are only checked for planning errors.
+ *
+ * A constraint that cannot be created, for example because the graph already holds duplicate
+ *  values, is logged and skipped so that the remaining schema is still created.
+ */
+@Component
+public class SchemaManager {
+	private static Logger log = LoggerFactory.getLogger(SchemaManager.class);
+
+	static final String REPOSITORY_PACKAGE = "com.deepthought.models.repository";
+
+	static final List<String> SCHEMA = Collections.unmodifiableList(Arrays.asList(
+			"CREATE CONSTRAINT token_value_unique IF NOT EXISTS FOR (t:Token) REQUIRE t.value IS UNIQUE",
+			"CREATE CONSTRAINT vocabulary_label_unique IF NOT EXISTS FOR (v:Vocabulary) REQUIRE v.label IS UNIQUE",
+			"CREATE INDEX image_matrix_node_type IF NOT EXISTS FOR (n:ImageMatrixNode) ON (n.type)",
+			//the unique constraint replaces the plain index created by earlier versions, which would block it
+			"DROP INDEX image_matrix_node_source_hash IF EXISTS",
+			"CREATE CONSTRAINT image_matrix_node_source_hash_unique IF NOT EXISTS FOR (n:ImageMatrixNode) REQUIRE n.source_hash IS UNIQUE",
+			"CREATE INDEX image_matrix_node_pixel_hash IF NOT EXISTS FOR (n:ImageMatrixNode) ON (n.pixel_hash)",
+			"CREATE INDEX memory_record_date IF NOT EXISTS FOR (m:MemoryRecord) ON (m.date)",
+			"CREATE INDEX memory_record_reserved_at IF NOT EXISTS FOR (m:MemoryRecord) ON (m.reserved_at)",
+			"CREATE INDEX vocabulary_word_value IF NOT EXISTS FOR (w:VocabularyWord) ON (w.value)",
+			"CREATE CONSTRAINT learning_log_checkpoint_name_unique IF NOT EXISTS FOR (c:LearningLogCheckpoint) REQUIRE c.name IS UNIQUE",
+			"CREATE CONSTRAINT weight_version_name_unique IF NOT EXISTS FOR (c:WeightVersion) REQUIRE c.name IS UNIQUE"));
+
+	static final List<String> LABEL_SCAN_OPERATORS = Collections.unmodifiableList(Arrays.asList(
+			"NodeByLabelScan", "AllNodesScan"));
+
+	/**
+	 * What to do when a repository query plan scans a whole label or cannot be planned
+	 */
+	public enum PlanCheck {
+		OFF,
+		WARN,
+		FAIL
+	}
+
+	@Autowired
+	private SessionFactory session_factory;
+
+	@Value("${deepthought.schema.enabled:true}")
+	private boolean enabled;
+
+	@Value("${deepthought.schema.plan-check:WARN}")
+	private PlanCheck plan_check;
+
+	@PostConstruct
+	public void start() {
+		if(!enabled){
+			return;
+		}
+
+		Driver driver = session_factory.unwrap(Driver.class);
+		ensureSchema(driver);
+		if(plan_check != PlanCheck.OFF){
+			checkQueryPlans(driver, findRepositoryQueries());
+		}
+	}
+
+	/**
+	 * Creates every constraint and index in {@link #SCHEMA} that does not exist yet
+	 */
+	void ensureSchema(Driver driver) {
+		try(Session session = driver.session()){
+			for(String statement : SCHEMA){
+				try{
+					session.run(statement).consume();
+				}
+				catch(Neo4jException e){
+					log.error("Failed to apply schema statement '"+statement+"'. "+e.getMessage());
+				}
+			}
+		}
+		log.info("ensured "+SCHEMA.size()+" schema constraints and indexes");
+	}
+
+	/**
+	 * Explains each query and reports plans that scan a whole label, or that fail to plan
+	 *
+	 * @throws IllegalStateException if the plan check is {@link PlanCheck#FAIL} and any query was reported
+	 */
+	void checkQueryPlans(Driver driver, List<RepositoryQuery> queries) {
+		List<String> problems = new ArrayList<String>();
+		try(Session session = driver.session()){
+			for(RepositoryQuery query : queries){
+				ResultSummary summary;
+				try{
+					summary = session.run("EXPLAIN " + query.getCypher(), query.getParameters()).consume();
+				}
+				catch(Neo4jException e){
+					problems.add(query.getName()+" cannot be planned: "+e.getMessage());
+					continue;
+				}
+
+				if(query.isLabelScanAllowed() || !summary.hasPlan()){
+					continue;
+				}
+				List<String> scans = findLabelScans(summary.plan());
+				if(!scans.isEmpty()){
+					problems.add(query.getName()+" scans a whole label with "+scans);
+				}
+			}
+		}
+
+		for(String problem : problems){
+			log.warn(problem);
+		}
+		if(plan_check == PlanCheck.FAIL && !problems.isEmpty()){
+			throw new IllegalStateException(problems.size()+" repository queries failed the query plan check: "+problems);
+		}
+		log.info("checked query plans of "+queries.size()+" repository queries");
+	}
+
+	/**
+	 * Finds every repository interface in {@link #REPOSITORY_PACKAGE} and collects its {@link Query} methods
+	 */
+	static List<RepositoryQuery> findRepositoryQueries() {
+		ClassPathScanningCandidateComponentProvider scanner = new ClassPathScanningCandidateComponentProvider(false) {
+			@Override
+			protected boolean isCandidateComponent(AnnotatedBeanDefinition definition) {
+				return definition.getMetadata().isInterface();
+			}
+		};
+		scanner.addIncludeFilter(new AssignableTypeFilter(Repository.class));
+
+		List<RepositoryQuery> queries = new ArrayList<RepositoryQuery>();
+		for(BeanDefinition definition : scanner.findCandidateComponents(REPOSITORY_PACKAGE)){
+			Class<?> repository = ClassUtils.resolveClassName(definition.getBeanClassName(), SchemaManager.class.getClassLoader());
+			queries.addAll(queriesOf(repository));
+		}
+		return queries;
+	}
+
+	/**
+	 * Collects the {@link Query} methods declared on a repository, in method name order
+	 */
+	static List<RepositoryQuery> queriesOf(Class<?> repository) {
+		List<Method> methods = new ArrayList<Method>(Arrays.asList(repository.getDeclaredMethods()));
+		methods.sort(Comparator.comparing(Method::getName));
+
+		List<RepositoryQuery> queries = new ArrayList<RepositoryQuery>();
+		for(Method method : methods){
+			Query query = method.getAnnotation(Query.class);
+			if(query == null){
+				continue;
+			}
+
+			//EXPLAIN only needs every parameter to be bound, not a meaningful value
+			Map<String, Object> parameters = new HashMap<String, Object>();
+			for(Parameter parameter : method.getParameters()){
+				Param param = parameter.getAnnotation(Param.class);
+				parameters.put(param != null ? param.value() : parameter.getName(), null);
+			}
+			queries.add(new RepositoryQuery(repository.getSimpleName()+"."+method.getName(),
+											query.value(),
+											parameters,
+											method.isAnnotationPresent(AllowLabelScan.class)));
+		}
+		return queries;
+	}
+
+	/**
+	 * Walks a query plan and collects the operators that read every node of a label
+	 *
+	 * @param plan root of the plan
+	 *
+	 * @return label scan operators, empty if the plan has none
+	 */
+	static List<String> findLabelScans(Plan plan) {
+		List<String> scans = new ArrayList<String>();
+		collectLabelScans(plan, scans);
+		return scans;
+	}
+
+	private static void collectLabelScans(Plan plan, List<String> scans) {
+		//operator types carry a runtime suffix in Neo4j 4, e.g. NodeByLabelScan@neo4j
+		String operator = plan.operatorType();
+		int suffix = operator.indexOf('@');
+		if(LABEL_SCAN_OPERATORS.contains(suffix < 0 ? operator : operator.substring(0, suffix))){
+			scans.add(operator);
+		}
+		for(Plan child : plan.children()){
+			collectLabelScans(child, scans);
+		}
+	}
+
+	/**
+	 * Cypher of a repository {@link Query} together with the parameters needed to explain it
+	 */
+	static class RepositoryQuery {
+		private final String name;
+		private final String cypher;
+		private final Map<String, Object> parameters;
+		private final boolean label_scan_allowed;
+
+		RepositoryQuery(String name, String cypher, Map<String, Object> parameters, boolean label_scan_allowed) {
+			this.name = name;
+			this.cypher = cypher;
+			this.parameters = parameters;
+			this.label_scan_allowed = label_scan_allowed;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getCypher() {
+			return cypher;
+		}
+
+		public Map<String, Object> getParameters() {
+			return parameters;
+		}
+
+		public boolean isLabelScanAllowed() {
+			return label_scan_allowed;
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package com.qanairy.db;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash set of strings that compares strings with {@link String#equalsIgnoreCase(String)}.
+ *  Strings are hashed over their case-folded chars, so a lookup neither allocates a lower case copy
+ *  nor compares against every stored string. {@link #clear()} keeps the table, so a set can be
+ *  reused for many inputs without growing again.
+ *
+ * Not thread safe, each thread should use its own set.
+ */
+public class CaseInsensitiveStringSet {
+
+	private String[] table;
+	private int size;
+
+	public CaseInsensitiveStringSet() {
+		this(16);
+	}
+
+	public CaseInsensitiveStringSet(int expected_size) {
+		int capacity = 16;
+		while(capacity < expected_size * 2){
+			capacity <<= 1;
+		}
+		this.table = new String[capacity];
+	}
+
+	/**
+	 * Adds the value unless a value equal to it ignoring case is already in the set
+	 *
+	 * @param value value to add
+	 *
+	 * @return true if the value was added
+	 */
+	public boolean add(String value) {
+		int idx = indexOf(value);
+		if(table[idx] != null){
+			return false;
+		}
+		table[idx] = value;
+		size++;
+		if(size * 2 > table.length){
+			resize();
+		}
+		return true;
+	}
+
+	/**
+	 * @return true if a value equal to the given value ignoring case is in the set
+	 */
+	public boolean contains(String value) {
+		return table[indexOf(value)] != null;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Removes every value, keeping the capacity of the set
+	 */
+	public void clear() {
+		if(size > 0){
+			Arrays.fill(table, null);
+			size = 0;
+		}
+	}
+
+	/**
+	 * @return index of the slot holding a value equal to the given value ignoring case, or of the empty slot where it belongs
+	 */
+	private int indexOf(String value) {
+		int mask = table.length - 1;
+		int idx = hash(value) & mask;
+		String candidate;
+		while((candidate = table[idx]) != null && !candidate.equalsIgnoreCase(value)){
+			idx = (idx + 1) & mask;
+		}
+		return idx;
+	}
+
+	private void resize() {
+		String[] previous = table;
+		table = new String[previous.length * 2];
+		int mask = table.length - 1;
+		for(String value : previous){
+			if(value != null){
+				int idx = hash(value) & mask;
+				while(table[idx] != null){
+					idx = (idx + 1) & mask;
+				}
+				table[idx] = value;
+			}
+		}
+	}
+
+	/**
+	 * Hash of the case-folded chars. Chars that {@link String#equalsIgnoreCase(String)} treats as equal fold to the same char.
+	 */
+	static int hash(String value) {
+		int hash = 0;
+		for(int idx = 0; idx < value.length(); idx++){
+			hash = 31 * hash + Character.toLowerCase(Character.toUpperCase(value.charAt(idx)));
+		}
+		return hash ^ (hash >>> 16);
+	}
+}
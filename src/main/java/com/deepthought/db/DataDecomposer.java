@@ -1,10 +1,19 @@
 package com.qanairy.db;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -13,6 +22,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.deepthought.models.Token;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 
 /**
  * Defines static methods to handle the decomposition of it's data into their constituent pieces.
@@ -20,6 +33,148 @@ import com.deepthought.models.Token;
 public class DataDecomposer {
     private static Logger log = LoggerFactory.getLogger(DataDecomposer.class);
 
+    //the interner of each thread is reset once it holds this many words, bounding the strings it keeps reachable
+    private static final int INTERNED_WORDS_PER_THREAD = 4096;
+    private static final ThreadLocal<Words> thread_words = ThreadLocal.withInitial(Words::new);
+
+    private static final ClassValue<FieldReader[]> field_readers = new ClassValue<FieldReader[]>() {
+    	@Override
+    	protected FieldReader[] computeValue(Class<?> type) {
+    		Field[] fields = type.getFields();
+    		FieldReader[] readers = new FieldReader[fields.length];
+    		for(int idx = 0; idx < fields.length; idx++){
+    			readers[idx] = FieldReader.of(fields[idx]);
+    		}
+    		return readers;
+    	}
+    };
+
+    //accepts the same relaxed syntax as org.json, such as single quoted strings and unquoted field names
+    private static final JsonFactory json_factory = new JsonFactory()
+    		.configure(JsonParser.Feature.ALLOW_SINGLE_QUOTES, true)
+    		.configure(JsonParser.Feature.ALLOW_UNQUOTED_FIELD_NAMES, true)
+    		.configure(JsonParser.Feature.ALLOW_COMMENTS, true);
+
+    /**
+     * Decomposes a JSON object into tokens in a single pass over the text, without building an
+     *  intermediate tree. Every string, number, boolean and null value at any depth, including values
+     *  nested in arrays, is split into words. Field names are not tokens.
+     *
+     * @param json text of a JSON object
+     *
+     * @return tokens in the order their values appear in the text
+     *
+     * @throws JsonParseException if the text is not a well formed JSON object
+     */
+    public static List<Token> decomposeJson(String json) throws IOException {
+    	List<Token> tokens = new ArrayList<Token>();
+    	readJsonValues(json, value -> addWords(value, tokens));
+    	return tokens;
+    }
+
+    /**
+     * Decomposes a JSON object into the same tokens as {@link #decomposeJson(String)}, parsing it in
+     *  parallel when its text is longer than chars_per_task. The calling thread only checks the
+     *  structure of the text and splits arrays and objects longer than chars_per_task into runs of
+     *  elements or fields of about chars_per_task chars. Each run is then parsed, walked and split into
+     *  words by its own fork-join subtask, and the token lists of the runs are joined in document order.
+     *
+     * @param json text of a JSON object
+     * @param pool pool to decompose large objects in, or null to always decompose on the calling thread
+     * @param chars_per_task size of the text parsed by each subtask. Objects no longer than this are
+     * 			decomposed on the calling thread
+     *
+     * @return tokens in the order their values appear in the text
+     *
+     * @throws JsonParseException if the text is not a well formed JSON object
+     */
+    public static List<Token> decomposeJson(String json, ForkJoinPool pool, int chars_per_task) throws IOException {
+    	if(chars_per_task < 1){
+    		throw new IllegalArgumentException("chars_per_task must be greater than 0");
+    	}
+    	if(pool == null || json.length() <= chars_per_task){
+    		return decomposeJson(json);
+    	}
+
+    	List<JsonSplitter.Run> runs = JsonSplitter.split(json, chars_per_task);
+    	if(runs.size() < 2){
+    		return decomposeJson(json);
+    	}
+
+    	@SuppressWarnings("unchecked")
+    	List<Token>[] run_tokens = new List[runs.size()];
+    	try{
+    		pool.invoke(new DecomposeRunsTask(json, runs, run_tokens, 0, runs.size()));
+    	}
+    	catch(UncheckedIOException e){
+    		throw e.getCause();
+    	}
+    	log.debug("decomposed "+json.length()+" chars of JSON in "+runs.size()+" tasks");
+
+    	int size = 0;
+    	for(List<Token> tokens : run_tokens){
+    		size += tokens.size();
+    	}
+    	List<Token> tokens = new ArrayList<Token>(size);
+    	for(List<Token> part : run_tokens){
+    		tokens.addAll(part);
+    	}
+    	return tokens;
+    }
+
+    /**
+     * Passes the text of every string, number, boolean and null value of a JSON object to the consumer
+     *  in document order
+     */
+    private static void readJsonValues(String json, Consumer<String> values) throws IOException {
+    	try(JsonParser parser = json_factory.createParser(json)){
+    		if(parser.nextToken() != JsonToken.START_OBJECT){
+    			throw new JsonParseException(parser, "Expected a JSON object");
+    		}
+    		readContainerValues(parser, values);
+    	}
+    }
+
+    /**
+     * Decomposes one run of a document split by {@link JsonSplitter}
+     */
+    private static List<Token> decomposeRun(String json, JsonSplitter.Run run) throws IOException {
+    	List<Token> tokens = new ArrayList<Token>();
+    	try(JsonParser parser = json_factory.createParser(run.reader(json))){
+    		parser.nextToken();
+    		readContainerValues(parser, value -> addWords(value, tokens));
+    	}
+    	return tokens;
+    }
+
+    /**
+     * Passes the text of every value of the array or object whose start token was just read to the
+     *  consumer in document order, up to and including its end token
+     */
+    private static void readContainerValues(JsonParser parser, Consumer<String> values) throws IOException {
+    	int depth = 1;
+    	while(depth > 0){
+    		JsonToken token = parser.nextToken();
+    		if(token == null){
+    			throw new JsonParseException(parser, "Unexpected end of JSON object");
+    		}
+    		switch(token){
+    			case START_OBJECT:
+    			case START_ARRAY:
+    				depth++;
+    				break;
+    			case END_OBJECT:
+    			case END_ARRAY:
+    				depth--;
+    				break;
+    			case FIELD_NAME:
+    				break;
+    			default:
+    				values.accept(parser.getText());
+    		}
+    	}
+    }
+
     /**
 	 * Decomposes object into data fragments
 	 *
@@ -35,21 +190,18 @@ public class DataDecomposer {
 
 		while(iter.hasNext()){
 			String key = iter.next();
-			log.info("Object Field Name :: "+key);
 			Object value = jsonObject.get(key);
 			if(value!=null){
 	        	Token objDef = null;
-	        	log.info("System class :: "+value.getClass());
-	        	log.info("VALUE BEING READ :::  "+value.toString());
 	        	if(value.toString().length()>=3 && value.toString().substring(0, 1).equals("{")){
-	        		log.info("converting to json string");
+	        		log.debug("converting to json string");
 	        		//String json_string = value.toString().substring(1, value.toString().length()-1);
 		        	JSONObject obj = new JSONObject(value.toString());
 		        	List<Token> definition_list = decompose(obj);
 		        	objDefList.addAll(definition_list);
 	        	}
 	        	else if(value.getClass().equals(ArrayList.class)){
-		        	log.info("Deconstructing Array list");
+		        	log.debug("Deconstructing Array list");
 		        	ArrayList<?> list = ((ArrayList<?>)value);
 		        	//return all elements of array
 		        	List<Token> decomposedList = decomposeArrayList(list);
@@ -57,10 +209,10 @@ public class DataDecomposer {
 		        }
 	        	else if(value.getClass().equals(JSONObject.class)){
 	        		JSONObject json = new JSONObject(value.toString());
-	        		System.out.println("JSON :: "+json);
+	        		log.debug("JSON :: "+json);
 	        	}
 		        else if(value.getClass().equals(String[].class)){
-		        	log.info("Deconstructing String array");
+		        	log.debug("Deconstructing String array");
 
 		        	String[] array = (String[]) value;
 		        	for(String stringVal : array){
@@ -69,28 +221,22 @@ public class DataDecomposer {
 		            }
 		        }
 		        else if(value.getClass().equals(Object[].class)){
-		        	log.info("Deconstructing Object list");
+		        	log.debug("Deconstructing Object list");
 
 		        	Object[] array = (Object[]) value;
 		        	List<Token> decomposedList = decomposeObjectArray(array);
 		        	objDefList.addAll(decomposedList);
 		        }
 		        else if(value.getClass().equals(JSONArray.class)){
-		        	log.info("Deconstructing JSONArray list");
+		        	log.debug("Deconstructing JSONArray list");
 		        	JSONArray array = new JSONArray(value.toString());
 		        	for(int idx=0; idx<array.length(); idx++){
 		        		objDefList.addAll(decompose(array.get(idx).toString()));
 		        	}
 		        }
 		        else{
-		        	String[] words = value.toString().split("\\s+");
-		        	log.info("parsing string .....");
-		        	for(String word : words){
-		        		objDef = new Token(word);
-		        		objDefList.add(objDef);
-		        	}
+		        	addWords(value.toString(), objDefList);
 		        }
-	        	log.info("Ending list size :: "+objDefList.size());
 
 			}
         }
@@ -109,18 +255,65 @@ public class DataDecomposer {
 	 */
 	public static List<Token> decompose(String value) throws IllegalArgumentException, IllegalAccessException, NullPointerException{
 		List<Token> objDefList = new ArrayList<Token>();
-    	String[] words = value.toString().split("\\s+");
-    	for(String word : words){
-    		log.info("word :: "+word);
-    		Token objDef = new Token(word);
-    		objDefList.add(objDef);
-    	}
+		addWords(value, objDefList);
 
 		return objDefList;
 	}
 
 	/**
-	 * Decomposes object into data fragments
+	 * Splits a value on whitespace and appends a token for each word. Words are interned so that
+	 *  repeated words share one string.
+	 */
+	private static void addWords(CharSequence value, List<Token> tokens){
+		Words words = thread_words.get();
+		words.tokenizer.tokenize(value, (text, offset, length) -> tokens.add(new Token(words.interner.intern(text, offset, length))));
+	}
+
+	/**
+	 * Removes tokens whose value repeats an earlier token or one of the excluded values, comparing
+	 *  values ignoring case. The first occurrence of each value is kept, in order. Tokens without a
+	 *  value are removed.
+	 *
+	 * @param tokens decomposed tokens
+	 * @param excluded tokens whose values must not appear in the result, such as output labels
+	 *
+	 * @return new list of distinct tokens
+	 */
+	public static List<Token> distinct(List<Token> tokens, List<Token> excluded){
+		CaseInsensitiveStringSet seen = thread_words.get().seen;
+		seen.clear();
+		try{
+			for(Token token : excluded){
+				if(token.getValue() != null){
+					seen.add(token.getValue());
+				}
+			}
+
+			List<Token> distinct_tokens = new ArrayList<Token>(tokens.size());
+			for(Token token : tokens){
+				if(token.getValue() != null && seen.add(token.getValue())){
+					distinct_tokens.add(token);
+				}
+			}
+			return distinct_tokens;
+		}
+		finally{
+			seen.clear();
+		}
+	}
+
+	/**
+	 * Tokenizer, interner and set reused by every decomposition on a thread
+	 */
+	private static class Words {
+		private final WhitespaceTokenizer tokenizer = new WhitespaceTokenizer(64);
+		private final StringInterner interner = new StringInterner(INTERNED_WORDS_PER_THREAD);
+		private final CaseInsensitiveStringSet seen = new CaseInsensitiveStringSet(256);
+	}
+
+	/**
+	 * Decomposes the public fields of an object into data fragments. The fields of each class are
+	 *  resolved once and read through cached {@link FieldReader}s.
 	 *
 	 * @return
 	 * @throws IllegalArgumentException
@@ -128,67 +321,23 @@ public class DataDecomposer {
 	 */
 	public static List<Token> decompose(Object obj) throws IllegalArgumentException, IllegalAccessException, NullPointerException{
 		List<Token> objDefList = new ArrayList<Token>();
-		JSONObject jsonObject = new JSONObject();
-		Iterator<String> iter = jsonObject.keys();
+		for(FieldReader reader : field_readers.get(obj.getClass())){
+			Object value = reader.read(obj);
+			if(value == null){
+				continue;
+			}
 
-		while(iter.hasNext()){
-			iter.next();
+			switch(reader.getKind()){
+				case WORDS:
+					addWords(value.toString(), objDefList);
+					break;
+				case STRING_ARRAY:
+					addStrings((String[])value, objDefList);
+					break;
+				case BY_VALUE_CLASS:
+					addValue(value, objDefList);
+			}
 		}
-		Class<?> objClass = obj.getClass();
-	    Field[] fields = objClass.getFields();
-        log.info("LIST CLASS:: "+ objClass);
-        log.info("FIELD COUNT : "+ fields.length);
-	    for(Field field : fields) {
-	        Object value = field.get(obj);
-	        if(value!=null){
-	        	Token objDef = null;
-
-	        	if(value.getClass().equals(ArrayList.class)){
-		        	log.info("Deconstructing Array list");
-		        	ArrayList<?> list = ((ArrayList<?>)value);
-		        	//return all elements of array
-		        	List<Token> decomposedList = decomposeArrayList(list);
-	        		objDefList.addAll(decomposedList);
-		        }
-	        	else if(value.getClass().equals(ArrayList.class)){
-		        	log.info("Deconstructing Array list");
-		        	ArrayList<?> list = ((ArrayList<?>)value);
-		        	//return all elements of array
-		        	List<Token> decomposedList = decomposeArrayList(list);
-	        		objDefList.addAll(decomposedList);
-		        }
-		        else if(value.getClass().equals(String[].class)){
-		        	log.info("Deconstructing String array");
-
-		        	String[] array = (String[]) value;
-		        	for(String stringVal : array){
-		        		objDef = new Token(stringVal.toString());
-		        		objDefList.add(objDef);
-		            }
-		        }
-		        else if(value.getClass().equals(Object[].class)){
-		        	log.info("Deconstructing Object list");
-
-		        	Object[] array = (Object[]) value;
-		        	List<Token> decomposedList = decomposeObjectArray(array);
-		        	objDefList.addAll(decomposedList);
-		        }
-		        else{
-		        	log.info("Creating object definition for field");
-		        	String[] words = value.toString().split("\\s+");
-		        	log.info("VALUE :: " +value.toString());
-		        	log.info("words :: "+words.length);
-		        	for(String word : words){
-		        		log.info("word :: "+word);
-		        		objDef = new Token(word);
-		        		objDefList.add(objDef);
-		        	}
-
-	        		//objDef = new Token(value.toString(), field.getType().getSimpleName().replace(".", "").replace("[","").replace("]",""));
-		        	//objDefList.add(objDef);
-		        }
-	        }
-	    }
 		return objDefList;
 	}
 
@@ -201,57 +350,40 @@ public class DataDecomposer {
 	 */
 	public static List<Token> decompose(HashMap<?,?> map) throws IllegalArgumentException, IllegalAccessException, NullPointerException{
 		List<Token> objDefList = new ArrayList<Token>();
-
-		Class<?> objClass = map.getClass();
-        log.info("LIST CLASS:: "+ objClass);
-
-		for(Object key : map.keySet()){
-			Object value = map.get(key);
+		for(Object value : map.values()){
 			if(value!=null){
-	        	Token objDef = null;
-
-	        	if(value.getClass().equals(ArrayList.class)){
-		        	log.info("Deconstructing Array list");
-		        	ArrayList<?> list = ((ArrayList<?>)value);
-		        	//return all elements of array
-		        	List<Token> decomposedList = decomposeArrayList(list);
-	        		objDefList.addAll(decomposedList);
-		        }
-	        	else if(value.getClass().equals(ArrayList.class)){
-		        	log.info("Deconstructing Array list");
-		        	ArrayList<?> list = ((ArrayList<?>)value);
-		        	//return all elements of array
-		        	List<Token> decomposedList = decomposeArrayList(list);
-	        		objDefList.addAll(decomposedList);
-		        }
-		        else if(value.getClass().equals(String[].class)){
-		        	log.info("Deconstructing String array");
-
-		        	String[] array = (String[]) value;
-		        	for(String stringVal : array){
-		        		objDef = new Token(stringVal.toString());
-		        		objDefList.add(objDef);
-		            }
-		        }
-		        else if(value.getClass().equals(Object[].class)){
-		        	log.info("Deconstructing Object list");
+				addValue(value, objDefList);
+			}
+		}
+		return objDefList;
+	}
 
-		        	Object[] array = (Object[]) value;
-		        	List<Token> decomposedList = decomposeObjectArray(array);
-		        	objDefList.addAll(decomposedList);
-		        }
-		        else{
-		        	log.info("Creating object definition for field");
-		        	String[] words = value.toString().split("\\s+");
+	/**
+	 * Decomposes a field or map value based on its runtime class
+	 */
+	private static void addValue(Object value, List<Token> objDefList) throws IllegalArgumentException, IllegalAccessException{
+		Class<?> value_class = value.getClass();
+		if(value_class.equals(ArrayList.class)){
+			log.debug("Deconstructing Array list");
+			objDefList.addAll(decomposeArrayList((ArrayList<?>)value));
+		}
+		else if(value_class.equals(String[].class)){
+			log.debug("Deconstructing String array");
+			addStrings((String[])value, objDefList);
+		}
+		else if(value_class.equals(Object[].class)){
+			log.debug("Deconstructing Object list");
+			objDefList.addAll(decomposeObjectArray((Object[])value));
+		}
+		else{
+			addWords(value.toString(), objDefList);
+		}
+	}
 
-		        	for(String word : words){
-		        		objDef = new Token(word);
-		        		objDefList.add(objDef);
-		        	}
-		        }
-	        }
+	private static void addStrings(String[] array, List<Token> objDefList){
+		for(String stringVal : array){
+			objDefList.add(new Token(stringVal.toString()));
 		}
-		return objDefList;
 	}
 
 	/**
@@ -294,4 +426,113 @@ public class DataDecomposer {
         }
 		return objDefList;
 	}
+
+	/**
+	 * Reads one public field through a {@link MethodHandle} and records how its values are
+	 *  decomposed. Fields whose declared type is a final class always hold values of that class,
+	 *  so their dispatch is decided when the reader is created.
+	 */
+	private static class FieldReader {
+		private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+		private final MethodHandle getter;
+		private final IllegalAccessException access_failure;
+		private final Kind kind;
+
+		enum Kind {
+			WORDS,
+			STRING_ARRAY,
+			BY_VALUE_CLASS
+		}
+
+		private FieldReader(MethodHandle getter, IllegalAccessException access_failure, Kind kind) {
+			this.getter = getter;
+			this.access_failure = access_failure;
+			this.kind = kind;
+		}
+
+		static FieldReader of(Field field) {
+			Class<?> type = field.getType();
+			Kind kind;
+			if(type.equals(String[].class)){
+				kind = Kind.STRING_ARRAY;
+			}
+			else if(type.isPrimitive() || (Modifier.isFinal(type.getModifiers()) && !type.isArray())){
+				kind = Kind.WORDS;
+			}
+			else{
+				kind = Kind.BY_VALUE_CLASS;
+			}
+
+			try{
+				MethodHandle getter = MethodHandles.lookup().unreflectGetter(field);
+				if(Modifier.isStatic(field.getModifiers())){
+					getter = MethodHandles.dropArguments(getter, 0, Object.class);
+				}
+				return new FieldReader(getter.asType(GETTER_TYPE), null, kind);
+			}
+			catch(IllegalAccessException e){
+				//reported when the field is read, as Field.get would
+				return new FieldReader(null, e, kind);
+			}
+		}
+
+		Kind getKind() {
+			return kind;
+		}
+
+		Object read(Object obj) throws IllegalAccessException {
+			if(access_failure != null){
+				throw access_failure;
+			}
+			try{
+				return (Object)getter.invokeExact(obj);
+			}
+			catch(RuntimeException | Error e){
+				throw e;
+			}
+			catch(Throwable e){
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+	/**
+	 * Decomposes runs of a split JSON document. Task i stores the tokens of run i in run_tokens[i].
+	 *  Ranges of more than one run are split in half.
+	 */
+	private static class DecomposeRunsTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final String json;
+		private final List<JsonSplitter.Run> runs;
+		private final List<Token>[] run_tokens;
+		private final int first_run;
+		private final int end_run;
+
+		DecomposeRunsTask(String json, List<JsonSplitter.Run> runs, List<Token>[] run_tokens, int first_run, int end_run) {
+			this.json = json;
+			this.runs = runs;
+			this.run_tokens = run_tokens;
+			this.first_run = first_run;
+			this.end_run = end_run;
+		}
+
+		@Override
+		protected void compute() {
+			if(end_run - first_run > 1){
+				int middle = (first_run + end_run) >>> 1;
+				invokeAll(new DecomposeRunsTask(json, runs, run_tokens, first_run, middle),
+						  new DecomposeRunsTask(json, runs, run_tokens, middle, end_run));
+				return;
+			}
+
+			try{
+				run_tokens[first_run] = decomposeRun(json, runs.get(first_run));
+			}
+			catch(IOException e){
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
 }
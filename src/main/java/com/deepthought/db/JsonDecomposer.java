@@ -0,0 +1,75 @@
+package com.qanairy.db;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.deepthought.models.Token;
+
+/**
+ * Decomposes JSON request bodies into {@link Token}s. When parallelism is above 1, documents longer
+ *  than chars-per-task are split into runs of array elements and object fields that are parsed by a
+ *  fork-join pool of parallelism threads. Smaller documents, and every document when parallelism is 0
+ *  or 1, are decomposed on the request thread. By default there is one thread per available processor,
+ *  so hosts with a single processor never start the pool; see {@code JsonDecomposerBenchmark}.
+ *
+ * @threadsafe
+ */
+@Component
+public class JsonDecomposer {
+	private static Logger log = LoggerFactory.getLogger(JsonDecomposer.class);
+
+	@Value("${deepthought.decompose.parallelism:-1}")
+	private int parallelism = -1;
+
+	@Value("${deepthought.decompose.chars-per-task:65536}")
+	private int chars_per_task = 65536;
+
+	private ForkJoinPool pool;
+
+	@PostConstruct
+	public void start() {
+		int threads = parallelism < 0 ? Runtime.getRuntime().availableProcessors() : parallelism;
+		if(threads <= 1){
+			return;
+		}
+
+		pool = new ForkJoinPool(threads, fork_join_pool -> {
+			ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(fork_join_pool);
+			thread.setName("data-decomposer-" + thread.getPoolIndex());
+			return thread;
+		}, null, false);
+		log.info("parallel JSON decomposition enabled with "+threads+" threads and "+chars_per_task+" chars per task");
+	}
+
+	/**
+	 * Decomposes a JSON object into the tokens of its values in document order
+	 *
+	 * @param json text of a JSON object
+	 *
+	 * @return tokens in the order their values appear in the text
+	 *
+	 * @throws IOException if the text is not a well formed JSON object
+	 *
+	 * @see DataDecomposer#decomposeJson(String, ForkJoinPool, int)
+	 */
+	public List<Token> decomposeJson(String json) throws IOException {
+		return DataDecomposer.decomposeJson(json, pool, chars_per_task);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		if(pool != null){
+			pool.shutdown();
+		}
+	}
+}
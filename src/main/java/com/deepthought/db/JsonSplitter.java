@@ -0,0 +1,306 @@
+package com.qanairy.db;
+
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+
+/**
+ * Splits the text of a JSON object into runs of sibling values that can be parsed independently.
+ *  Arrays and objects longer than chars_per_task are descended into, and their elements or fields
+ *  are grouped into runs of about chars_per_task chars. Smaller containers stay whole inside the run
+ *  of their siblings. Each run is parsed as an array or object holding only its siblings, so the
+ *  values of all runs in order are the values of the document in order. Field names of split
+ *  containers are dropped, since they are not tokens.
+ *
+ * The splitter checks the structure of the text, such as brackets, commas and colons, and skips
+ *  strings without decoding them. Numbers, literals and escapes are validated by the parser of the
+ *  run that holds them. It accepts the same relaxed syntax as {@link DataDecomposer}: single quoted
+ *  strings, unquoted field names and comments.
+ *
+ * Not thread safe, each document is split by its own splitter.
+ */
+class JsonSplitter {
+
+	private final String json;
+	private final int chars_per_task;
+	private final List<Run> runs = new ArrayList<Run>();
+	private int pos = 0;
+
+	private JsonSplitter(String json, int chars_per_task) {
+		this.json = json;
+		this.chars_per_task = chars_per_task;
+	}
+
+	/**
+	 * Splits a JSON object into runs of sibling values
+	 *
+	 * @param json text of a JSON object
+	 * @param chars_per_task containers longer than this are split, and runs are closed once they reach it
+	 *
+	 * @return runs in document order, empty if the object is not longer than chars_per_task
+	 *
+	 * @throws JsonParseException if the structure of the text is not a well formed JSON object
+	 */
+	static List<Run> split(String json, int chars_per_task) throws JsonParseException {
+		JsonSplitter splitter = new JsonSplitter(json, chars_per_task);
+		splitter.skipSpace();
+		if(splitter.peek() != '{'){
+			throw splitter.error("Expected a JSON object");
+		}
+		splitter.container();
+		return splitter.runs;
+	}
+
+	/**
+	 * Skips the array or object at the current position. If it is longer than chars_per_task, runs
+	 *  are added for its elements, with any elements that are split themselves in between.
+	 */
+	private void container() throws JsonParseException {
+		int start = pos;
+		boolean object = json.charAt(pos) == '{';
+		char close = object ? '}' : ']';
+		pos++;
+
+		//the run of siblings that has not been added yet, it is added before the runs of any sibling that is split
+		int run_start = -1;
+		int run_end = -1;
+		skipSpace();
+		if(peek() == close){
+			pos++;
+			return;
+		}
+
+		while(true){
+			skipSpace();
+			int element_start = pos;
+			if(object){
+				fieldName();
+				skipSpace();
+				if(peek() != ':'){
+					throw error("Expected ':' after field name");
+				}
+				pos++;
+				skipSpace();
+			}
+
+			int runs_before = runs.size();
+			value();
+			if(runs.size() > runs_before){
+				if(run_start >= 0){
+					runs.add(runs_before, new Run(object, run_start, run_end));
+					run_start = -1;
+				}
+			}
+			else{
+				if(run_start < 0){
+					run_start = element_start;
+				}
+				run_end = pos;
+				if(run_end - run_start >= chars_per_task){
+					runs.add(new Run(object, run_start, run_end));
+					run_start = -1;
+				}
+			}
+
+			skipSpace();
+			char next = peek();
+			pos++;
+			if(next == close){
+				break;
+			}
+			if(next != ','){
+				throw error("Expected ',' or '"+close+"'", pos - 1);
+			}
+		}
+
+		if(pos - start <= chars_per_task){
+			//small enough to stay whole in the run of its siblings, which cannot have been split either
+			return;
+		}
+		if(run_start >= 0){
+			runs.add(new Run(object, run_start, run_end));
+		}
+	}
+
+	/**
+	 * Skips the value at the current position, splitting it if it is a large array or object
+	 */
+	private void value() throws JsonParseException {
+		char c = peek();
+		if(c == '{' || c == '['){
+			container();
+		}
+		else if(c == '"' || c == '\''){
+			skipString(c);
+		}
+		else{
+			int start = pos;
+			while(pos < json.length() && !isDelimiter(json.charAt(pos))){
+				pos++;
+			}
+			if(pos == start){
+				throw error("Unexpected character '"+c+"'");
+			}
+		}
+	}
+
+	private void fieldName() throws JsonParseException {
+		char c = peek();
+		if(c == '"' || c == '\''){
+			skipString(c);
+			return;
+		}
+
+		int start = pos;
+		while(pos < json.length() && Character.isJavaIdentifierPart(json.charAt(pos))){
+			pos++;
+		}
+		if(pos == start){
+			throw error("Expected a field name");
+		}
+	}
+
+	private void skipString(char quote) throws JsonParseException {
+		pos++;
+		while(pos < json.length()){
+			char c = json.charAt(pos);
+			if(c == '\\'){
+				pos += 2;
+			}
+			else{
+				pos++;
+				if(c == quote){
+					return;
+				}
+			}
+		}
+		throw error("Unexpected end of JSON string");
+	}
+
+	/**
+	 * Skips whitespace and comments
+	 */
+	private void skipSpace() throws JsonParseException {
+		while(pos < json.length()){
+			char c = json.charAt(pos);
+			if(Character.isWhitespace(c)){
+				pos++;
+			}
+			else if(c == '/' && pos + 1 < json.length() && json.charAt(pos + 1) == '*'){
+				int end = json.indexOf("*/", pos + 2);
+				if(end < 0){
+					throw error("Unexpected end of comment");
+				}
+				pos = end + 2;
+			}
+			else if(c == '/' && pos + 1 < json.length() && json.charAt(pos + 1) == '/'){
+				int end = json.indexOf('\n', pos + 2);
+				pos = end < 0 ? json.length() : end + 1;
+			}
+			else{
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return char at the current position
+	 *
+	 * @throws JsonParseException if the text ends at the current position
+	 */
+	private char peek() throws JsonParseException {
+		if(pos >= json.length()){
+			throw error("Unexpected end of JSON object");
+		}
+		return json.charAt(pos);
+	}
+
+	private static boolean isDelimiter(char c) {
+		return c == ',' || c == ':' || c == ']' || c == '}' || c == '[' || c == '{' || c == '/' || Character.isWhitespace(c);
+	}
+
+	private JsonParseException error(String message) {
+		return error(message, pos);
+	}
+
+	private JsonParseException error(String message, int offset) {
+		return new JsonParseException((JsonParser)null, message+" at char "+offset);
+	}
+
+	/**
+	 * Sibling values of one array or object, from the start of the first value, or its field name,
+	 *  to the end of the last value
+	 */
+	static class Run {
+		private final boolean object;
+		private final int start;
+		private final int end;
+
+		Run(boolean object, int start, int end) {
+			this.object = object;
+			this.start = start;
+			this.end = end;
+		}
+
+		/**
+		 * @return reader of the run wrapped in the brackets of its container, without copying the text
+		 */
+		Reader reader(String json) {
+			return new RunReader(json, this);
+		}
+
+		int length() {
+			return end - start;
+		}
+	}
+
+	/**
+	 * Reads a run of a document as an array or object of its own
+	 */
+	private static class RunReader extends Reader {
+		private final String json;
+		private final Run run;
+		//position in the wrapped text, 0 is the opening bracket and run.length() + 1 the closing one
+		private int pos = 0;
+
+		RunReader(String json, Run run) {
+			this.json = json;
+			this.run = run;
+		}
+
+		@Override
+		public int read(char[] buffer, int offset, int length) {
+			int total = run.length() + 2;
+			if(pos >= total){
+				return -1;
+			}
+
+			int count = 0;
+			while(count < length && pos < total){
+				if(pos == 0){
+					buffer[offset + count++] = run.object ? '{' : '[';
+					pos++;
+				}
+				else if(pos == total - 1){
+					buffer[offset + count++] = run.object ? '}' : ']';
+					pos++;
+				}
+				else{
+					int chars = Math.min(length - count, total - 1 - pos);
+					int from = run.start + pos - 1;
+					json.getChars(from, from + chars, buffer, offset + count);
+					count += chars;
+					pos += chars;
+				}
+			}
+			return count;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
@@ -0,0 +1,527 @@
+package com.qanairy.db;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.neo4j.driver.AccessMode;
+import org.neo4j.driver.Driver;
+import org.neo4j.driver.Record;
+import org.neo4j.driver.Session;
+import org.neo4j.driver.SessionConfig;
+import org.neo4j.ogm.session.SessionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.deepthought.models.repository.MemoryRecordRepository;
+import com.deepthought.models.repository.TokenRepository;
+import com.qanairy.brain.TokenDictionary;
+import com.qanairy.brain.TokenWeightCache;
+
+/**
+ * Durable log of learning feedback. When enabled, {@link com.qanairy.brain.Brain} appends the weight
+ *  deltas and desired tokens of each learn call to a local {@link WriteAheadLog} and returns once the
+ *  entry is on disk, instead of waiting for the graph writes.
+ *
+ * A background applier folds the pending entries into one row per {@code HAS_RELATED_TOKEN}
+ *  connection, keeping the deltas of each connection in log order, and writes them to the graph in a
+ *  single transaction together with the lsn of the last applied entry. On startup the log is replayed
+ *  from that checkpoint, so feedback that was acknowledged but not yet applied is not lost. Learned
+ *  weights become visible to predictions once the applier has written them.
+ *
+ * Entries are only applied once they have been forced to disk. Entries whose fsync failed are
+ *  discarded, although their record may still be replayed after a restart if it reached the disk.
+ *
+ * @threadsafe
+ */
+@Component
+public class LearningLog {
+	private static Logger log = LoggerFactory.getLogger(LearningLog.class);
+
+	static final String CHECKPOINT_NAME = "learning-log";
+
+	static final String READ_CHECKPOINT = "MATCH (c:LearningLogCheckpoint{name:$name}) RETURN c.lsn AS lsn";
+
+	static final String WRITE_CHECKPOINT = "MERGE (c:LearningLogCheckpoint{name:$name}) SET c.lsn = $lsn";
+
+	@Autowired
+	private SessionFactory session_factory;
+
+	@Autowired
+	private TokenWeightCache weight_cache;
+
+	@Autowired
+	private TokenDictionary token_dictionary;
+
+	@Value("${deepthought.learning-log.enabled:false}")
+	private boolean enabled;
+
+	@Value("${deepthought.learning-log.directory:data/learning-log}")
+	private String directory;
+
+	@Value("${deepthought.learning-log.segment-max-bytes:67108864}")
+	private long segment_max_bytes;
+
+	@Value("${deepthought.learning-log.batch-size:1000}")
+	private int batch_size;
+
+	@Value("${deepthought.learning-log.max-pending:100000}")
+	private int max_pending;
+
+	@Value("${deepthought.learning-log.flush-interval-ms:200}")
+	private long flush_interval_ms;
+
+	@Value("${deepthought.policy.weight-history-size:16}")
+	private int weight_history_size;
+
+	@Value("${deepthought.memory.policy-by-reference:false}")
+	private boolean policy_by_reference;
+
+	private final LinkedBlockingQueue<Entry> pending = new LinkedBlockingQueue<Entry>();
+	private final Object append_lock = new Object();
+	private WriteAheadLog wal;
+	private ScheduledExecutorService applier;
+	private volatile long applied_lsn;
+
+	@PostConstruct
+	public void start() {
+		if(!enabled){
+			return;
+		}
+
+		try(Session session = driver().session(SessionConfig.builder().withDefaultAccessMode(AccessMode.READ).build())){
+			applied_lsn = session.readTransaction(tx -> {
+				List<Record> records = tx.run(READ_CHECKPOINT, Collections.<String, Object>singletonMap("name", CHECKPOINT_NAME)).list();
+				return records.isEmpty() || records.get(0).get("lsn").isNull() ? 0L : records.get(0).get("lsn").asLong();
+			});
+		}
+
+		try{
+			wal = new WriteAheadLog(Paths.get(directory).toAbsolutePath().normalize(), segment_max_bytes);
+			for(WriteAheadLog.LogRecord record : wal.open(applied_lsn)){
+				pending.add(decode(record.getLsn(), record.getPayload()));
+			}
+		}
+		catch(IOException e){
+			throw new UncheckedIOException("Failed to open learning log " + directory, e);
+		}
+		if(!pending.isEmpty()){
+			log.info("replaying "+pending.size()+" learning log entries after lsn "+applied_lsn);
+		}
+
+		applier = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "learning-log-applier");
+			thread.setDaemon(true);
+			return thread;
+		});
+		applier.scheduleWithFixedDelay(this::applyQuietly, flush_interval_ms, flush_interval_ms, TimeUnit.MILLISECONDS);
+		log.info("learning log enabled with batch size "+batch_size);
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Appends the feedback of one learn call and forces it to disk. Concurrent appends share fsyncs.
+	 *
+	 * @param update_rows rows with keys input_value, output_value, delta and initial_weight
+	 * @param desired_token_rows rows with keys id and token
+	 *
+	 * @return lsn of the entry
+	 */
+	public long append(List<Map<String, Object>> update_rows, List<Map<String, Object>> desired_token_rows) {
+		while(pending.size() >= max_pending){
+			//the applier is falling behind, apply back pressure by applying on the calling thread
+			if(apply() == 0){
+				throw new IllegalStateException("Learning log has "+pending.size()+" entries that cannot be applied");
+			}
+		}
+
+		Entry entry = Entry.of(update_rows, desired_token_rows);
+		byte[] payload = encode(entry);
+		try{
+			//entries are queued in lsn order so the checkpoint always covers a prefix of the log. The
+			// applier does not apply an entry until it is durable, and the sync happens outside the lock
+			// so that concurrent appends share fsyncs
+			synchronized(append_lock){
+				entry.lsn = wal.append(payload);
+				pending.add(entry);
+			}
+		}
+		catch(IOException e){
+			throw new UncheckedIOException("Failed to append to learning log " + directory, e);
+		}
+
+		boolean synced = false;
+		try{
+			wal.sync(entry.lsn);
+			synced = true;
+		}
+		catch(IOException e){
+			throw new UncheckedIOException("Failed to sync learning log " + directory, e);
+		}
+		finally{
+			//the caller is told that feedback which failed to sync was not recorded, so it must not be applied
+			entry.state = synced ? Entry.DURABLE : Entry.FAILED;
+		}
+		return entry.lsn;
+	}
+
+	/**
+	 * @return number of entries that have not been applied to the graph
+	 */
+	public int getPendingCount() {
+		return pending.size();
+	}
+
+	/**
+	 * @return lsn of the last entry applied to the graph
+	 */
+	public long getAppliedLsn() {
+		return applied_lsn;
+	}
+
+	/**
+	 * Applies up to one batch of pending entries to the graph, advances the checkpoint and deletes log
+	 *  segments that are no longer needed. Only entries that have been forced to disk are applied,
+	 *  entries whose sync failed are discarded.
+	 *
+	 * @return number of entries applied or discarded
+	 */
+	public synchronized int apply() {
+		List<Entry> batch = new ArrayList<Entry>(Math.min(batch_size, pending.size()));
+		int discarded = 0;
+		Iterator<Entry> entries = pending.iterator();
+		while(entries.hasNext() && batch.size() < batch_size){
+			Entry entry = entries.next();
+			if(entry.state == Entry.SYNCING){
+				break;
+			}
+			if(entry.state == Entry.FAILED){
+				discarded++;
+				continue;
+			}
+			batch.add(entry);
+		}
+		if(batch.isEmpty()){
+			for(int idx = 0; idx < discarded; idx++){
+				pending.poll();
+			}
+			return discarded;
+		}
+
+		long lsn = batch.get(batch.size() - 1).lsn;
+		Map<String, Object> update_parameters = new HashMap<String, Object>();
+		update_parameters.put("rows", fold(batch));
+		//the history is only read to rebuild the policies of memories stored by reference
+		boolean keep_history = policy_by_reference && weight_history_size > 0;
+		String update_query = keep_history ? TokenRepository.APPLY_WEIGHT_DELTAS_WITH_HISTORY : TokenRepository.APPLY_WEIGHT_DELTAS;
+		if(keep_history){
+			update_parameters.put("history_size", weight_history_size);
+		}
+		Map<String, Object> desired_parameters = Collections.<String, Object>singletonMap("rows", desiredTokenRows(batch));
+		Map<String, Object> checkpoint_parameters = new HashMap<String, Object>();
+		checkpoint_parameters.put("name", CHECKPOINT_NAME);
+		checkpoint_parameters.put("lsn", lsn);
+
+		List<Record> updated_weights;
+		try(Session session = driver().session()){
+			updated_weights = session.writeTransaction(tx -> {
+				List<Record> weights = tx.run(update_query, update_parameters).list();
+				tx.run(MemoryRecordRepository.RECORD_DESIRED_TOKENS, desired_parameters).consume();
+				tx.run(WRITE_CHECKPOINT, checkpoint_parameters).consume();
+				return weights;
+			});
+		}
+
+		for(int idx = 0; idx < batch.size() + discarded; idx++){
+			pending.poll();
+		}
+		applied_lsn = lsn;
+
+		for(Record updated_weight : updated_weights){
+			weight_cache.put(token_dictionary.idOf(updated_weight.get("input_value").asString()),
+							 token_dictionary.idOf(updated_weight.get("output_value").asString()),
+							 updated_weight.get("weight").asDouble());
+		}
+
+		try{
+			wal.truncate(lsn);
+		}
+		catch(IOException e){
+			log.warn("Failed to delete applied learning log segments. "+e.getMessage());
+		}
+		log.debug("applied "+batch.size()+" learning log entries as "+updated_weights.size()+" token weight updates");
+		return batch.size() + discarded;
+	}
+
+	@PreDestroy
+	public void stop() {
+		if(applier == null){
+			return;
+		}
+		applier.shutdown();
+		try{
+			applier.awaitTermination(10, TimeUnit.SECONDS);
+			while(!pending.isEmpty() && apply() > 0){}
+		}
+		catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+		catch(RuntimeException e){
+			log.warn("Failed to apply learning log on shutdown, "+pending.size()+" entries will be replayed. "+e.getMessage());
+		}
+
+		try{
+			wal.close();
+		}
+		catch(IOException e){
+			log.warn("Failed to close learning log. "+e.getMessage());
+		}
+	}
+
+	private void applyQuietly() {
+		try{
+			while(apply() == batch_size){}
+		}
+		catch(RuntimeException e){
+			log.error("Failed to apply learning log, "+pending.size()+" entries will be retried. "+e.getMessage());
+		}
+	}
+
+	private Driver driver() {
+		return session_factory.unwrap(Driver.class);
+	}
+
+	/**
+	 * Folds the updates of the entries into one row per (input, output) pair. Each row keeps the
+	 *  initial weight of the first update of the pair and the deltas of all its updates in log order,
+	 *  so applying them one after another gives the same weight as applying every entry separately.
+	 *
+	 * @return rows with keys input_value, output_value, initial_weight and deltas
+	 */
+	static List<Map<String, Object>> fold(List<Entry> entries) {
+		Map<String, Map<String, Object>> rows = new LinkedHashMap<String, Map<String, Object>>();
+		for(Entry entry : entries){
+			for(Update update : entry.updates){
+				addDelta(rows, update.input_value, update.output_value, update.initial_weight, update.delta);
+			}
+		}
+		return new ArrayList<Map<String, Object>>(rows.values());
+	}
+
+	/**
+	 * Folds update rows into one row per (input, output) pair in the form that
+	 *  {@link TokenRepository#APPLY_WEIGHT_DELTAS} expects, see {@link #fold(List)}
+	 *
+	 * @param update_rows rows with keys input_value, output_value, delta and initial_weight
+	 *
+	 * @return rows with keys input_value, output_value, initial_weight and deltas
+	 */
+	public static List<Map<String, Object>> foldRows(List<Map<String, Object>> update_rows) {
+		Map<String, Map<String, Object>> rows = new LinkedHashMap<String, Map<String, Object>>();
+		for(Map<String, Object> update_row : update_rows){
+			addDelta(rows,
+					 (String)update_row.get("input_value"),
+					 (String)update_row.get("output_value"),
+					 ((Number)update_row.get("initial_weight")).doubleValue(),
+					 ((Number)update_row.get("delta")).doubleValue());
+		}
+		return new ArrayList<Map<String, Object>>(rows.values());
+	}
+
+	private static void addDelta(Map<String, Map<String, Object>> rows, String input_value, String output_value,
+								 double initial_weight, double delta) {
+		String key = input_value + '\u0000' + output_value;
+		Map<String, Object> row = rows.get(key);
+		if(row == null){
+			row = new HashMap<String, Object>();
+			row.put("input_value", input_value);
+			row.put("output_value", output_value);
+			row.put("initial_weight", initial_weight);
+			row.put("deltas", new ArrayList<Double>());
+			rows.put(key, row);
+		}
+		@SuppressWarnings("unchecked")
+		List<Double> deltas = (List<Double>)row.get("deltas");
+		deltas.add(delta);
+	}
+
+	/**
+	 * Collects the desired token of every memory in the entries, the latest feedback for a memory wins
+	 *
+	 * @return rows with keys id and token
+	 */
+	static List<Map<String, Object>> desiredTokenRows(List<Entry> entries) {
+		Map<Long, Map<String, Object>> rows = new LinkedHashMap<Long, Map<String, Object>>();
+		for(Entry entry : entries){
+			for(int idx = 0; idx < entry.memory_ids.length; idx++){
+				Map<String, Object> row = new HashMap<String, Object>();
+				row.put("id", entry.memory_ids[idx]);
+				row.put("token", entry.desired_tokens[idx]);
+				rows.remove(entry.memory_ids[idx]);
+				rows.put(entry.memory_ids[idx], row);
+			}
+		}
+		return new ArrayList<Map<String, Object>>(rows.values());
+	}
+
+	static byte[] encode(Entry entry) {
+		try{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + entry.updates.size() * 48);
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(entry.updates.size());
+			for(Update update : entry.updates){
+				writeString(out, update.input_value);
+				writeString(out, update.output_value);
+				out.writeDouble(update.delta);
+				out.writeDouble(update.initial_weight);
+			}
+			out.writeInt(entry.memory_ids.length);
+			for(int idx = 0; idx < entry.memory_ids.length; idx++){
+				out.writeLong(entry.memory_ids[idx]);
+				writeString(out, entry.desired_tokens[idx]);
+			}
+			out.flush();
+			return bytes.toByteArray();
+		}
+		catch(IOException e){
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	static Entry decode(long lsn, byte[] payload) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+		int update_count = in.readInt();
+		List<Update> updates = new ArrayList<Update>(update_count);
+		for(int idx = 0; idx < update_count; idx++){
+			updates.add(new Update(readString(in), readString(in), in.readDouble(), in.readDouble()));
+		}
+		int memory_count = in.readInt();
+		long[] memory_ids = new long[memory_count];
+		String[] desired_tokens = new String[memory_count];
+		for(int idx = 0; idx < memory_count; idx++){
+			memory_ids[idx] = in.readLong();
+			desired_tokens[idx] = readString(in);
+		}
+
+		Entry entry = new Entry(updates, memory_ids, desired_tokens);
+		entry.lsn = lsn;
+		entry.state = Entry.DURABLE;
+		return entry;
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Feedback of one learn call
+	 */
+	static class Entry {
+		static final int SYNCING = 0;
+		static final int DURABLE = 1;
+		static final int FAILED = 2;
+
+		private final List<Update> updates;
+		private final long[] memory_ids;
+		private final String[] desired_tokens;
+		private long lsn;
+		private volatile int state = SYNCING;
+
+		Entry(List<Update> updates, long[] memory_ids, String[] desired_tokens) {
+			this.updates = updates;
+			this.memory_ids = memory_ids;
+			this.desired_tokens = desired_tokens;
+		}
+
+		static Entry of(List<Map<String, Object>> update_rows, List<Map<String, Object>> desired_token_rows) {
+			List<Update> updates = new ArrayList<Update>(update_rows.size());
+			for(Map<String, Object> row : update_rows){
+				updates.add(new Update((String)row.get("input_value"),
+									   (String)row.get("output_value"),
+									   ((Number)row.get("delta")).doubleValue(),
+									   ((Number)row.get("initial_weight")).doubleValue()));
+			}
+			long[] memory_ids = new long[desired_token_rows.size()];
+			String[] desired_tokens = new String[desired_token_rows.size()];
+			for(int idx = 0; idx < desired_token_rows.size(); idx++){
+				memory_ids[idx] = ((Number)desired_token_rows.get(idx).get("id")).longValue();
+				desired_tokens[idx] = (String)desired_token_rows.get(idx).get("token");
+			}
+			return new Entry(updates, memory_ids, desired_tokens);
+		}
+
+		long getLsn() {
+			return lsn;
+		}
+
+		List<Update> getUpdates() {
+			return updates;
+		}
+	}
+
+	/**
+	 * Weight delta for one (input, output) token pair
+	 */
+	static class Update {
+		private final String input_value;
+		private final String output_value;
+		private final double delta;
+		private final double initial_weight;
+
+		Update(String input_value, String output_value, double delta, double initial_weight) {
+			this.input_value = input_value;
+			this.output_value = output_value;
+			this.delta = delta;
+			this.initial_weight = initial_weight;
+		}
+
+		String getInputValue() {
+			return input_value;
+		}
+
+		String getOutputValue() {
+			return output_value;
+		}
+
+		double getDelta() {
+			return delta;
+		}
+
+		double getInitialWeight() {
+			return initial_weight;
+		}
+	}
+}
@@ -0,0 +1,444 @@
+package com.qanairy.db;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.deepthought.models.MemoryRecord;
+import com.deepthought.models.Token;
+import com.deepthought.models.edges.Prediction;
+import com.deepthought.models.repository.ArchivedMemory;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+/**
+ * Append-only archive of {@link MemoryRecord}s that have been removed from the graph. Memories are
+ *  written to numbered segment files on local disk, each entry holding the memory id, its creation
+ *  date in epoch milliseconds, the compressed and raw lengths, a CRC32 of the other header fields
+ *  and the payload, and the deflated JSON of the {@link ArchivedMemory}. Segments are never rewritten; a new segment is started once the current
+ *  one reaches the configured size.
+ *
+ * Neo4j reuses the ids of deleted nodes, so a memory is identified by its id together with its date.
+ *  The index from id to the (date, segment, offset) of every memory archived under that id is kept
+ *  in memory and rebuilt on startup by reading and checking every entry of every segment. A segment
+ *  is truncated at its first partially written entry, left by a crash during an append, or at its
+ *  first entry whose checksum does not match, since the entries after it cannot be trusted.
+ *  When the same memory is archived more than once the latest entry wins.
+ *
+ * @threadsafe
+ */
+@Component
+public class MemoryArchive {
+	private static Logger log = LoggerFactory.getLogger(MemoryArchive.class);
+
+	static final int ENTRY_HEADER_BYTES = 28;
+	private static final String SEGMENT_PREFIX = "segment-";
+	private static final String SEGMENT_SUFFIX = ".seg";
+
+	private static final Gson gson = new GsonBuilder().create();
+
+	private final Path root;
+	private final long segment_max_bytes;
+	//memory id to the {date, segment, offset} of each memory archived under that id, oldest first
+	private final ConcurrentHashMap<Long, long[][]> index = new ConcurrentHashMap<Long, long[][]>();
+	private final AtomicInteger archived_count = new AtomicInteger();
+
+	private int segment_number = -1;
+	private FileChannel segment;
+
+	@Autowired
+	public MemoryArchive(@Value("${deepthought.memory.archive.directory:data/memory-archive}") String directory,
+						 @Value("${deepthought.memory.archive.segment-max-bytes:268435456}") long segment_max_bytes) {
+		this.root = Paths.get(directory).toAbsolutePath().normalize();
+		this.segment_max_bytes = segment_max_bytes;
+	}
+
+	/**
+	 * Rebuilds the index from the segments on disk
+	 */
+	@PostConstruct
+	public synchronized void open() {
+		try{
+			Files.createDirectories(root);
+			List<Integer> numbers = new ArrayList<Integer>();
+			try(DirectoryStream<Path> segments = Files.newDirectoryStream(root, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)){
+				for(Path path : segments){
+					String name = path.getFileName().toString();
+					numbers.add(Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+				}
+			}
+			numbers.sort(null);
+			for(int number : numbers){
+				indexSegment(number);
+				segment_number = number;
+			}
+		}
+		catch(IOException e){
+			throw new UncheckedIOException("Failed to open memory archive " + root, e);
+		}
+		log.info("memory archive opened with " + archived_count.get() + " memories");
+	}
+
+	/**
+	 * Appends the memories to the archive and forces them to disk before returning
+	 *
+	 * @param memories memories to archive
+	 */
+	public synchronized void append(List<ArchivedMemory> memories) {
+		try{
+			List<long[]> locations = new ArrayList<long[]>(memories.size());
+			for(ArchivedMemory memory : memories){
+				FileChannel channel = currentSegment();
+				byte[] raw = gson.toJson(memory).getBytes(StandardCharsets.UTF_8);
+				byte[] compressed = deflate(raw);
+				long date = dateOf(memory);
+
+				ByteBuffer entry = ByteBuffer.allocate(ENTRY_HEADER_BYTES + compressed.length);
+				entry.putLong(memory.getId());
+				entry.putLong(date);
+				entry.putInt(compressed.length);
+				entry.putInt(raw.length);
+				entry.putInt(checksum(memory.getId(), date, raw.length, compressed));
+				entry.put(compressed);
+				entry.flip();
+
+				long offset = channel.size();
+				while(entry.hasRemaining()){
+					channel.write(entry);
+				}
+				locations.add(new long[] { date, segment_number, offset });
+			}
+			if(segment != null){
+				segment.force(false);
+			}
+
+			//only index entries once they are durable
+			for(int idx = 0; idx < memories.size(); idx++){
+				indexEntry(memories.get(idx).getId(), locations.get(idx));
+			}
+		}
+		catch(IOException e){
+			throw new UncheckedIOException("Failed to append to memory archive " + root, e);
+		}
+	}
+
+	public boolean contains(long memory_id) {
+		return index.containsKey(memory_id);
+	}
+
+	/**
+	 * @return number of memories in the archive
+	 */
+	public int size() {
+		return archived_count.get();
+	}
+
+	/**
+	 * Reads the memory most recently archived under an id
+	 *
+	 * @param memory_id id the memory had in the graph
+	 *
+	 * @return archived memory, or null if no memory with this id is archived
+	 */
+	public ArchivedMemory read(long memory_id) {
+		long[][] locations = index.get(memory_id);
+		return locations == null ? null : read(memory_id, locations[locations.length - 1]);
+	}
+
+	/**
+	 * Reads an archived memory, checking that it is the memory created at the given date rather than
+	 *  an earlier or later memory that had the same id
+	 *
+	 * @param memory_id id the memory had in the graph
+	 * @param date date the memory was created
+	 *
+	 * @return archived memory, or null if no memory with this id and date is archived
+	 */
+	public ArchivedMemory read(long memory_id, Date date) {
+		long[][] locations = index.get(memory_id);
+		if(locations == null || date == null){
+			return null;
+		}
+		for(long[] location : locations){
+			if(location[0] == date.getTime()){
+				return read(memory_id, location);
+			}
+		}
+		return null;
+	}
+
+	private ArchivedMemory read(long memory_id, long[] location) {
+		try(FileChannel channel = FileChannel.open(segmentPath((int) location[1]), StandardOpenOption.READ)){
+			ByteBuffer header = ByteBuffer.allocate(ENTRY_HEADER_BYTES);
+			readFully(channel, header, location[2]);
+			header.flip();
+			long id = header.getLong();
+			long date = header.getLong();
+			int compressed_length = header.getInt();
+			int raw_length = header.getInt();
+			int crc = header.getInt();
+
+			ByteBuffer compressed = ByteBuffer.allocate(compressed_length);
+			readFully(channel, compressed, location[2] + ENTRY_HEADER_BYTES);
+			if(checksum(id, date, raw_length, compressed.array()) != crc){
+				throw new IOException("Checksum of the entry at offset " + location[2] + " does not match");
+			}
+			byte[] raw = inflate(compressed.array(), raw_length);
+			return gson.fromJson(new String(raw, StandardCharsets.UTF_8), ArchivedMemory.class);
+		}
+		catch(IOException e){
+			throw new UncheckedIOException("Failed to read memory " + memory_id + " from archive " + root, e);
+		}
+	}
+
+	/**
+	 * Reads the memory most recently archived under an id and rebuilds the {@link MemoryRecord} it was archived from
+	 *
+	 * @param memory_id id the memory had in the graph
+	 *
+	 * @return memory, or null if no memory with this id is archived
+	 */
+	public MemoryRecord find(long memory_id) {
+		ArchivedMemory archived = read(memory_id);
+		return archived == null ? null : toMemoryRecord(archived);
+	}
+
+	/**
+	 * Reads an archived memory and rebuilds the {@link MemoryRecord} it was archived from
+	 *
+	 * @param memory_id id the memory had in the graph
+	 * @param date date the memory was created
+	 *
+	 * @return memory, or null if no memory with this id and date is archived
+	 */
+	public MemoryRecord find(long memory_id, Date date) {
+		ArchivedMemory archived = read(memory_id, date);
+		return archived == null ? null : toMemoryRecord(archived);
+	}
+
+	@PreDestroy
+	public synchronized void close() {
+		if(segment == null){
+			return;
+		}
+		try{
+			segment.close();
+		}
+		catch(IOException e){
+			log.warn("Failed to close memory archive segment. " + e.getMessage());
+		}
+		segment = null;
+	}
+
+	/**
+	 * Converts an archived projection back into a detached {@link MemoryRecord}
+	 */
+	static MemoryRecord toMemoryRecord(ArchivedMemory archived) {
+		MemoryRecord memory = new MemoryRecord();
+		memory.setID(archived.getId());
+		memory.setDate(archived.getDate() == null ? null : new Date(dateOf(archived)));
+		memory.setInputTokenValues(archived.getInputTokenValues());
+		memory.setOutputTokenKeys(archived.getOutputTokenValues().toArray(new String[0]));
+		if(archived.getPolicyMatrix() != null){
+			memory.setEncodedPolicyMatrix(Base64.getDecoder().decode(archived.getPolicyMatrix()));
+		}
+		else if(archived.getPolicyMatrixJson() != null && !archived.getPolicyMatrixJson().isEmpty()){
+			memory.setPolicyMatrix(gson.fromJson(archived.getPolicyMatrixJson(), double[][].class));
+		}
+		memory.setWeightVersion(archived.getWeightVersion());
+		if(archived.getPrediction() != null){
+			double[] prediction = new double[archived.getPrediction().size()];
+			for(int idx = 0; idx < prediction.length; idx++){
+				prediction[idx] = archived.getPrediction().get(idx);
+			}
+			memory.setPrediction(prediction);
+		}
+		if(archived.getPredictedToken() != null){
+			memory.setPredictedToken(new Token(archived.getPredictedToken()));
+		}
+		if(archived.getDesiredToken() != null){
+			memory.setDesiredToken(new Token(archived.getDesiredToken()));
+		}
+
+		List<Prediction> predictions = new ArrayList<Prediction>();
+		List<String> prediction_tokens = archived.getPredictionTokens();
+		List<Double> prediction_weights = archived.getPredictionWeights();
+		for(int idx = 0; idx < prediction_tokens.size() && idx < prediction_weights.size(); idx++){
+			predictions.add(new Prediction(memory, new Token(prediction_tokens.get(idx)), prediction_weights.get(idx)));
+		}
+		memory.setPredictions(predictions);
+		memory.setArchived(true);
+		return memory;
+	}
+
+	/**
+	 * Reads the entries of a segment into the index, truncating the segment at its first partially
+	 *  written entry or entry whose checksum does not match
+	 */
+	private void indexSegment(int number) throws IOException {
+		Path path = segmentPath(number);
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)){
+			long size = channel.size();
+			long offset = 0;
+			ByteBuffer header = ByteBuffer.allocate(ENTRY_HEADER_BYTES);
+			while(offset + ENTRY_HEADER_BYTES <= size){
+				header.clear();
+				readFully(channel, header, offset);
+				header.flip();
+				long memory_id = header.getLong();
+				long date = header.getLong();
+				int compressed_length = header.getInt();
+				int raw_length = header.getInt();
+				int crc = header.getInt();
+				if(compressed_length < 0 || offset + ENTRY_HEADER_BYTES + compressed_length > size){
+					break;
+				}
+
+				ByteBuffer compressed = ByteBuffer.allocate(compressed_length);
+				readFully(channel, compressed, offset + ENTRY_HEADER_BYTES);
+				if(checksum(memory_id, date, raw_length, compressed.array()) != crc){
+					break;
+				}
+				indexEntry(memory_id, new long[] { date, number, offset });
+				offset += ENTRY_HEADER_BYTES + compressed_length;
+			}
+			if(offset < size){
+				log.warn("Truncating " + (size - offset) + " bytes of a partially written or corrupt entry from " + path);
+				channel.truncate(offset);
+				channel.force(false);
+			}
+		}
+	}
+
+	/**
+	 * Adds the location of an entry to the index, replacing the location of an earlier entry for the same id and date
+	 */
+	private void indexEntry(long memory_id, long[] location) {
+		index.compute(memory_id, (id, locations) -> {
+			if(locations == null){
+				archived_count.incrementAndGet();
+				return new long[][] { location };
+			}
+			for(int idx = 0; idx < locations.length; idx++){
+				if(locations[idx][0] == location[0]){
+					long[][] replaced = locations.clone();
+					replaced[idx] = location;
+					return replaced;
+				}
+			}
+			archived_count.incrementAndGet();
+			long[][] appended = Arrays.copyOf(locations, locations.length + 1);
+			appended[locations.length] = location;
+			return appended;
+		});
+	}
+
+	/**
+	 * @return creation date of an archived memory in epoch milliseconds, 0 if it has none
+	 */
+	private static long dateOf(ArchivedMemory memory) {
+		return memory.getDate() == null ? 0L : Instant.from(MemoryRecordWriter.DATE_FORMAT.parse(memory.getDate())).toEpochMilli();
+	}
+
+	private FileChannel currentSegment() throws IOException {
+		if(segment != null && segment.size() >= segment_max_bytes){
+			segment.force(false);
+			segment.close();
+			segment = null;
+			segment_number++;
+		}
+		if(segment == null){
+			if(segment_number < 0){
+				segment_number = 0;
+			}
+			segment = FileChannel.open(segmentPath(segment_number), StandardOpenOption.CREATE,
+									   StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		}
+		return segment;
+	}
+
+	private static int checksum(long memory_id, long date, int raw_length, byte[] compressed) {
+		CRC32 crc = new CRC32();
+		crc.update(ByteBuffer.allocate(20).putLong(memory_id).putLong(date).putInt(raw_length).array());
+		crc.update(compressed);
+		return (int)crc.getValue();
+	}
+
+	private Path segmentPath(int number) {
+		return root.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while(buffer.hasRemaining()){
+			int read = channel.read(buffer, position + buffer.position());
+			if(read < 0){
+				throw new IOException("Unexpected end of memory archive segment");
+			}
+		}
+	}
+
+	private static byte[] deflate(byte[] raw) {
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try{
+			deflater.setInput(raw);
+			deflater.finish();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + 64);
+			byte[] buffer = new byte[8192];
+			while(!deflater.finished()){
+				out.write(buffer, 0, deflater.deflate(buffer));
+			}
+			return out.toByteArray();
+		}
+		finally{
+			deflater.end();
+		}
+	}
+
+	private static byte[] inflate(byte[] compressed, int raw_length) throws IOException {
+		Inflater inflater = new Inflater();
+		try{
+			inflater.setInput(compressed);
+			byte[] raw = new byte[raw_length];
+			int length = inflater.inflate(raw);
+			if(length != raw_length || !inflater.finished()){
+				throw new IOException("Archived memory does not match its recorded length");
+			}
+			return raw;
+		}
+		catch(DataFormatException e){
+			throw new IOException("Archived memory is corrupt", e);
+		}
+		finally{
+			inflater.end();
+		}
+	}
+}
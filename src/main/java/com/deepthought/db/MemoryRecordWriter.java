@@ -0,0 +1,324 @@
+package com.qanairy.db;
+
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.deepthought.models.MemoryRecord;
+import com.deepthought.models.edges.Prediction;
+import com.deepthought.models.repository.MemoryRecordRepository;
+import com.deepthought.models.repository.PredictionRepository;
+
+/**
+ * Persists {@link MemoryRecord}s and their {@link Prediction} edges. When write-behind is enabled
+ *  the memory receives a reserved id immediately and is written by a background thread in
+ *  batches, otherwise the memory and each prediction are saved before returning.
+ *
+ * @threadsafe
+ */
+@Component
+public class MemoryRecordWriter {
+	private static Logger log = LoggerFactory.getLogger(MemoryRecordWriter.class);
+
+	//same format the object graph mapper stores dates in
+	static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSXXX")
+																		  .withZone(ZoneOffset.UTC);
+
+	@Autowired
+	private MemoryRecordRepository memory_repo;
+
+	@Autowired
+	private PredictionRepository prediction_repo;
+
+	@Value("${deepthought.memory.write-behind.enabled:false}")
+	private boolean write_behind_enabled;
+
+	@Value("${deepthought.memory.write-behind.queue-capacity:10000}")
+	private int queue_capacity;
+
+	@Value("${deepthought.memory.write-behind.batch-size:500}")
+	private int batch_size;
+
+	@Value("${deepthought.memory.write-behind.flush-interval-ms:200}")
+	private long flush_interval_ms;
+
+	@Value("${deepthought.memory.write-behind.id-block-size:256}")
+	private int id_block_size;
+
+	@Value("${deepthought.memory.write-behind.reservation-ttl-ms:86400000}")
+	private long reservation_ttl_ms = 86400000;
+
+	private final ArrayDeque<Long> reserved_ids = new ArrayDeque<Long>();
+	private long reserved_ids_at;
+	private final ConcurrentHashMap<Long, MemoryRecord> pending = new ConcurrentHashMap<Long, MemoryRecord>();
+	private final AtomicLong lost = new AtomicLong();
+	private LinkedBlockingDeque<MemoryRecord> queue;
+	private ScheduledExecutorService flusher;
+
+	@PostConstruct
+	public void start() {
+		//reservations left behind by a process that stopped without releasing them
+		deleteExpiredReservations();
+		if(!write_behind_enabled){
+			return;
+		}
+
+		queue = new LinkedBlockingDeque<MemoryRecord>(queue_capacity);
+		flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "memory-write-behind");
+			thread.setDaemon(true);
+			return thread;
+		});
+		flusher.scheduleWithFixedDelay(this::flushQuietly, flush_interval_ms, flush_interval_ms, TimeUnit.MILLISECONDS);
+		flusher.scheduleWithFixedDelay(this::deleteExpiredReservations, reservation_ttl_ms / 2, reservation_ttl_ms / 2, TimeUnit.MILLISECONDS);
+		log.info("memory write-behind enabled with queue capacity "+queue_capacity+" and batch size "+batch_size);
+	}
+
+	public boolean isWriteBehindEnabled() {
+		return write_behind_enabled;
+	}
+
+	/**
+	 * Persists the memory together with its prediction edges
+	 *
+	 * @param memory memory to persist
+	 * @param predictions prediction edges that start at the memory
+	 *
+	 * @return memory with its id assigned and predictions attached
+	 *
+	 * @throws RuntimeException if the memory could not be queued because flushing a full queue failed,
+	 * 			in which case the memory is not persisted
+	 */
+	public MemoryRecord save(MemoryRecord memory, List<Prediction> predictions) {
+		if(!write_behind_enabled){
+			memory = memory_repo.save(memory);
+			List<Prediction> prediction_edges = new ArrayList<>();
+			for(Prediction prediction : predictions) {
+				prediction.setMemoryRecord(memory);
+				prediction_edges.add(prediction_repo.save(prediction));
+			}
+			memory.setPredictions(prediction_edges);
+			return memory;
+		}
+
+		memory.setID(reserveId());
+		memory.setPredictions(predictions);
+		//pending before queued, so that a flush can never remove it before it is added
+		pending.put(memory.getID(), memory);
+		try{
+			while(!queue.offer(memory)){
+				//queue is full, apply back pressure by flushing on the calling thread
+				flush();
+			}
+		}
+		catch(RuntimeException e){
+			//the memory was never queued, so it must not wait to be persisted
+			pending.remove(memory.getID());
+			throw e;
+		}
+		return memory;
+	}
+
+	/**
+	 * Ensures that a memory handed out by {@link #save(MemoryRecord, List)} has been written to the
+	 *  graph, flushing pending memories on the calling thread if necessary
+	 *
+	 * @param memory_id id of the memory
+	 *
+	 * @return true if the memory is not waiting to be persisted, false if flushing failed and the
+	 * 			memory is still queued
+	 */
+	public boolean awaitPersisted(long memory_id) {
+		if(!write_behind_enabled || !pending.containsKey(memory_id)){
+			return true;
+		}
+		flushQuietly();
+		return !pending.containsKey(memory_id);
+	}
+
+	/**
+	 * @return number of memories waiting to be persisted
+	 */
+	public int getPendingCount() {
+		return pending.size();
+	}
+
+	/**
+	 * @return number of memories whose reserved node was deleted before they could be written
+	 */
+	public long getLostCount() {
+		return lost.get();
+	}
+
+	/**
+	 * Writes all queued memories to the graph in batches. Failed batches are put back at the head of
+	 *  the queue and retried on the next flush. Memories whose reserved node no longer exists, because
+	 *  the reservation expired before the memory could be written, cannot be written under their id.
+	 *  They are logged as lost and no longer pending.
+	 */
+	public synchronized void flush() {
+		if(queue == null){
+			return;
+		}
+
+		List<MemoryRecord> batch = new ArrayList<MemoryRecord>(batch_size);
+		while(queue.drainTo(batch, batch_size) > 0){
+			List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>(batch.size());
+			for(MemoryRecord memory : batch){
+				rows.add(toRow(memory));
+			}
+
+			List<Long> written_ids;
+			try{
+				written_ids = memory_repo.persistReserved(rows);
+			}
+			catch(RuntimeException e){
+				for(int idx = batch.size() - 1; idx >= 0; idx--){
+					queue.offerFirst(batch.get(idx));
+				}
+				throw e;
+			}
+
+			if(written_ids.size() < batch.size()){
+				Set<Long> written = new HashSet<Long>(written_ids);
+				List<Long> lost_ids = new ArrayList<Long>();
+				for(MemoryRecord memory : batch){
+					if(!written.contains(memory.getID())){
+						lost_ids.add(memory.getID());
+					}
+				}
+				lost.addAndGet(lost_ids.size());
+				log.error("Lost "+lost_ids.size()+" memories whose id reservations expired before they were written: "+lost_ids);
+			}
+			for(MemoryRecord memory : batch){
+				pending.remove(memory.getID());
+			}
+			log.debug("persisted "+written_ids.size()+" memories");
+			batch.clear();
+		}
+	}
+
+	/**
+	 * Stops the background flusher, writes every queued memory and releases unused reserved ids
+	 */
+	@PreDestroy
+	public void shutdown() {
+		if(!write_behind_enabled){
+			return;
+		}
+
+		flusher.shutdown();
+		try{
+			flusher.awaitTermination(30, TimeUnit.SECONDS);
+		}
+		catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+		flush();
+
+		List<Long> unused_ids;
+		synchronized(reserved_ids){
+			unused_ids = new ArrayList<Long>(reserved_ids);
+			reserved_ids.clear();
+		}
+		if(!unused_ids.isEmpty()){
+			memory_repo.releaseIds(unused_ids);
+		}
+		log.info("memory write-behind flushed on shutdown");
+	}
+
+	private void flushQuietly() {
+		try{
+			flush();
+		}
+		catch(RuntimeException e){
+			log.error("Failed to flush "+queue.size()+" pending memories. "+e.getMessage());
+		}
+	}
+
+	/**
+	 * Deletes reservations that were never written to and are older than the reservation ttl. Ids are
+	 *  only handed out for half of the ttl after they were reserved, so reservations of a running
+	 *  process are not deleted unless its queued memories could not be flushed for that long.
+	 */
+	private void deleteExpiredReservations() {
+		try{
+			long deleted = memory_repo.deleteExpiredReservations(reservation_ttl_ms);
+			if(deleted > 0){
+				log.info("deleted "+deleted+" expired memory id reservations");
+			}
+		}
+		catch(RuntimeException e){
+			log.warn("Failed to delete expired memory id reservations. "+e.getMessage());
+		}
+	}
+
+	private long reserveId() {
+		synchronized(reserved_ids){
+			if(!reserved_ids.isEmpty() && System.currentTimeMillis() - reserved_ids_at > reservation_ttl_ms / 2){
+				memory_repo.releaseIds(new ArrayList<Long>(reserved_ids));
+				reserved_ids.clear();
+			}
+			if(reserved_ids.isEmpty()){
+				reserved_ids.addAll(memory_repo.reserveIds(id_block_size));
+				reserved_ids_at = System.currentTimeMillis();
+			}
+			return reserved_ids.poll();
+		}
+	}
+
+	private static Map<String, Object> toRow(MemoryRecord memory) {
+		List<Map<String, Object>> predictions = new ArrayList<Map<String, Object>>(memory.getPredictions().size());
+		for(Prediction prediction : memory.getPredictions()){
+			Map<String, Object> prediction_row = new HashMap<String, Object>();
+			prediction_row.put("token", prediction.getToken().getValue());
+			prediction_row.put("weight", prediction.getWeight());
+			predictions.add(prediction_row);
+		}
+
+		Map<String, Object> row = new HashMap<String, Object>();
+		row.put("id", memory.getID());
+		row.put("date", DATE_FORMAT.format(memory.getDate().toInstant()));
+		row.put("input_token_values", memory.getInputTokenValues());
+		row.put("output_token_values", Arrays.asList(memory.getOutputTokenKeys()));
+		//encoded the same way the object graph mapper stores byte[] properties
+		byte[] policy_matrix = memory.getEncodedPolicyMatrix();
+		row.put("policy_matrix", policy_matrix == null ? null : Base64.getEncoder().encodeToString(policy_matrix));
+		row.put("weight_version", memory.getWeightVersion());
+		row.put("prediction", memory.getPrediction() == null ? null : toList(memory.getPrediction()));
+		row.put("predicted_token", memory.getPredictedToken().getValue());
+		row.put("predictions", predictions);
+		return row;
+	}
+
+	private static List<Double> toList(double[] values) {
+		List<Double> list = new ArrayList<Double>(values.length);
+		for(double value : values){
+			list.add(value);
+		}
+		return list;
+	}
+}
@@ -0,0 +1,100 @@
+package com.qanairy.db;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.deepthought.models.MemoryRecord;
+import com.deepthought.models.repository.ArchivedMemory;
+import com.deepthought.models.repository.MemoryRecordRepository;
+
+/**
+ * Periodically moves {@link MemoryRecord}s that are older than the retention period, or that have
+ *  already received feedback, into the {@link MemoryArchive} and deletes them from the graph along
+ *  with their relationships. Memories are processed in batches, and each batch is forced to the
+ *  archive before it is deleted, so a failure can at worst archive a memory twice.
+ */
+@Component
+public class MemoryRetentionJob {
+	private static Logger log = LoggerFactory.getLogger(MemoryRetentionJob.class);
+
+	@Autowired
+	private MemoryRecordRepository memory_repo;
+
+	@Autowired
+	private MemoryArchive memory_archive;
+
+	@Value("${deepthought.memory.retention.enabled:false}")
+	private boolean enabled;
+
+	@Value("${deepthought.memory.retention.max-age-days:30}")
+	private int max_age_days;
+
+	@Value("${deepthought.memory.retention.archive-learned:true}")
+	private boolean archive_learned;
+
+	@Value("${deepthought.memory.retention.batch-size:1000}")
+	private int batch_size;
+
+	@Scheduled(fixedDelayString = "${deepthought.memory.retention.interval-ms:3600000}",
+			   initialDelayString = "${deepthought.memory.retention.interval-ms:3600000}")
+	public void run() {
+		if(!enabled){
+			return;
+		}
+
+		try{
+			int archived = archive(Instant.now().minus(max_age_days, ChronoUnit.DAYS));
+			if(archived > 0){
+				log.info("archived "+archived+" memories");
+			}
+		}
+		catch(RuntimeException e){
+			log.error("Memory retention failed. "+e.getMessage());
+		}
+	}
+
+	/**
+	 * Archives every memory created before the cutoff and, if enabled, every memory that has received
+	 *  feedback
+	 *
+	 * @param cutoff memories created before this instant are archived
+	 *
+	 * @return number of memories archived
+	 */
+	public int archive(Instant cutoff) {
+		String formatted_cutoff = MemoryRecordWriter.DATE_FORMAT.format(cutoff);
+		int archived = 0;
+
+		List<ArchivedMemory> batch;
+		while(!(batch = memory_repo.findCreatedBefore(formatted_cutoff, batch_size)).isEmpty()){
+			archived += archiveBatch(batch);
+		}
+		if(archive_learned){
+			while(!(batch = memory_repo.findLearned(batch_size)).isEmpty()){
+				archived += archiveBatch(batch);
+			}
+		}
+		return archived;
+	}
+
+	private int archiveBatch(List<ArchivedMemory> batch) {
+		memory_archive.append(batch);
+
+		List<Long> ids = new ArrayList<Long>(batch.size());
+		for(ArchivedMemory memory : batch){
+			ids.add(memory.getId());
+		}
+		memory_repo.deleteByIds(ids);
+		log.debug("archived batch of "+batch.size()+" memories");
+		return batch.size();
+	}
+}
@@ -0,0 +1,116 @@
+package com.qanairy.db;
+
+import java.util.Arrays;
+
+/**
+ * Bounded table of canonical strings that can be looked up by a region of a {@link CharSequence}
+ *  without first copying the region into a new string. Repeated words therefore share one string
+ *  instance and only the first occurrence of each word allocates. Once the table holds its maximum
+ *  number of strings it is cleared and starts a new generation, so a long lived interner keeps at
+ *  most max_size strings reachable and recent words are the ones that stay interned.
+ *
+ * Not thread safe, each thread should use its own interner.
+ */
+public class StringInterner {
+
+	private final int max_size;
+	private String[] table;
+	private int size;
+
+	public StringInterner(int max_size) {
+		this.max_size = max_size;
+		this.table = new String[16];
+	}
+
+	/**
+	 * Returns the canonical string equal to a region of the text
+	 *
+	 * @param text text containing the region
+	 * @param offset index of the first char of the region
+	 * @param length number of chars in the region
+	 *
+	 * @return string equal to the region
+	 */
+	public String intern(CharSequence text, int offset, int length) {
+		int hash = hash(text, offset, length);
+		int mask = table.length - 1;
+		int idx = spread(hash) & mask;
+		String candidate;
+		while((candidate = table[idx]) != null){
+			if(candidate.length() == length && candidate.hashCode() == hash && regionEquals(candidate, text, offset)){
+				return candidate;
+			}
+			idx = (idx + 1) & mask;
+		}
+
+		String value = (text instanceof String && offset == 0 && length == text.length())
+							? (String)text
+							: text.subSequence(offset, offset + length).toString();
+		if(size >= max_size){
+			clear();
+			idx = spread(hash) & mask;
+		}
+		table[idx] = value;
+		size++;
+		if(size * 2 > table.length){
+			resize();
+		}
+		return value;
+	}
+
+	/**
+	 * Removes every string, keeping the capacity of the table
+	 */
+	public void clear() {
+		if(size > 0){
+			Arrays.fill(table, null);
+			size = 0;
+		}
+	}
+
+	/**
+	 * @return number of strings in the table
+	 */
+	public int size() {
+		return size;
+	}
+
+	private void resize() {
+		String[] previous = table;
+		table = new String[previous.length * 2];
+		int mask = table.length - 1;
+		for(String value : previous){
+			if(value != null){
+				int idx = spread(value.hashCode()) & mask;
+				while(table[idx] != null){
+					idx = (idx + 1) & mask;
+				}
+				table[idx] = value;
+			}
+		}
+	}
+
+	/**
+	 * Same hash as {@link String#hashCode()} of the region
+	 */
+	private static int hash(CharSequence text, int offset, int length) {
+		int hash = 0;
+		for(int idx = offset; idx < offset + length; idx++){
+			hash = 31 * hash + text.charAt(idx);
+		}
+		return hash;
+	}
+
+	private static int spread(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+
+	private static boolean regionEquals(String value, CharSequence text, int offset) {
+		for(int idx = 0; idx < value.length(); idx++){
+			if(value.charAt(idx) != text.charAt(offset + idx)){
+				return false;
+			}
+		}
+		return true;
+	}
+}
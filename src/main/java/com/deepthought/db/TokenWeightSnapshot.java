@@ -0,0 +1,559 @@
+package com.qanairy.db;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.neo4j.driver.AccessMode;
+import org.neo4j.driver.Driver;
+import org.neo4j.driver.Record;
+import org.neo4j.driver.Result;
+import org.neo4j.driver.Session;
+import org.neo4j.driver.SessionConfig;
+import org.neo4j.driver.Transaction;
+import org.neo4j.ogm.session.SessionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.qanairy.brain.TokenWeightCache;
+
+/**
+ * Exports every {@code Token} and {@code HAS_RELATED_TOKEN} weight to a compact binary snapshot file
+ *  and restores the graph from one. Snapshots are written to and read from the configured snapshot
+ *  directory only, under a validated name.
+ *
+ * A snapshot holds the weights in blocks of up to {@link #BLOCK_SIZE} connections, each stored as
+ *  three columns (input token index, output token index, 32 bit float weight), followed by the token
+ *  dictionary and a fixed size trailer that locates the dictionary. Keeping the dictionary at the end
+ *  lets export stream connections in a single pass without first loading every token.
+ *
+ * <pre>
+ * header     int magic, byte version
+ * blocks     int n, int[n] input indexes, int[n] output indexes, float[n] weights; repeated, then int 0
+ * dictionary int token count, then per token int length and UTF-8 bytes
+ * trailer    long dictionary offset, long connection count, int magic
+ * </pre>
+ *
+ * Snapshots hold the current weights only, not the update history kept for memories stored by
+ *  reference. A restore therefore clears the history of the connections it writes and advances the
+ *  weight version past every version taken before it, so those memories can no longer be rebuilt.
+ */
+@Component
+public class TokenWeightSnapshot {
+	private static Logger log = LoggerFactory.getLogger(TokenWeightSnapshot.class);
+
+	static final int MAGIC = 0x44545753;
+	static final byte VERSION = 1;
+	static final int BLOCK_SIZE = 65536;
+	static final int HEADER_BYTES = 5;
+	static final int TRAILER_BYTES = 20;
+	static final String EXTENSION = ".snapshot";
+
+	private static final Pattern NAME_PATTERN = Pattern.compile("[A-Za-z0-9][A-Za-z0-9._-]{0,127}");
+
+	static final String RECORD_RESTORE = "MERGE (c:WeightVersion{name:'token-weights'}) ON CREATE SET c.value = timestamp() " +
+			"SET c._LOCK_ = true REMOVE c._LOCK_ " +
+			"SET c.value = c.value + 1 " +
+			"SET c.restored_version = c.value";
+
+	@Autowired
+	private SessionFactory session_factory;
+
+	@Autowired
+	private TokenWeightCache weight_cache;
+
+	@Value("${deepthought.snapshot.directory:data/snapshots}")
+	private String directory;
+
+	@Value("${deepthought.snapshot.batch-size:20000}")
+	private int batch_size;
+
+	/**
+	 * Streams every token and weighted connection into a snapshot. The snapshot is written to a
+	 *  temporary file and moved into place once complete, replacing any snapshot with the same name.
+	 *  Tokens without a value, and the connections to them, are skipped and logged.
+	 *
+	 * @param name snapshot name
+	 *
+	 * @return counts of the exported tokens and connections
+	 *
+	 * @throws IllegalArgumentException if the name is not a valid snapshot name
+	 */
+	public Summary export(String name) throws IOException {
+		Path target = pathOf(name);
+		Files.createDirectories(target.getParent());
+		Path temp = Files.createTempFile(target.getParent(), name, ".tmp");
+
+		Driver driver = session_factory.unwrap(Driver.class);
+		try(Session session = driver.session(SessionConfig.builder().withDefaultAccessMode(AccessMode.READ).build());
+			Transaction tx = session.beginTransaction();
+			Writer writer = new Writer(Files.newOutputStream(temp))){
+
+			//token indexes are assigned in the order tokens are first seen, with the values read in the same row as
+			// the connection so a token deleted after its connections were read cannot leave a gap in the dictionary
+			Map<Long, Integer> token_indexes = new HashMap<Long, Integer>();
+			List<String> dictionary = new ArrayList<String>();
+			long skipped_connections = 0;
+			Result connections = tx.run("MATCH (f_in:Token)-[r:HAS_RELATED_TOKEN]->(f_out:Token) " +
+										"RETURN id(f_in) AS input_id, f_in.value AS input_value, " +
+										"id(f_out) AS output_id, f_out.value AS output_value, r.weight AS weight");
+			while(connections.hasNext()){
+				Record record = connections.next();
+				if(record.get("input_value").isNull() || record.get("output_value").isNull()){
+					skipped_connections++;
+					continue;
+				}
+				float weight = record.get("weight").isNull() ? 0.0f : (float)record.get("weight").asDouble();
+				writer.add(indexOf(token_indexes, dictionary, record.get("input_id").asLong(), record.get("input_value").asString()),
+						   indexOf(token_indexes, dictionary, record.get("output_id").asLong(), record.get("output_value").asString()),
+						   weight);
+			}
+
+			long skipped_tokens = 0;
+			Result tokens = tx.run("MATCH (t:Token) RETURN id(t) AS id, t.value AS value");
+			while(tokens.hasNext()){
+				Record record = tokens.next();
+				if(token_indexes.containsKey(record.get("id").asLong())){
+					continue;
+				}
+				if(record.get("value").isNull()){
+					skipped_tokens++;
+				}
+				else{
+					dictionary.add(record.get("value").asString());
+				}
+			}
+
+			if(skipped_connections > 0 || skipped_tokens > 0){
+				log.warn("snapshot "+name+" skipped "+skipped_connections+" connections to tokens without a value and "+
+						 skipped_tokens+" unconnected tokens without a value");
+			}
+			writer.finish(dictionary);
+			tx.commit();
+		}
+		catch(IOException | RuntimeException e){
+			Files.deleteIfExists(temp);
+			throw e;
+		}
+
+		Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		Summary summary;
+		try(Reader reader = new Reader(target)){
+			summary = new Summary(name, reader.getTokens().size(), reader.getConnectionCount());
+		}
+		log.info("exported snapshot "+name+" with "+summary.getTokens()+" tokens and "+summary.getConnections()+" connections");
+		return summary;
+	}
+
+	/**
+	 * Rebuilds tokens and weighted connections from a snapshot in batched transactions. Tokens are
+	 *  merged by value. When replace is set every existing {@code HAS_RELATED_TOKEN} connection is
+	 *  deleted first, otherwise connections in the snapshot overwrite the weight of existing ones and
+	 *  all other connections are kept. The {@link TokenWeightCache} is cleared once the restore ends.
+	 *
+	 * The restore is not atomic. With replace set the whole snapshot is read and checked before any
+	 *  connection is deleted, but if writing the graph fails after that it is left with only part of
+	 *  the snapshot and the restore has to be run again.
+	 *
+	 * @param name snapshot name
+	 * @param replace true to delete all existing connections before restoring
+	 *
+	 * @return counts of the restored tokens and connections
+	 *
+	 * @throws IllegalArgumentException if the name is not a valid snapshot name
+	 * @throws NoSuchFileException if no snapshot with the name exists
+	 * @throws IOException if the snapshot is corrupt
+	 */
+	public Summary restore(String name, boolean replace) throws IOException {
+		Path path = pathOf(name);
+		if(replace){
+			//a snapshot that cannot be read completely must fail before anything is deleted
+			try(Reader check = new Reader(path)){
+				check.verify();
+			}
+		}
+
+		Driver driver = session_factory.unwrap(Driver.class);
+		boolean deleted_connections = false;
+		try(Reader reader = new Reader(path);
+			Session session = driver.session()){
+
+			if(replace){
+				log.warn("deleting every token connection to restore snapshot "+name);
+				deleted_connections = true;
+				long deleted;
+				do{
+					deleted = session.writeTransaction(tx -> tx.run("MATCH ()-[r:HAS_RELATED_TOKEN]->() " +
+																	"WITH r LIMIT $limit DELETE r RETURN count(r) AS deleted",
+																	Collections.<String, Object>singletonMap("limit", batch_size))
+															   .single().get("deleted").asLong());
+				}while(deleted > 0);
+			}
+
+			long[] node_ids = mergeTokens(session, reader.getTokens());
+
+			//nothing can exist between the tokens after a replace, so skip the existence check of MERGE
+			String connect = replace ? "CREATE (f_in)-[r:HAS_RELATED_TOKEN]->(f_out) "
+									 : "MERGE (f_in)-[r:HAS_RELATED_TOKEN]->(f_out) ";
+			String statement = "UNWIND $rows AS row " +
+					"MATCH (f_in) WHERE id(f_in) = row[0] " +
+					"MATCH (f_out) WHERE id(f_out) = row[1] " +
+					connect +
+					"SET r.weight = row[2] " +
+					"REMOVE r.prior_weights, r.updated_versions";
+
+			int[] inputs = new int[BLOCK_SIZE];
+			int[] outputs = new int[BLOCK_SIZE];
+			float[] weights = new float[BLOCK_SIZE];
+			List<List<Object>> rows = new ArrayList<List<Object>>(batch_size);
+			int count;
+			while((count = reader.readBlock(inputs, outputs, weights)) > 0){
+				for(int idx = 0; idx < count; idx++){
+					rows.add(Arrays.<Object>asList(node_ids[inputs[idx]], node_ids[outputs[idx]], (double)weights[idx]));
+					if(rows.size() == batch_size){
+						writeRows(session, statement, rows);
+					}
+				}
+			}
+			writeRows(session, statement, rows);
+			session.writeTransaction(tx -> tx.run(RECORD_RESTORE).consume());
+
+			Summary summary = new Summary(name, reader.getTokens().size(), reader.getConnectionCount());
+			log.info("restored snapshot "+name+" with "+summary.getTokens()+" tokens and "+summary.getConnections()+" connections");
+			return summary;
+		}
+		catch(IOException | RuntimeException e){
+			if(deleted_connections){
+				log.error("Restore of snapshot "+name+" failed after every token connection was deleted. The graph holds "+
+						  "part of the snapshot until it is restored again. "+e.getMessage());
+			}
+			throw e;
+		}
+		finally{
+			weight_cache.clear();
+		}
+	}
+
+	/**
+	 * Merges the tokens in batches
+	 *
+	 * @return node id of each token, by dictionary index
+	 */
+	private long[] mergeTokens(Session session, List<String> tokens) {
+		long[] node_ids = new long[tokens.size()];
+		for(int start = 0; start < tokens.size(); start += batch_size){
+			List<String> batch = tokens.subList(start, Math.min(start + batch_size, tokens.size()));
+			List<Record> records = session.writeTransaction(tx -> tx.run("UNWIND range(0, size($values) - 1) AS idx " +
+																		"MERGE (t:Token{value:$values[idx]}) " +
+																		"RETURN idx, id(t) AS id",
+																		Collections.<String, Object>singletonMap("values", batch))
+																	.list());
+			for(Record record : records){
+				node_ids[start + record.get("idx").asInt()] = record.get("id").asLong();
+			}
+		}
+		return node_ids;
+	}
+
+	private static void writeRows(Session session, String statement, List<List<Object>> rows) {
+		if(rows.isEmpty()){
+			return;
+		}
+		Map<String, Object> parameters = Collections.<String, Object>singletonMap("rows", rows);
+		session.writeTransaction(tx -> tx.run(statement, parameters).consume());
+		rows.clear();
+	}
+
+	/**
+	 * @return dictionary index of a token, adding its value to the dictionary the first time it is seen
+	 */
+	private static int indexOf(Map<Long, Integer> token_indexes, List<String> dictionary, long node_id, String value) {
+		Integer index = token_indexes.get(node_id);
+		if(index == null){
+			index = dictionary.size();
+			token_indexes.put(node_id, index);
+			dictionary.add(value);
+		}
+		return index;
+	}
+
+	/**
+	 * Resolves the path of a snapshot inside the snapshot directory
+	 *
+	 * @throws IllegalArgumentException if the name contains anything but letters, digits, '.', '_' and '-'
+	 */
+	Path pathOf(String name) {
+		if(name == null || !NAME_PATTERN.matcher(name).matches()){
+			throw new IllegalArgumentException("Invalid snapshot name " + name);
+		}
+		return Paths.get(directory).toAbsolutePath().normalize().resolve(name + EXTENSION);
+	}
+
+	/**
+	 * Counts of the tokens and connections in a snapshot
+	 */
+	public static class Summary {
+		private final String name;
+		private final int tokens;
+		private final long connections;
+
+		public Summary(String name, int tokens, long connections) {
+			this.name = name;
+			this.tokens = tokens;
+			this.connections = connections;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public int getTokens() {
+			return tokens;
+		}
+
+		public long getConnections() {
+			return connections;
+		}
+	}
+
+	/**
+	 * Writes connections in blocks followed by the token dictionary
+	 */
+	static class Writer implements Closeable {
+		private final DataOutputStream out;
+		private final int[] inputs = new int[BLOCK_SIZE];
+		private final int[] outputs = new int[BLOCK_SIZE];
+		private final float[] weights = new float[BLOCK_SIZE];
+		private int pending = 0;
+		private long connections = 0;
+		private long offset = HEADER_BYTES;
+
+		Writer(OutputStream out) throws IOException {
+			this.out = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+			this.out.writeInt(MAGIC);
+			this.out.writeByte(VERSION);
+		}
+
+		void add(int input_index, int output_index, float weight) throws IOException {
+			inputs[pending] = input_index;
+			outputs[pending] = output_index;
+			weights[pending] = weight;
+			pending++;
+			connections++;
+			if(pending == BLOCK_SIZE){
+				writeBlock();
+			}
+		}
+
+		/**
+		 * Writes the remaining connections, the dictionary and the trailer
+		 *
+		 * @param tokens token values, by index
+		 */
+		void finish(List<String> tokens) throws IOException {
+			writeBlock();
+			out.writeInt(0);
+			offset += 4;
+
+			long dictionary_offset = offset;
+			out.writeInt(tokens.size());
+			for(String token : tokens){
+				byte[] bytes = token.getBytes(StandardCharsets.UTF_8);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			}
+			out.writeLong(dictionary_offset);
+			out.writeLong(connections);
+			out.writeInt(MAGIC);
+			out.flush();
+		}
+
+		private void writeBlock() throws IOException {
+			if(pending == 0){
+				return;
+			}
+			out.writeInt(pending);
+			for(int idx = 0; idx < pending; idx++){
+				out.writeInt(inputs[idx]);
+			}
+			for(int idx = 0; idx < pending; idx++){
+				out.writeInt(outputs[idx]);
+			}
+			for(int idx = 0; idx < pending; idx++){
+				out.writeFloat(weights[idx]);
+			}
+			offset += 4 + 12L * pending;
+			pending = 0;
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.close();
+		}
+	}
+
+	/**
+	 * Reads the dictionary of a snapshot up front and streams its connection blocks
+	 */
+	static class Reader implements Closeable {
+		private final FileChannel channel;
+		private final DataInputStream in;
+		private final List<String> tokens;
+		private final long connection_count;
+		private boolean finished = false;
+
+		Reader(Path path) throws IOException {
+			this.channel = FileChannel.open(path, StandardOpenOption.READ);
+			try{
+				long size = channel.size();
+				if(size < HEADER_BYTES + 4 + 4 + TRAILER_BYTES){
+					throw new IOException("Snapshot " + path + " is truncated");
+				}
+
+				ByteBuffer trailer = ByteBuffer.allocate(TRAILER_BYTES);
+				readFully(trailer, size - TRAILER_BYTES);
+				trailer.flip();
+				long dictionary_offset = trailer.getLong();
+				this.connection_count = trailer.getLong();
+				if(trailer.getInt() != MAGIC || dictionary_offset < HEADER_BYTES || dictionary_offset > size - TRAILER_BYTES){
+					throw new IOException("Snapshot " + path + " has an invalid trailer");
+				}
+
+				channel.position(dictionary_offset);
+				DataInputStream dictionary = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+				int token_count = dictionary.readInt();
+				List<String> values = new ArrayList<String>(token_count);
+				for(int idx = 0; idx < token_count; idx++){
+					byte[] bytes = new byte[dictionary.readInt()];
+					dictionary.readFully(bytes);
+					values.add(new String(bytes, StandardCharsets.UTF_8));
+				}
+				this.tokens = Collections.unmodifiableList(values);
+
+				channel.position(0);
+				this.in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+				if(in.readInt() != MAGIC){
+					throw new IOException("File " + path + " is not a token weight snapshot");
+				}
+				byte version = in.readByte();
+				if(version != VERSION){
+					throw new IOException("Unsupported snapshot version " + version);
+				}
+			}
+			catch(IOException | RuntimeException e){
+				channel.close();
+				throw e;
+			}
+		}
+
+		List<String> getTokens() {
+			return tokens;
+		}
+
+		long getConnectionCount() {
+			return connection_count;
+		}
+
+		/**
+		 * Reads the next block of connections into the given columns
+		 *
+		 * @pre inputs.length, outputs.length and weights.length are at least {@link #BLOCK_SIZE}
+		 *
+		 * @return number of connections read, 0 once every block has been read
+		 */
+		int readBlock(int[] inputs, int[] outputs, float[] weights) throws IOException {
+			if(finished){
+				return 0;
+			}
+			int count;
+			try{
+				count = in.readInt();
+			}
+			catch(EOFException e){
+				throw new IOException("Snapshot ended before its last block", e);
+			}
+			if(count < 0 || count > BLOCK_SIZE){
+				throw new IOException("Snapshot block has an invalid size " + count);
+			}
+			if(count == 0){
+				finished = true;
+				return 0;
+			}
+			for(int idx = 0; idx < count; idx++){
+				inputs[idx] = checkIndex(in.readInt());
+			}
+			for(int idx = 0; idx < count; idx++){
+				outputs[idx] = checkIndex(in.readInt());
+			}
+			for(int idx = 0; idx < count; idx++){
+				weights[idx] = in.readFloat();
+			}
+			return count;
+		}
+
+		/**
+		 * Reads every remaining block, checking that each references known tokens and that together
+		 *  they hold the number of connections recorded in the trailer
+		 *
+		 * @throws IOException if a block is corrupt or the connection count does not match
+		 */
+		void verify() throws IOException {
+			int[] inputs = new int[BLOCK_SIZE];
+			int[] outputs = new int[BLOCK_SIZE];
+			float[] weights = new float[BLOCK_SIZE];
+			long connections = 0;
+			int count;
+			while((count = readBlock(inputs, outputs, weights)) > 0){
+				connections += count;
+			}
+			if(connections != connection_count){
+				throw new IOException("Snapshot holds "+connections+" connections but its trailer records "+connection_count);
+			}
+		}
+
+		private int checkIndex(int index) throws IOException {
+			if(index < 0 || index >= tokens.size()){
+				throw new IOException("Snapshot references unknown token " + index);
+			}
+			return index;
+		}
+
+		private void readFully(ByteBuffer buffer, long position) throws IOException {
+			while(buffer.hasRemaining()){
+				if(channel.read(buffer, position + buffer.position()) < 0){
+					throw new EOFException();
+				}
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+}
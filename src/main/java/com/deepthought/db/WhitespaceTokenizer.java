@@ -0,0 +1,115 @@
+package com.qanairy.db;
+
+import java.util.Arrays;
+
+/**
+ * Splits text into the words between runs of whitespace without regular expressions. The words of
+ *  the last tokenized text are kept as (offset, length) spans in buffers that are reused by the next
+ *  call, so tokenizing allocates nothing once the buffers have grown to fit. Whitespace is the set
+ *  matched by the regex {@code \s}: space, tab, line feed, vertical tab, form feed and carriage return.
+ *  Unlike {@code split("\\s+")}, leading whitespace does not produce an empty word.
+ *
+ * Not thread safe, each thread should use its own tokenizer.
+ */
+public class WhitespaceTokenizer {
+
+	/**
+	 * Receives each word as it is found
+	 */
+	public interface Sink {
+		void accept(CharSequence text, int offset, int length);
+	}
+
+	private int[] offsets;
+	private int[] lengths;
+	private int count;
+
+	public WhitespaceTokenizer() {
+		this(16);
+	}
+
+	public WhitespaceTokenizer(int initial_capacity) {
+		this.offsets = new int[Math.max(1, initial_capacity)];
+		this.lengths = new int[Math.max(1, initial_capacity)];
+	}
+
+	/**
+	 * Finds the words of the text, replacing the spans of the previous call
+	 *
+	 * @param text text to tokenize
+	 *
+	 * @return number of words
+	 */
+	public int tokenize(CharSequence text) {
+		return tokenize(text, null);
+	}
+
+	/**
+	 * Finds the words of the text, replacing the spans of the previous call, and passes each word to the sink
+	 *
+	 * @param text text to tokenize
+	 * @param sink receives every word in order, may be null
+	 *
+	 * @return number of words
+	 */
+	public int tokenize(CharSequence text, Sink sink) {
+		count = 0;
+		int length = text.length();
+		int idx = 0;
+		while(idx < length){
+			while(idx < length && isWhitespace(text.charAt(idx))){
+				idx++;
+			}
+			if(idx == length){
+				break;
+			}
+
+			int start = idx;
+			while(idx < length && !isWhitespace(text.charAt(idx))){
+				idx++;
+			}
+			add(start, idx - start);
+			if(sink != null){
+				sink.accept(text, start, idx - start);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return number of words found by the last call to tokenize
+	 */
+	public int count() {
+		return count;
+	}
+
+	public int offset(int word) {
+		checkWord(word);
+		return offsets[word];
+	}
+
+	public int length(int word) {
+		checkWord(word);
+		return lengths[word];
+	}
+
+	static boolean isWhitespace(char c) {
+		return c == ' ' || (c >= '\t' && c <= '\r');
+	}
+
+	private void add(int offset, int length) {
+		if(count == offsets.length){
+			offsets = Arrays.copyOf(offsets, count * 2);
+			lengths = Arrays.copyOf(lengths, count * 2);
+		}
+		offsets[count] = offset;
+		lengths[count] = length;
+		count++;
+	}
+
+	private void checkWord(int word) {
+		if(word < 0 || word >= count){
+			throw new IndexOutOfBoundsException("Word " + word + " of " + count);
+		}
+	}
+}
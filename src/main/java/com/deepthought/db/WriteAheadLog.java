@@ -0,0 +1,293 @@
+package com.qanairy.db;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only log of opaque records stored in numbered segment files. Every record is assigned a
+ *  log sequence number (lsn) that increases by one per record, and is written as
+ *  [long lsn][int length][int crc32][payload]. Segments are named after the lsn of their first
+ *  record and a new segment is started once the current one reaches the configured size.
+ *
+ * Appending does not force the record to disk. {@link #sync(long)} forces every record written so
+ *  far with a single fsync, so concurrent writers that sync at the same time share one fsync.
+ *
+ * On {@link #open(long)} every segment is read and validated. A record that is only partially
+ *  written, or whose checksum does not match, at the end of the last segment is truncated.
+ *
+ * @threadsafe
+ */
+public class WriteAheadLog implements Closeable {
+	private static Logger log = LoggerFactory.getLogger(WriteAheadLog.class);
+
+	static final int RECORD_HEADER_BYTES = 16;
+	private static final String SEGMENT_PREFIX = "wal-";
+	private static final String SEGMENT_SUFFIX = ".log";
+
+	private final Path root;
+	private final long segment_max_bytes;
+	private final TreeMap<Long, Path> segments = new TreeMap<Long, Path>();
+	private final Object sync_lock = new Object();
+
+	private FileChannel segment;
+	private long next_lsn = 1;
+	private long last_segment_end_lsn = -1;
+	private long written_lsn;
+	private volatile long synced_lsn;
+
+	public WriteAheadLog(Path root, long segment_max_bytes) {
+		this.root = root;
+		this.segment_max_bytes = segment_max_bytes;
+	}
+
+	/**
+	 * Validates the segments on disk and reads the records that follow the given lsn
+	 *
+	 * @param after_lsn records with an lsn up to and including this one are skipped
+	 *
+	 * @return records after after_lsn in lsn order
+	 *
+	 * @throws IOException if a segment other than the last one is corrupt
+	 */
+	public synchronized List<LogRecord> open(long after_lsn) throws IOException {
+		Files.createDirectories(root);
+		try(DirectoryStream<Path> paths = Files.newDirectoryStream(root, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)){
+			for(Path path : paths){
+				String name = path.getFileName().toString();
+				segments.put(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())), path);
+			}
+		}
+
+		List<LogRecord> records = new ArrayList<LogRecord>();
+		long expected_lsn = -1;
+		for(Map.Entry<Long, Path> entry : segments.entrySet()){
+			//a gap is only allowed when every missing record had already been applied
+			if(expected_lsn >= 0 && entry.getKey() != expected_lsn
+					&& (entry.getKey() < expected_lsn || entry.getKey() - 1 > after_lsn)){
+				throw new IOException("Write-ahead log segment " + entry.getValue() + " does not start at lsn " + expected_lsn);
+			}
+			expected_lsn = readSegment(entry.getKey(), entry.getValue(), entry.getKey().equals(segments.lastKey()),
+									   after_lsn, records);
+		}
+
+		last_segment_end_lsn = expected_lsn;
+		next_lsn = Math.max(expected_lsn, after_lsn + 1);
+		written_lsn = next_lsn - 1;
+		synced_lsn = written_lsn;
+		return records;
+	}
+
+	/**
+	 * Appends a record without forcing it to disk
+	 *
+	 * @param payload record contents
+	 *
+	 * @return lsn assigned to the record
+	 */
+	public synchronized long append(byte[] payload) throws IOException {
+		FileChannel channel = currentSegment();
+		long lsn = next_lsn;
+
+		ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + payload.length);
+		record.putLong(lsn);
+		record.putInt(payload.length);
+		record.putInt(checksum(lsn, payload));
+		record.put(payload);
+		record.flip();
+		while(record.hasRemaining()){
+			channel.write(record);
+		}
+
+		next_lsn++;
+		written_lsn = lsn;
+		return lsn;
+	}
+
+	/**
+	 * Forces every record up to and including the given lsn to disk. Records appended by other
+	 *  threads before the fsync starts are forced by the same fsync.
+	 *
+	 * @param lsn lsn returned by {@link #append(byte[])}
+	 */
+	public void sync(long lsn) throws IOException {
+		if(synced_lsn >= lsn){
+			return;
+		}
+		synchronized(sync_lock){
+			if(synced_lsn >= lsn){
+				return;
+			}
+
+			FileChannel channel;
+			long target;
+			synchronized(this){
+				channel = segment;
+				target = written_lsn;
+			}
+			try{
+				channel.force(false);
+			}
+			catch(ClosedChannelException e){
+				//the segment was rolled over, which forces it before it is closed
+			}
+			synced_lsn = target;
+		}
+	}
+
+	/**
+	 * Deletes every segment whose records all have an lsn up to and including the given lsn. The
+	 *  segment being appended to is never deleted.
+	 *
+	 * @param lsn lsn of the last record that is no longer needed
+	 */
+	public synchronized void truncate(long lsn) throws IOException {
+		while(segments.size() > 1){
+			Map.Entry<Long, Path> first = segments.firstEntry();
+			Long next_first_lsn = segments.higherKey(first.getKey());
+			if(next_first_lsn - 1 > lsn){
+				return;
+			}
+			Files.deleteIfExists(first.getValue());
+			segments.remove(first.getKey());
+			log.debug("deleted write-ahead log segment " + first.getValue());
+		}
+	}
+
+	/**
+	 * @return lsn that the next appended record will receive
+	 */
+	public synchronized long getNextLsn() {
+		return next_lsn;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if(segment == null){
+			return;
+		}
+		segment.force(false);
+		segment.close();
+		segment = null;
+	}
+
+	/**
+	 * Reads the records of a segment, truncating an invalid tail of the last segment
+	 *
+	 * @return lsn that the record following this segment must have
+	 */
+	private long readSegment(long first_lsn, Path path, boolean last, long after_lsn, List<LogRecord> records) throws IOException {
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)){
+			long size = channel.size();
+			long offset = 0;
+			long expected_lsn = first_lsn;
+			ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+			while(offset + RECORD_HEADER_BYTES <= size){
+				header.clear();
+				readFully(channel, header, offset);
+				header.flip();
+				long lsn = header.getLong();
+				int length = header.getInt();
+				int crc = header.getInt();
+				if(lsn != expected_lsn || length < 0 || offset + RECORD_HEADER_BYTES + length > size){
+					break;
+				}
+
+				ByteBuffer payload = ByteBuffer.allocate(length);
+				readFully(channel, payload, offset + RECORD_HEADER_BYTES);
+				if(checksum(lsn, payload.array()) != crc){
+					break;
+				}
+				if(lsn > after_lsn){
+					records.add(new LogRecord(lsn, payload.array()));
+				}
+				offset += RECORD_HEADER_BYTES + length;
+				expected_lsn++;
+			}
+
+			if(offset < size){
+				if(!last){
+					throw new IOException("Write-ahead log segment " + path + " is corrupt at offset " + offset);
+				}
+				log.warn("Truncating " + (size - offset) + " bytes of a partially written record from " + path);
+				channel.truncate(offset);
+				channel.force(false);
+			}
+			return expected_lsn;
+		}
+	}
+
+	private FileChannel currentSegment() throws IOException {
+		if(segment != null && segment.size() >= segment_max_bytes){
+			segment.force(false);
+			segment.close();
+			segment = null;
+		}
+		if(segment == null){
+			Map.Entry<Long, Path> last = segments.lastEntry();
+			Path path;
+			//keep appending to the last segment left by a previous run until it is full, unless records are missing from its end
+			if(last != null && last_segment_end_lsn == next_lsn && Files.size(last.getValue()) < segment_max_bytes){
+				path = last.getValue();
+			}
+			else{
+				path = root.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, next_lsn, SEGMENT_SUFFIX));
+				segments.put(next_lsn, path);
+			}
+			last_segment_end_lsn = -1;
+			segment = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		}
+		return segment;
+	}
+
+	private static int checksum(long lsn, byte[] payload) {
+		CRC32 crc = new CRC32();
+		crc.update(ByteBuffer.allocate(8).putLong(lsn).array());
+		crc.update(payload);
+		return (int)crc.getValue();
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while(buffer.hasRemaining()){
+			int read = channel.read(buffer, position + buffer.position());
+			if(read < 0){
+				throw new IOException("Unexpected end of write-ahead log segment");
+			}
+		}
+	}
+
+	/**
+	 * Record read back from the log
+	 */
+	public static class LogRecord {
+		private final long lsn;
+		private final byte[] payload;
+
+		LogRecord(long lsn, byte[] payload) {
+			this.lsn = lsn;
+			this.payload = payload;
+		}
+
+		public long getLsn() {
+			return lsn;
+		}
+
+		public byte[] getPayload() {
+			return payload;
+		}
+	}
+}
@@ -6,6 +6,7 @@ import org.springframework.boot.autoconfigure.data.neo4j.Neo4jDataAutoConfigurat
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.PropertySource;
 import org.springframework.context.annotation.PropertySources;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 /**
  * Hello world!
@@ -16,6 +17,7 @@ import org.springframework.context.annotation.PropertySources;
 @PropertySources({
 	@PropertySource("classpath:application.properties")
 })
+@EnableScheduling
 public class App 
 {
     public static void main( String[] args )
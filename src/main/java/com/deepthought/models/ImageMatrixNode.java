@@ -1,9 +1,13 @@
 package com.deepthought.models;
 
+import java.nio.ByteBuffer;
+import java.util.List;
+
 import org.neo4j.ogm.annotation.GeneratedValue;
 import org.neo4j.ogm.annotation.Id;
 import org.neo4j.ogm.annotation.NodeEntity;
 import org.neo4j.ogm.annotation.Property;
+import org.neo4j.ogm.annotation.Transient;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.google.gson.Gson;
@@ -12,9 +16,14 @@ import com.google.gson.GsonBuilder;
 import io.swagger.v3.oas.annotations.media.Schema;
 
 /**
- * Neo4j node entity that stores an image as a 2D RGB matrix. The matrix is
- * serialized as JSON (int[height][width][3]) for persistence. Types include
- * original image, outline, PCA-transformed, black-and-white, and cropped objects.
+ * Neo4j node entity that stores an image as a 2D RGB matrix. Pixels are persisted
+ * as a packed, row-major, channel-interleaved byte array (one byte per channel).
+ * Nodes written in the older JSON (int[height][width][3]) form are converted to the
+ * packed form when their pixels are first read, and saved converted by
+ * {@link com.qanairy.image.ImageMatrixMigration} on startup. When an image blob store is used
+ * the node keeps only the content hash of its pixels and the pixels are attached
+ * as a memory-mapped buffer when read. Types include original image, outline,
+ * PCA-transformed, black-and-white, and cropped objects.
  */
 @NodeEntity
 public class ImageMatrixNode {
@@ -44,17 +53,49 @@ public class ImageMatrixNode {
 	@Property
 	private int height;
 
+	@Schema(description = "Number of channels per pixel", required = true)
+	@Property
+	private int channels;
+
+	@Property
+	@JsonIgnore
+	private byte[] pixels;
+
+	/** Content hash of the pixels when they are kept in a blob store instead of on the node. */
+	@Schema(description = "SHA-256 content hash of the pixels when they are stored outside the graph")
+	@Property
+	private String pixel_hash;
+
+	/** SHA-256 of the encoded image an original node was ingested from, used to detect resubmissions. */
+	@Schema(description = "SHA-256 of the encoded image an original node was ingested from")
+	@Property
+	private String source_hash;
+
+	/** Pixels of nodes written before the packed encoding, cleared once migrated. */
 	@Property
 	@JsonIgnore
 	private String rgb_matrix_json;
 
+	@Transient
+	private ByteBuffer attached_pixels;
+
+	@Schema(description = "Derived nodes that are PART_OF this node, returned with ingested originals")
+	@Transient
+	private List<ImageMatrixNode> parts;
+
 	private static final Gson gson = new GsonBuilder().create();
 
 	public ImageMatrixNode() {
-		this.rgb_matrix_json = "";
 	}
 
+	/**
+	 * @throws IllegalArgumentException if the matrix is not empty and is not int[height][width][channels]
+	 */
 	public ImageMatrixNode(Type type, int width, int height, int[][][] rgb_matrix) {
+		if (rgb_matrix != null && rgb_matrix.length > 0 && (rgb_matrix.length != height || rgb_matrix[0].length != width)) {
+			throw new IllegalArgumentException("Image is " + width + "x" + height + " but its RGB matrix is "
+					+ rgb_matrix[0].length + "x" + rgb_matrix.length);
+		}
 		this.type = type.name();
 		this.width = width;
 		this.height = height;
@@ -97,21 +138,223 @@ public class ImageMatrixNode {
 		this.height = height;
 	}
 
+	public int getChannels() {
+		migrateLegacyMatrix();
+		return channels;
+	}
+
+	/**
+	 * Returns the packed pixels without copying. The value of channel c of the pixel at (x, y) is
+	 * {@code pixels[(y * width + x) * channels + c] & 0xFF}.
+	 *
+	 * @return packed pixels, or null if the node has no pixels or its pixels are kept in a blob store
+	 */
+	@JsonIgnore
+	public byte[] getPackedPixels() {
+		migrateLegacyMatrix();
+		return pixels;
+	}
+
+	/**
+	 * Returns a read-only view of the packed pixels, whether they are stored on the node or attached
+	 * from a blob store.
+	 *
+	 * @return packed pixels, or null if no pixels are available
+	 */
+	@JsonIgnore
+	public ByteBuffer getPixelBuffer() {
+		migrateLegacyMatrix();
+		if (pixels != null) {
+			return ByteBuffer.wrap(pixels).asReadOnlyBuffer();
+		}
+		return attached_pixels != null ? attached_pixels.duplicate() : null;
+	}
+
+	/**
+	 * Replaces the pixels with already packed, row-major, channel-interleaved bytes
+	 *
+	 * @pre packed_pixels == null || packed_pixels.length == width * height * channels
+	 */
+	public void setPackedPixels(int width, int height, int channels, byte[] packed_pixels) {
+		if (packed_pixels != null && packed_pixels.length != width * height * channels) {
+			throw new IllegalArgumentException("Packed pixel length does not match width * height * channels");
+		}
+		this.width = width;
+		this.height = height;
+		this.channels = packed_pixels != null ? channels : 0;
+		this.pixels = packed_pixels;
+		this.pixel_hash = null;
+		this.attached_pixels = null;
+		this.rgb_matrix_json = null;
+	}
+
+	public String getSourceHash() {
+		return source_hash;
+	}
+
+	public void setSourceHash(String source_hash) {
+		this.source_hash = source_hash;
+	}
+
+	public List<ImageMatrixNode> getParts() {
+		return parts;
+	}
+
+	public void setParts(List<ImageMatrixNode> parts) {
+		this.parts = parts;
+	}
+
+	public String getPixelHash() {
+		return pixel_hash;
+	}
+
+	/**
+	 * Drops the pixels stored on the node and references them by content hash instead. The pixels
+	 * remain readable until the node is reloaded.
+	 *
+	 * @param pixel_hash content hash the pixels are stored under
+	 */
+	public void externalizePixels(String pixel_hash) {
+		migrateLegacyMatrix();
+		if (pixels != null) {
+			this.attached_pixels = ByteBuffer.wrap(pixels).asReadOnlyBuffer();
+		}
+		this.pixels = null;
+		this.pixel_hash = pixel_hash;
+	}
+
+	/**
+	 * Attaches pixels that are kept outside the node, for example a memory-mapped blob
+	 *
+	 * @pre packed_pixels.remaining() == width * height * channels
+	 */
+	public void attachPixels(ByteBuffer packed_pixels) {
+		if (packed_pixels.remaining() != width * height * channels) {
+			throw new IllegalArgumentException("Packed pixel length does not match width * height * channels");
+		}
+		this.attached_pixels = packed_pixels.asReadOnlyBuffer();
+	}
+
+	/**
+	 * @return true if the pixels are referenced by hash but not yet attached
+	 */
+	@JsonIgnore
+	public boolean isPixelsDetached() {
+		return pixels == null && attached_pixels == null && pixel_hash != null;
+	}
+
+	/**
+	 * Reads a single channel value directly from the packed pixels.
+	 *
+	 * @return channel value 0-255
+	 */
+	public int getPixel(int x, int y, int channel) {
+		ByteBuffer buffer = getPixelBuffer();
+		if (buffer == null || x < 0 || x >= width || y < 0 || y >= height || channel < 0 || channel >= channels) {
+			throw new IndexOutOfBoundsException("Pixel (" + x + ", " + y + ", " + channel + ") is outside the image");
+		}
+		return buffer.get((y * width + x) * channels + channel) & 0xFF;
+	}
+
 	/**
 	 * Returns the RGB matrix as int[height][width][3] where indices 0,1,2 are R,G,B (0-255).
+	 * The matrix is unpacked from the packed pixels on every call; prefer {@link #getPixel(int, int, int)}
+	 * or {@link #getPackedPixels()} for read-only access.
 	 */
 	@JsonIgnore
 	public int[][][] getRgbMatrix() {
-		if (rgb_matrix_json == null || rgb_matrix_json.isEmpty()) {
+		ByteBuffer buffer = getPixelBuffer();
+		if (buffer == null) {
 			return new int[0][0][0];
 		}
-		return gson.fromJson(rgb_matrix_json, int[][][].class);
+		int[][][] rgb_matrix = new int[height][width][channels];
+		for (int[][] row : rgb_matrix) {
+			for (int[] pixel : row) {
+				for (int c = 0; c < channels; c++) {
+					pixel[c] = buffer.get() & 0xFF;
+				}
+			}
+		}
+		return rgb_matrix;
 	}
 
 	/**
-	 * Sets the RGB matrix. Expects int[height][width][3] with R,G,B values 0-255.
+	 * Sets the RGB matrix. Expects int[height][width][3] with R,G,B values 0-255. The width and
+	 * height of the node are updated to match the matrix.
+	 *
+	 * Packed pixels need a rectangular matrix. Unlike the JSON form nodes used to be stored in, a
+	 * matrix whose rows differ in width or whose pixels differ in channel count is rejected.
+	 *
+	 * @throws IllegalArgumentException if the rows or pixels of the matrix differ in length
 	 */
 	public void setRgbMatrix(int[][][] rgb_matrix) {
-		this.rgb_matrix_json = rgb_matrix != null ? gson.toJson(rgb_matrix) : "";
+		if (rgb_matrix == null || rgb_matrix.length == 0 || rgb_matrix[0] == null || rgb_matrix[0].length == 0) {
+			setPackedPixels(width, height, 0, null);
+			return;
+		}
+		int matrix_height = rgb_matrix.length;
+		int matrix_width = rgb_matrix[0].length;
+		int matrix_channels = rgb_matrix[0][0] != null ? rgb_matrix[0][0].length : 0;
+
+		byte[] packed_pixels = new byte[matrix_height * matrix_width * matrix_channels];
+		int offset = 0;
+		for (int y = 0; y < matrix_height; y++) {
+			int[][] row = rgb_matrix[y];
+			if (row == null || row.length != matrix_width) {
+				throw new IllegalArgumentException("Row " + y + " of the RGB matrix has " + (row == null ? 0 : row.length)
+						+ " pixels, expected " + matrix_width);
+			}
+			for (int x = 0; x < matrix_width; x++) {
+				int[] pixel = row[x];
+				if (pixel == null || pixel.length != matrix_channels) {
+					throw new IllegalArgumentException("Pixel (" + x + ", " + y + ") of the RGB matrix has " + (pixel == null ? 0 : pixel.length)
+							+ " channels, expected " + matrix_channels);
+				}
+				for (int c = 0; c < matrix_channels; c++) {
+					packed_pixels[offset++] = (byte) pixel[c];
+				}
+			}
+		}
+		setPackedPixels(matrix_width, matrix_height, matrix_channels, packed_pixels);
+	}
+
+	/**
+	 * Converts pixels stored in the legacy JSON form to the packed form. The JSON form accepted
+	 * ragged matrices, so short rows and pixels are padded with zeros to the widest row and the
+	 * most channels. The node must be saved again for the migration to be persisted, see
+	 * {@link com.qanairy.image.ImageMatrixMigration}.
+	 */
+	private void migrateLegacyMatrix() {
+		if (pixels == null && rgb_matrix_json != null && !rgb_matrix_json.isEmpty()) {
+			setRgbMatrix(padToRectangle(gson.fromJson(rgb_matrix_json, int[][][].class)));
+		}
+	}
+
+	private static int[][][] padToRectangle(int[][][] rgb_matrix) {
+		if (rgb_matrix == null) {
+			return null;
+		}
+		int matrix_width = 0;
+		int matrix_channels = 0;
+		for (int[][] row : rgb_matrix) {
+			if (row != null) {
+				matrix_width = Math.max(matrix_width, row.length);
+				for (int[] pixel : row) {
+					matrix_channels = Math.max(matrix_channels, pixel != null ? pixel.length : 0);
+				}
+			}
+		}
+
+		int[][][] padded = new int[rgb_matrix.length][matrix_width][matrix_channels];
+		for (int y = 0; y < rgb_matrix.length; y++) {
+			if (rgb_matrix[y] != null) {
+				for (int x = 0; x < rgb_matrix[y].length; x++) {
+					if (rgb_matrix[y][x] != null) {
+						System.arraycopy(rgb_matrix[y][x], 0, padded[y][x], 0, rgb_matrix[y][x].length);
+					}
+				}
+			}
+		}
+		return padded;
 	}
 }
@@ -9,8 +9,10 @@ import org.neo4j.ogm.annotation.Id;
 import org.neo4j.ogm.annotation.NodeEntity;
 import org.neo4j.ogm.annotation.Property;
 import org.neo4j.ogm.annotation.Relationship;
+import org.neo4j.ogm.annotation.Transient;
 
 import com.deepthought.models.edges.Prediction;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 
@@ -41,11 +43,24 @@ public class MemoryRecord {
 	private List<String> input_token_values;
 	private String[] output_token_values;
 
+	private byte[] policy_matrix;
+
+	//policy matrices of memories written before the binary encoding was introduced
 	private String policy_matrix_json;
 
+	@Transient
+	private double[][] decoded_policy_matrix;
+
+	//policy-by-reference memories store the weight version and prediction instead of the policy matrix
+	private Long weight_version;
+	private double[] prediction;
+
+	//memories rebuilt from the MemoryArchive are no longer in the graph
+	@Transient
+	private boolean archived;
+
 	public MemoryRecord(){
 		setDate(new Date());
-		policy_matrix_json = "";
 		setPredictions( new ArrayList<>() );
 	}
 
@@ -61,6 +76,13 @@ public class MemoryRecord {
 		return id;
 	}
 
+	/**
+	 * Assigns a previously reserved id to a memory that has not been persisted yet
+	 */
+	public void setID(Long id) {
+		this.id = id;
+	}
+
 	public Date getDate() {
 		return date;
 	}
@@ -93,16 +115,89 @@ public class MemoryRecord {
 		this.output_token_values = output_token_values;
 	}
 
+	/**
+	 * Retrieves the policy matrix. The stored encoding is decoded on first access only
+	 *
+	 * @return policy matrix, or null if no policy has been set
+	 */
 	public double[][] getPolicyMatrix() {
-        Gson gson = new GsonBuilder().create();
-
-		return gson.fromJson(policy_matrix_json, double[][].class);
+		if(decoded_policy_matrix == null){
+			if(policy_matrix != null){
+				decoded_policy_matrix = PolicyMatrixCodec.decode(policy_matrix);
+			}
+			else if(policy_matrix_json != null && !policy_matrix_json.isEmpty()){
+		        Gson gson = new GsonBuilder().create();
+				decoded_policy_matrix = gson.fromJson(policy_matrix_json, double[][].class);
+			}
+		}
+		return decoded_policy_matrix;
 	}
 
 	public void setPolicyMatrix(double[][] policy_matrix) {
-        Gson gson = new GsonBuilder().create();
+		setPolicyMatrix(policy_matrix, PolicyMatrixCodec.Encoding.FLOAT32);
+	}
+
+	/**
+	 * Stores the policy matrix with the given precision
+	 *
+	 * @param policy_matrix policy matrix of input tokens x output tokens
+	 * @param encoding precision to store the weights with
+	 */
+	public void setPolicyMatrix(double[][] policy_matrix, PolicyMatrixCodec.Encoding encoding) {
+		this.policy_matrix = PolicyMatrixCodec.encode(policy_matrix, encoding);
+		this.policy_matrix_json = null;
+		this.decoded_policy_matrix = policy_matrix;
+	}
+
+	/**
+	 * @return policy matrix in its persisted {@link PolicyMatrixCodec} form, or null for memories
+	 * 			that still store their policy as JSON
+	 */
+	@JsonIgnore
+	public byte[] getEncodedPolicyMatrix() {
+		return policy_matrix;
+	}
+
+	/**
+	 * Restores a policy matrix in its {@link PolicyMatrixCodec} form, decoding it on first access
+	 *
+	 * @param encoded_policy_matrix encoded policy matrix
+	 */
+	public void setEncodedPolicyMatrix(byte[] encoded_policy_matrix) {
+		this.policy_matrix = encoded_policy_matrix;
+		this.policy_matrix_json = null;
+		this.decoded_policy_matrix = null;
+	}
+
+	/**
+	 * @return version of the token weights the prediction was made with, taken from the weight version counter, or
+	 * 			null if the memory stores its policy matrix
+	 */
+	public Long getWeightVersion() {
+		return weight_version;
+	}
+
+	public void setWeightVersion(Long weight_version) {
+		this.weight_version = weight_version;
+	}
+
+	/**
+	 * @return true if the memory was read from the {@code MemoryArchive} and is no longer in the graph
+	 */
+	public boolean isArchived() {
+		return archived;
+	}
+
+	public void setArchived(boolean archived) {
+		this.archived = archived;
+	}
+
+	public double[] getPrediction() {
+		return prediction;
+	}
 
-		this.policy_matrix_json = gson.toJson(policy_matrix);
+	public void setPrediction(double[] prediction) {
+		this.prediction = prediction;
 	}
 
 	public Token getDesiredToken() {
@@ -30,8 +30,9 @@ public class Token {
     @NotBlank
 	private String value;
 
+	//allocated on first use, most tokens are created for a lookup and never hold their weights
 	@Relationship(type = "HAS_RELATED_TOKEN")
-	private List<TokenWeight> token_weights = new ArrayList<TokenWeight>();
+	private List<TokenWeight> token_weights;
 
 	public Token(){}
 
@@ -60,7 +61,6 @@ public class Token {
 	 */
 	public Token(String value) {
 		this.value = value;
-		this.token_weights = new ArrayList<TokenWeight>();
 	}
 
 	public String getValue(){
@@ -81,6 +81,9 @@ public class Token {
 	 */
 	@JsonIgnore
 	public List<TokenWeight> getTokenWeights(){
+		if(this.token_weights == null){
+			this.token_weights = new ArrayList<TokenWeight>();
+		}
 		return this.token_weights;
 	}
 
@@ -95,4 +98,9 @@ public class Token {
         }
         return false;
 	}
+
+	@Override
+	public int hashCode(){
+		return value != null ? value.hashCode() : 0;
+	}
 }
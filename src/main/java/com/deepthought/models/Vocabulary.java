@@ -5,6 +5,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 import javax.validation.constraints.NotBlank;
 
@@ -12,6 +13,7 @@ import org.neo4j.ogm.annotation.GeneratedValue;
 import org.neo4j.ogm.annotation.Id;
 import org.neo4j.ogm.annotation.NodeEntity;
 import org.neo4j.ogm.annotation.Property;
+import org.neo4j.ogm.annotation.Transient;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 
@@ -27,6 +29,12 @@ import io.swagger.v3.oas.annotations.media.Schema;
  * - Bidirectional mapping (word -> index, index -> word)
  * - Thread-safe operations for concurrent access
  * - Integration with the graph-based learning system
+ *
+ * Words are not stored on the vocabulary node. Each word is persisted as its own
+ * {@code VocabularyWord} node so that saving only writes the words added since the
+ * vocabulary was loaded or last saved, see {@link #getUnsavedWords()}. Vocabularies loaded
+ * through {@code VocabularyService} read their words on first use, and the word to index
+ * map is built on first lookup rather than when the words are loaded.
  */
 @NodeEntity
 public class Vocabulary {
@@ -42,13 +50,22 @@ public class Vocabulary {
     private String label;
 
     @Schema(description = "List of vocabulary items (words/tokens)", required = true)
-    @Property
+    @Transient
     private List<String> valueList;
 
-    @Schema(description = "Mapping from word to index for fast lookup")
+    @Schema(description = "Mapping from word to index for fast lookup, built on first lookup")
     @JsonIgnore
     private transient Map<String, Integer> wordToIndexMap;
 
+    @JsonIgnore
+    private transient int savedSize;
+
+    @JsonIgnore
+    private transient boolean cleared;
+
+    @JsonIgnore
+    private transient Supplier<List<String>> wordLoader;
+
     @Schema(description = "Current size of the vocabulary")
     @Property
     private int size;
@@ -105,13 +122,15 @@ public class Vocabulary {
 
         String normalizedWord = word.trim().toLowerCase();
 
-        if (wordToIndexMap.containsKey(normalizedWord)) {
-            return wordToIndexMap.get(normalizedWord);
+        Map<String, Integer> mappings = mappings();
+        Integer existingIndex = mappings.get(normalizedWord);
+        if (existingIndex != null) {
+            return existingIndex;
         }
 
         int index = nextIndex.getAndIncrement();
         valueList.add(normalizedWord);
-        wordToIndexMap.put(normalizedWord, index);
+        mappings.put(normalizedWord, index);
         size = valueList.size();
 
         return index;
@@ -140,7 +159,7 @@ public class Vocabulary {
         if (word == null) {
             return -1;
         }
-        return wordToIndexMap.getOrDefault(word.trim().toLowerCase(), -1);
+        return mappings().getOrDefault(word.trim().toLowerCase(), -1);
     }
 
     /**
@@ -150,10 +169,11 @@ public class Vocabulary {
      * @return The word at the index, or null if index is out of bounds
      */
     public String getWord(int index) {
-        if (index < 0 || index >= valueList.size()) {
+        List<String> words = words();
+        if (index < 0 || index >= words.size()) {
             return null;
         }
-        return valueList.get(index);
+        return words.get(index);
     }
 
     /**
@@ -166,7 +186,7 @@ public class Vocabulary {
         if (word == null) {
             return false;
         }
-        return wordToIndexMap.containsKey(word.trim().toLowerCase());
+        return mappings().containsKey(word.trim().toLowerCase());
     }
 
     /**
@@ -183,8 +203,8 @@ public class Vocabulary {
      *
      * @return A copy of the vocabulary list
      */
-    public List<String> getWords() {
-        return new ArrayList<>(valueList);
+    public synchronized List<String> getWords() {
+        return new ArrayList<>(words());
     }
 
     /**
@@ -194,7 +214,7 @@ public class Vocabulary {
      */
     public List<Token> getTokens() {
         List<Token> tokens = new ArrayList<>();
-        for (String word : valueList) {
+        for (String word : getWords()) {
             tokens.add(new Token(word));
         }
         return tokens;
@@ -240,30 +260,129 @@ public class Vocabulary {
     }
 
     /**
-     * Initializes the word-to-index mapping from the stored value list
-     * This method should be called after loading from Neo4j
+     * Initializes the word-to-index mapping from the stored value list.
+     * Lookups build the mapping on demand, so calling this is only needed to
+     * pay the cost up front.
+     */
+    public synchronized void initializeMappings() {
+        words();
+        Map<String, Integer> mappings = new HashMap<>((int) (valueList.size() / 0.75f) + 1);
+        for (int i = 0; i < valueList.size(); i++) {
+            mappings.put(valueList.get(i), i);
+        }
+        wordToIndexMap = mappings;
+        if (nextIndex == null) {
+            nextIndex = new AtomicInteger(0);
+        }
+        nextIndex.set(valueList.size());
+        size = valueList.size();
+    }
+
+    /**
+     * Returns the word-to-index mapping, building it from the value list if it has not been built yet
      */
-    public void initializeMappings() {
+    private synchronized Map<String, Integer> mappings() {
         if (wordToIndexMap == null) {
-            wordToIndexMap = new HashMap<>();
+            initializeMappings();
+        }
+        return wordToIndexMap;
+    }
+
+    /**
+     * Returns the words, reading the persisted words first if they have not been read yet
+     */
+    private synchronized List<String> words() {
+        if (wordLoader != null) {
+            List<String> words = wordLoader.get();
+            if (words.size() != savedSize) {
+                throw new IllegalStateException("Vocabulary " + label + " was loaded with " + savedSize
+                        + " words but " + words.size() + " were read");
+            }
+            valueList = new ArrayList<>(words);
+            wordLoader = null;
         }
+        return valueList;
+    }
+
+    /**
+     * Defers reading the persisted words until they are first used. The vocabulary is marked
+     * as holding savedSize persisted words and no unsaved ones.
+     *
+     * @param savedSize The number of persisted words when the vocabulary was loaded
+     * @param wordLoader Reads the first savedSize persisted words in index order
+     */
+    public synchronized void loadWordsLazily(int savedSize, Supplier<List<String>> wordLoader) {
+        this.valueList = new ArrayList<>();
+        this.wordLoader = wordLoader;
+        this.wordToIndexMap = null;
         if (nextIndex == null) {
             nextIndex = new AtomicInteger(0);
         }
+        nextIndex.set(savedSize);
+        this.size = savedSize;
+        markSaved(savedSize);
+    }
 
-        wordToIndexMap.clear();
-        for (int i = 0; i < valueList.size(); i++) {
-            wordToIndexMap.put(valueList.get(i), i);
+    /**
+     * Checks whether the vocabulary has changes that only {@code VocabularyService} can persist,
+     * i.e. words added since it was loaded or last saved, or a clear
+     *
+     * @return true if saving the entity alone would lose words
+     */
+    public synchronized boolean hasUnsavedWords() {
+        return cleared || (wordLoader == null && savedSize < valueList.size());
+    }
+
+    /**
+     * Gets the words that were added since the vocabulary was loaded or last saved
+     *
+     * @return A copy of the unsaved words in index order, starting at index {@link #getSavedSize()}
+     */
+    public synchronized List<String> getUnsavedWords() {
+        if (wordLoader != null || savedSize >= valueList.size()) {
+            return new ArrayList<>();
         }
-        nextIndex.set(valueList.size());
-        size = valueList.size();
+        return new ArrayList<>(valueList.subList(savedSize, valueList.size()));
+    }
+
+    /**
+     * Gets the number of words that are persisted. This is 0 after the vocabulary has
+     * been cleared or its words replaced.
+     *
+     * @return The number of persisted words
+     */
+    public int getSavedSize() {
+        return savedSize;
     }
 
     /**
-     * Clears the vocabulary
+     * Checks whether the vocabulary was cleared or had its words replaced since it was
+     * loaded or last saved, in which case saving must replace the persisted words
+     *
+     * @return true if the persisted words must be replaced
+     */
+    public boolean isCleared() {
+        return cleared;
+    }
+
+    /**
+     * Records that the words up to the given index have been persisted
+     *
+     * @param savedSize The number of persisted words
+     */
+    public synchronized void markSaved(int savedSize) {
+        this.savedSize = savedSize;
+        this.cleared = false;
+    }
+
+    /**
+     * Clears the vocabulary. The persisted words are replaced on the next save.
      */
-    public void clear() {
-        valueList.clear();
+    public synchronized void clear() {
+        savedSize = 0;
+        cleared = true;
+        wordLoader = null;
+        valueList = new ArrayList<>();
         if (wordToIndexMap != null) {
             wordToIndexMap.clear();
         }
@@ -292,12 +411,26 @@ public class Vocabulary {
     }
 
     public List<String> getValueList() {
-        return new ArrayList<>(valueList);
+        return getWords();
     }
 
-    public void setValueList(List<String> valueList) {
-        this.valueList = valueList;
-        initializeMappings(); // Rebuild mappings when setting from Neo4j
+    /**
+     * Replaces the words of the vocabulary. The word-to-index mapping is rebuilt
+     * on the next lookup and the persisted words are replaced on the next save.
+     *
+     * @param valueList words in index order
+     */
+    public synchronized void setValueList(List<String> valueList) {
+        this.valueList = new ArrayList<>(valueList);
+        this.wordLoader = null;
+        this.savedSize = 0;
+        this.cleared = true;
+        this.wordToIndexMap = null;
+        if (nextIndex == null) {
+            nextIndex = new AtomicInteger(0);
+        }
+        nextIndex.set(this.valueList.size());
+        size = this.valueList.size();
     }
 
     public int getSize() {
@@ -311,7 +444,7 @@ public class Vocabulary {
     @Override
     public String toString() {
         return String.format("Vocabulary{label='%s', size=%d, words=%s}",
-                           label, size, valueList);
+                           label, size, wordLoader != null ? "<not loaded>" : valueList);
     }
 
     @Override
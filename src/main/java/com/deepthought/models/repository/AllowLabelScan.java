@@ -0,0 +1,17 @@
+package com.deepthought.models.repository;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a repository query that is expected to read every node with a label, such as aggregates
+ *  over all nodes or substring searches, so the startup query plan check does not report it.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface AllowLabelScan {
+}
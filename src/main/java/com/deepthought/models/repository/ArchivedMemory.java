@@ -0,0 +1,126 @@
+package com.deepthought.models.repository;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.data.neo4j.annotation.QueryResult;
+
+/**
+ * Flat projection of a {@link com.deepthought.models.MemoryRecord} and the values of the tokens it is
+ *  connected to, in the form memories are written to the memory archive. Properties keep their
+ *  stored representation, so dates are formatted strings and the policy matrix is base64 encoded.
+ */
+@QueryResult
+public class ArchivedMemory {
+
+	private Long id;
+	private String date;
+	private List<String> input_token_values;
+	private List<String> output_token_values;
+	private String policy_matrix;
+	private String policy_matrix_json;
+	private Long weight_version;
+	private List<Double> prediction;
+	private String predicted_token;
+	private String desired_token;
+	private List<String> prediction_tokens;
+	private List<Double> prediction_weights;
+
+	public ArchivedMemory(){}
+
+	public Long getId() {
+		return id;
+	}
+
+	public void setId(Long id) {
+		this.id = id;
+	}
+
+	public String getDate() {
+		return date;
+	}
+
+	public void setDate(String date) {
+		this.date = date;
+	}
+
+	public List<String> getInputTokenValues() {
+		return input_token_values == null ? new ArrayList<String>() : input_token_values;
+	}
+
+	public void setInputTokenValues(List<String> input_token_values) {
+		this.input_token_values = input_token_values;
+	}
+
+	public List<String> getOutputTokenValues() {
+		return output_token_values == null ? new ArrayList<String>() : output_token_values;
+	}
+
+	public void setOutputTokenValues(List<String> output_token_values) {
+		this.output_token_values = output_token_values;
+	}
+
+	public String getPolicyMatrix() {
+		return policy_matrix;
+	}
+
+	public void setPolicyMatrix(String policy_matrix) {
+		this.policy_matrix = policy_matrix;
+	}
+
+	public String getPolicyMatrixJson() {
+		return policy_matrix_json;
+	}
+
+	public void setPolicyMatrixJson(String policy_matrix_json) {
+		this.policy_matrix_json = policy_matrix_json;
+	}
+
+	public Long getWeightVersion() {
+		return weight_version;
+	}
+
+	public void setWeightVersion(Long weight_version) {
+		this.weight_version = weight_version;
+	}
+
+	public List<Double> getPrediction() {
+		return prediction;
+	}
+
+	public void setPrediction(List<Double> prediction) {
+		this.prediction = prediction;
+	}
+
+	public String getPredictedToken() {
+		return predicted_token;
+	}
+
+	public void setPredictedToken(String predicted_token) {
+		this.predicted_token = predicted_token;
+	}
+
+	public String getDesiredToken() {
+		return desired_token;
+	}
+
+	public void setDesiredToken(String desired_token) {
+		this.desired_token = desired_token;
+	}
+
+	public List<String> getPredictionTokens() {
+		return prediction_tokens == null ? new ArrayList<String>() : prediction_tokens;
+	}
+
+	public void setPredictionTokens(List<String> prediction_tokens) {
+		this.prediction_tokens = prediction_tokens;
+	}
+
+	public List<Double> getPredictionWeights() {
+		return prediction_weights == null ? new ArrayList<Double>() : prediction_weights;
+	}
+
+	public void setPredictionWeights(List<Double> prediction_weights) {
+		this.prediction_weights = prediction_weights;
+	}
+}
@@ -1,6 +1,10 @@
 package com.deepthought.models.repository;
 
+import java.util.List;
+
+import org.springframework.data.neo4j.annotation.Query;
 import org.springframework.data.neo4j.repository.Neo4jRepository;
+import org.springframework.data.repository.query.Param;
 
 import com.deepthought.models.ImageMatrixNode;
 
@@ -9,4 +13,55 @@ import com.deepthought.models.ImageMatrixNode;
  */
 public interface ImageMatrixNodeRepository extends Neo4jRepository<ImageMatrixNode, Long> {
 
+	/**
+	 * Finds the original image node ingested from an encoded image with the given content hash
+	 *
+	 * @param source_hash SHA-256 of the encoded image
+	 *
+	 * @return original node, or null if no image with this hash was ingested
+	 */
+	@Query("MATCH (n:ImageMatrixNode{source_hash:$source_hash}) WHERE n.type = 'ORIGINAL' RETURN n LIMIT 1")
+	public ImageMatrixNode findOriginalBySourceHash(@Param("source_hash") String source_hash);
+
+	/**
+	 * Retrieves the derived nodes that are {@code PART_OF} the given node
+	 *
+	 * @param id id of the whole node
+	 *
+	 * @return {@link List} of derived nodes
+	 */
+	@Query("MATCH (part:ImageMatrixNode)-[:PART_OF]->(whole:ImageMatrixNode) WHERE id(whole) = $id RETURN part")
+	public List<ImageMatrixNode> findParts(@Param("id") long id);
+
+	/**
+	 * Marks a fully ingested original with the content hash of its encoded image. The hash is unique,
+	 *  so this fails with a constraint violation when another original already holds it.
+	 *
+	 * @param id id of the original node
+	 * @param source_hash SHA-256 of the encoded image
+	 */
+	@Query("MATCH (n:ImageMatrixNode) WHERE id(n) = $id SET n.source_hash = $source_hash")
+	public void setSourceHash(@Param("id") long id, @Param("source_hash") String source_hash);
+
+	/**
+	 * Deletes image nodes together with all of their relationships
+	 *
+	 * @param ids ids of the nodes to delete
+	 */
+	@Query("MATCH (n:ImageMatrixNode) WHERE id(n) IN $ids DETACH DELETE n")
+	public void deleteByIds(@Param("ids") List<Long> ids);
+
+	/**
+	 * Retrieves a page of nodes whose pixels are still stored in the legacy JSON form, in id order.
+	 *  Only read by the one-off {@link com.qanairy.image.ImageMatrixMigration}, so it may scan the label.
+	 *
+	 * @param after_id only nodes with a larger id are returned
+	 * @param limit maximum number of nodes to return
+	 *
+	 * @return {@link List} of legacy nodes
+	 */
+	@AllowLabelScan
+	@Query("MATCH (n:ImageMatrixNode) WHERE id(n) > $after_id AND n.rgb_matrix_json IS NOT NULL AND n.pixels IS NULL " +
+			"RETURN n ORDER BY id(n) LIMIT $limit")
+	public List<ImageMatrixNode> findLegacyMatrixNodes(@Param("after_id") long after_id, @Param("limit") int limit);
 }
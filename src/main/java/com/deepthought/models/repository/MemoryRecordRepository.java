@@ -1,6 +1,12 @@
 package com.deepthought.models.repository;
 
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.data.neo4j.annotation.Query;
 import org.springframework.data.neo4j.repository.Neo4jRepository;
+import org.springframework.data.repository.query.Param;
+
 import com.deepthought.models.MemoryRecord;
 
 /**
@@ -8,4 +14,130 @@ import com.deepthought.models.MemoryRecord;
  *  on {@link MemoryRecord} 
  */
 public interface MemoryRecordRepository extends Neo4jRepository<MemoryRecord, Long> {
-}
\ No newline at end of file
+
+	/**
+	 * Replaces the {@code DESIRED_TOKEN} of the memory in each row of {@code $rows}
+	 */
+	String RECORD_DESIRED_TOKENS = "UNWIND $rows AS row " +
+			"MATCH (m:MemoryRecord) WHERE id(m) = row.id " +
+			"OPTIONAL MATCH (m)-[previous:DESIRED_TOKEN]->() " +
+			"DELETE previous " +
+			"WITH DISTINCT m, row " +
+			"MERGE (t:Token{value:row.token}) " +
+			"MERGE (m)-[:DESIRED_TOKEN]->(t)";
+
+	/**
+	 * Projects each memory {@code m} into the columns of {@link ArchivedMemory}
+	 */
+	String ARCHIVE_PROJECTION = "OPTIONAL MATCH (m)-[:PREDICTED]->(predicted:Token) " +
+			"OPTIONAL MATCH (m)-[:DESIRED_TOKEN]->(desired:Token) " +
+			"WITH m, head(collect(DISTINCT predicted.value)) AS predicted_token, " +
+				"head(collect(DISTINCT desired.value)) AS desired_token " +
+			"OPTIONAL MATCH (m)-[p:PREDICTION]->(t:Token) " +
+			"WITH m, predicted_token, desired_token, collect([t.value, p.weight]) AS predictions " +
+			"RETURN id(m) AS id, m.date AS date, m.input_token_values AS input_token_values, " +
+			"m.output_token_values AS output_token_values, m.policy_matrix AS policy_matrix, " +
+			"m.policy_matrix_json AS policy_matrix_json, m.weight_version AS weight_version, " +
+			"m.prediction AS prediction, predicted_token, desired_token, " +
+			"[prediction IN predictions WHERE prediction[0] IS NOT NULL | prediction[0]] AS prediction_tokens, " +
+			"[prediction IN predictions WHERE prediction[0] IS NOT NULL | prediction[1]] AS prediction_weights";
+
+	/**
+	 * Creates empty {@link MemoryRecord} nodes so that their ids can be handed out before the
+	 *  memories themselves are persisted. Each node records when it was reserved until it is written.
+	 *
+	 * @param count number of ids to reserve
+	 *
+	 * @return ids of the reserved nodes
+	 */
+	@Query("UNWIND range(1, $count) AS i CREATE (m:MemoryRecord{reserved_at:timestamp()}) RETURN id(m)")
+	public List<Long> reserveIds(@Param("count") int count);
+
+	/**
+	 * Deletes reserved {@link MemoryRecord} nodes that were never written to
+	 *
+	 * @param ids ids of reserved nodes
+	 */
+	@Query("MATCH (m:MemoryRecord) WHERE id(m) IN $ids AND m.date IS NULL DELETE m")
+	public void releaseIds(@Param("ids") List<Long> ids);
+
+	/**
+	 * Deletes reserved {@link MemoryRecord} nodes that were never written to and were reserved
+	 *  more than ttl_ms milliseconds ago, such as the unused ids of a process that crashed
+	 *
+	 * @param ttl_ms age in milliseconds after which an unwritten reservation is deleted
+	 *
+	 * @return number of deleted nodes
+	 */
+	@Query("MATCH (m:MemoryRecord) WHERE m.reserved_at < timestamp() - $ttl_ms AND m.date IS NULL " +
+			"DETACH DELETE m RETURN count(m)")
+	public long deleteExpiredReservations(@Param("ttl_ms") long ttl_ms);
+
+	/**
+	 * Writes a batch of memories into previously {@linkplain #reserveIds(int) reserved} nodes along
+	 *  with their {@code PREDICTED} and {@code PREDICTION} relationships
+	 *
+	 * @param memories rows with keys id, date, input_token_values, output_token_values,
+	 * 			policy_matrix (base64 encoded), weight_version, prediction, predicted_token and
+	 * 			predictions (list of token/weight rows)
+	 *
+	 * @return ids of the memories that were written. Rows whose reserved node no longer exists are
+	 * 			not written and their ids are missing
+	 */
+	@Query("UNWIND $memories AS row " +
+			"MATCH (m:MemoryRecord) WHERE id(m) = row.id " +
+			"SET m.date = row.date, m.input_token_values = row.input_token_values, " +
+			"m.output_token_values = row.output_token_values, m.policy_matrix = row.policy_matrix, " +
+			"m.weight_version = row.weight_version, m.prediction = row.prediction " +
+			"REMOVE m.reserved_at " +
+			"MERGE (predicted:Token{value:row.predicted_token}) " +
+			"CREATE (m)-[:PREDICTED]->(predicted) " +
+			"FOREACH(prediction IN row.predictions | " +
+			"MERGE (t:Token{value:prediction.token}) " +
+			"CREATE (m)-[:PREDICTION{weight:prediction.weight}]->(t)) " +
+			"RETURN id(m)")
+	public List<Long> persistReserved(@Param("memories") List<Map<String, Object>> memories);
+
+	/**
+	 * Records the token each memory should have predicted as its {@code DESIRED_TOKEN}, replacing any
+	 *  earlier feedback
+	 *
+	 * @param rows rows with keys id and token
+	 */
+	@Query(RECORD_DESIRED_TOKENS)
+	public void recordDesiredTokens(@Param("rows") List<Map<String, Object>> rows);
+
+	/**
+	 * Retrieves persisted memories created before the cutoff date
+	 *
+	 * @param cutoff date in the stored date format, compared lexically
+	 * @param limit maximum number of memories to return
+	 *
+	 * @return {@link List} of {@link ArchivedMemory} projections
+	 */
+	@Query("MATCH (m:MemoryRecord) WHERE m.date < $cutoff " +
+			"WITH m LIMIT $limit " +
+			ARCHIVE_PROJECTION)
+	public List<ArchivedMemory> findCreatedBefore(@Param("cutoff") String cutoff, @Param("limit") int limit);
+
+	/**
+	 * Retrieves persisted memories that have received feedback
+	 *
+	 * @param limit maximum number of memories to return
+	 *
+	 * @return {@link List} of {@link ArchivedMemory} projections
+	 */
+	@AllowLabelScan
+	@Query("MATCH (m:MemoryRecord) WHERE m.date IS NOT NULL AND (m)-[:DESIRED_TOKEN]->() " +
+			"WITH m LIMIT $limit " +
+			ARCHIVE_PROJECTION)
+	public List<ArchivedMemory> findLearned(@Param("limit") int limit);
+
+	/**
+	 * Deletes memories together with all of their relationships
+	 *
+	 * @param ids ids of the memories to delete
+	 */
+	@Query("MATCH (m:MemoryRecord) WHERE id(m) IN $ids DETACH DELETE m")
+	public void deleteByIds(@Param("ids") List<Long> ids);
+}
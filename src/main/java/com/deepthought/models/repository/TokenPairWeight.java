@@ -0,0 +1,35 @@
+package com.deepthought.models.repository;
+
+import org.springframework.data.neo4j.annotation.QueryResult;
+
+/**
+ * Projection of a single {@code HAS_RELATED_TOKEN} weight between an input and output
+ *  {@link com.deepthought.models.Token} as returned by bulk weight queries
+ */
+@QueryResult
+public class TokenPairWeight {
+
+	private String input_value;
+	private String output_value;
+	private double weight;
+
+	public TokenPairWeight(){}
+
+	public TokenPairWeight(String input_value, String output_value, double weight){
+		this.input_value = input_value;
+		this.output_value = output_value;
+		this.weight = weight;
+	}
+
+	public String getInputValue() {
+		return input_value;
+	}
+
+	public String getOutputValue() {
+		return output_value;
+	}
+
+	public double getWeight() {
+		return weight;
+	}
+}
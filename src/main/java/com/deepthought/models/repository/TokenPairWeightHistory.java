@@ -0,0 +1,75 @@
+package com.deepthought.models.repository;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.data.neo4j.annotation.QueryResult;
+
+/**
+ * Projection of a {@code HAS_RELATED_TOKEN} weight together with its bounded update history. Each
+ *  update appends the weight it replaced and the version it was made at, oldest first.
+ */
+@QueryResult
+public class TokenPairWeightHistory {
+
+	private String input_value;
+	private String output_value;
+	private double weight;
+	private List<Double> prior_weights;
+	private List<Long> updated_versions;
+
+	public TokenPairWeightHistory(){}
+
+	public TokenPairWeightHistory(String input_value,
+								  String output_value,
+								  double weight,
+								  List<Double> prior_weights,
+								  List<Long> updated_versions){
+		this.input_value = input_value;
+		this.output_value = output_value;
+		this.weight = weight;
+		this.prior_weights = prior_weights;
+		this.updated_versions = updated_versions;
+	}
+
+	public String getInputValue() {
+		return input_value;
+	}
+
+	public String getOutputValue() {
+		return output_value;
+	}
+
+	public double getWeight() {
+		return weight;
+	}
+
+	public List<Double> getPriorWeights() {
+		return prior_weights == null ? new ArrayList<Double>() : prior_weights;
+	}
+
+	public List<Long> getUpdatedVersions() {
+		return updated_versions == null ? new ArrayList<Long>() : updated_versions;
+	}
+
+	/**
+	 * Determines the weight as it was at the given version. That is the weight replaced by the first
+	 *  update made after the version, or the current weight if there has been no update since.
+	 *  Once the history has been trimmed, versions older than the oldest retained update resolve to
+	 *  the oldest retained prior weight.
+	 *
+	 * @param version weight version, see {@link TokenRepository#getWeightVersion()}
+	 *
+	 * @return weight at the given version
+	 */
+	public double weightAt(long version) {
+		List<Long> versions = getUpdatedVersions();
+		List<Double> priors = getPriorWeights();
+		for(int idx = 0; idx < versions.size() && idx < priors.size(); idx++){
+			if(versions.get(idx) > version){
+				return priors.get(idx);
+			}
+		}
+		return weight;
+	}
+}
@@ -1,6 +1,8 @@
 package com.deepthought.models.repository;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.springframework.data.neo4j.annotation.Query;
@@ -15,8 +17,59 @@ import com.deepthought.models.edges.TokenWeight;
  */
 public interface TokenRepository extends Neo4jRepository<Token, Long> {
 
+	/**
+	 * Adds weight deltas to many {@link TokenWeight} connections, creating any missing {@link Token}s
+	 *  and connections with the row's initial weight first. Used by {@link #applyWeightDeltas(List)}
+	 *  and by the learning log applier, so both ways of learning update weights identically.
+	 */
+	String APPLY_WEIGHT_DELTAS = "UNWIND $rows AS row " +
+			"MERGE (f_in:Token{value:row.input_value}) " +
+			"MERGE (f_out:Token{value:row.output_value}) " +
+			"MERGE (f_in)-[r:HAS_RELATED_TOKEN]->(f_out) " +
+			"ON CREATE SET r.weight = row.initial_weight " +
+			"SET r.weight = reduce(weight = r.weight, delta IN row.deltas | abs(weight + delta)) " +
+			"RETURN f_in.value AS input_value, f_out.value AS output_value, r.weight AS weight";
+
+	/**
+	 * Same update as {@link #APPLY_WEIGHT_DELTAS} that also appends the replaced weight and the next
+	 *  weight version to the history of each connection. Used by {@link #applyWeightDeltasWithHistory(List, int)}
+	 *  and by the learning log applier.
+	 *
+	 * The version is taken from the {@code WeightVersion} counter, which stays locked until the
+	 *  transaction commits so that versions increase in commit order. Every update that keeps history
+	 *  therefore waits for the previous one to commit, cluster-wide. The counter is taken after the
+	 *  connections are updated to keep that wait short, but it still caps learning throughput at one
+	 *  transaction at a time; the learning log amortizes it over a batch of learns. The counter starts
+	 *  at the epoch millisecond time it is created, which keeps it ahead of versions recorded before it existed.
+	 */
+	String APPLY_WEIGHT_DELTAS_WITH_HISTORY = "UNWIND $rows AS row " +
+			"MERGE (f_in:Token{value:row.input_value}) " +
+			"MERGE (f_out:Token{value:row.output_value}) " +
+			"MERGE (f_in)-[r:HAS_RELATED_TOKEN]->(f_out) " +
+			"ON CREATE SET r.weight = row.initial_weight " +
+			"SET r.prior_weights = (coalesce(r.prior_weights, []) + r.weight)[-$history_size..] " +
+			"SET r.weight = reduce(weight = r.weight, delta IN row.deltas | abs(weight + delta)) " +
+			"WITH collect({connection: r, input_value: f_in.value, output_value: f_out.value, weight: r.weight}) AS updates " +
+			"MERGE (counter:WeightVersion{name:'token-weights'}) ON CREATE SET counter.value = timestamp() " +
+			"SET counter._LOCK_ = true REMOVE counter._LOCK_ " +
+			"SET counter.value = counter.value + 1 " +
+			"WITH counter.value AS version, updates " +
+			"UNWIND updates AS update " +
+			"WITH update, update.connection AS r, version " +
+			"SET r.updated_versions = (coalesce(r.updated_versions, []) + version)[-$history_size..] " +
+			"RETURN update.input_value AS input_value, update.output_value AS output_value, update.weight AS weight";
+
 	public Token findByValue(@Param("value") String value);
 
+	/**
+	 * Retrieves the values of all {@link Token}s in the graph
+	 *
+	 * @return {@link List} of token values
+	 */
+	@AllowLabelScan
+	@Query("MATCH (t:Token) RETURN t.value")
+	public List<String> findAllValues();
+
 	/**
 	 * Retrieves {@link Set} of {@link TokenWeight}s for a {@link Token} with a given value
 	 *
@@ -24,7 +77,7 @@ public interface TokenRepository extends Neo4jRepository<Token, Long> {
 	 *
 	 * @return {@link Set} of {@link TokenWeights}
 	 */
-	@Query("MATCH (:Token{value:{value}})-[fw:HAS_RELATED_TOKEN]->(:Token) RETURN fw")
+	@Query("MATCH (:Token{value:$value})-[fw:HAS_RELATED_TOKEN]->(:Token) RETURN fw")
 	public Set<TokenWeight> getTokenWeights(@Param("value") String value);
 
 	/**
@@ -35,21 +88,124 @@ public interface TokenRepository extends Neo4jRepository<Token, Long> {
 	 *
 	 * @return {@link List} of {@link Token}s
 	 */
-	@Query("MATCH p=(f1:Token{value:{input_value}})-[fw:HAS_RELATED_TOKEN]->(f2:Token{value:{output_value}}) RETURN f1,fw,f2")
+	@Query("MATCH p=(f1:Token{value:$input_value})-[fw:HAS_RELATED_TOKEN]->(f2:Token{value:$output_value}) RETURN f1,fw,f2")
 	public List<Token> getConnectedTokens(@Param("input_value") String input_value,
 									      @Param("output_value") String output_value);
 
 	/**
-	 * Creates a {@linkplain TokenWeight weighted} connection between two tokens
+	 * Retrieves every {@link TokenWeight} between the given input and output {@link Token} values
+	 *  in a single round trip. Pairs without a connection are simply absent from the result.
+	 *
+	 * @param input_values values of input tokens
+	 * @param output_values values of output tokens
+	 *
+	 * @return {@link List} of {@link TokenPairWeight}s, one per existing connection
+	 */
+	@Query("UNWIND $input_values AS input_value " +
+			"MATCH (f1:Token{value:input_value}) " +
+			"WITH f1 " +
+			"UNWIND $output_values AS output_value " +
+			"MATCH (f1)-[fw:HAS_RELATED_TOKEN]->(f2:Token{value:output_value}) " +
+			"RETURN f1.value AS input_value, f2.value AS output_value, fw.weight AS weight")
+	public List<TokenPairWeight> getWeightsForPairs(@Param("input_values") Collection<String> input_values,
+												   @Param("output_values") Collection<String> output_values);
+
+	/**
+	 * Adds the Q-learning weight deltas to many {@link TokenWeight} connections in a single statement,
+	 *  creating any missing {@link Token}s and connections with the row's initial weight first. The
+	 *  new weight is computed from the stored weight inside the {@code SET}, so concurrent updates to
+	 *  the same connection are serialized by the relationship lock instead of overwriting each other.
+	 *  The deltas of a row are added one after another, keeping the weight positive after each one.
+	 *
+	 * @param rows rows with keys input_value, output_value, initial_weight and deltas, at most one row per pair
+	 *
+	 * @return {@link List} of {@link TokenPairWeight}s with the final weight of each updated connection
+	 */
+	@Query(APPLY_WEIGHT_DELTAS)
+	public List<TokenPairWeight> applyWeightDeltas(@Param("rows") List<Map<String, Object>> rows);
+
+	/**
+	 * Adds the Q-learning weight deltas like {@link #applyWeightDeltas(List)}, and appends the replaced
+	 *  weight and the next weight version to the connection's prior_weights and updated_versions,
+	 *  keeping at most history_size entries. Concurrent calls are serialized by the weight version
+	 *  counter, see {@link #APPLY_WEIGHT_DELTAS_WITH_HISTORY}.
+	 *
+	 * @param rows rows with keys input_value, output_value, initial_weight and deltas, at most one row per pair
+	 * @param history_size number of prior weights to keep per connection, positive
+	 *
+	 * @return {@link List} of {@link TokenPairWeight}s with the final weight of each updated connection
+	 */
+	@Query(APPLY_WEIGHT_DELTAS_WITH_HISTORY)
+	public List<TokenPairWeight> applyWeightDeltasWithHistory(@Param("rows") List<Map<String, Object>> rows,
+															  @Param("history_size") int history_size);
+
+	/**
+	 * Retrieves the current weight version. Every connection update recorded in the weight history
+	 *  so far has a version at or below it, later updates get a higher version.
+	 *
+	 * @return current weight version
+	 */
+	@Query("OPTIONAL MATCH (counter:WeightVersion{name:'token-weights'}) RETURN coalesce(counter.value, timestamp())")
+	public long getWeightVersion();
+
+	/**
+	 * Retrieves the weight version of the last snapshot restore. The weight history does not cover
+	 *  updates before it, so policies cannot be rebuilt as of an earlier version.
+	 *
+	 * @return weight version of the last restore, or null if no snapshot has been restored
+	 */
+	@Query("OPTIONAL MATCH (counter:WeightVersion{name:'token-weights'}) RETURN counter.restored_version")
+	public Long getRestoredWeightVersion();
+
+	/**
+	 * Retrieves every {@link TokenWeight} between the given input and output {@link Token} values
+	 *  together with its update history
+	 *
+	 * @param input_values values of input tokens
+	 * @param output_values values of output tokens
+	 *
+	 * @return {@link List} of {@link TokenPairWeightHistory}s, one per existing connection
+	 */
+	@Query("UNWIND $input_values AS input_value " +
+			"MATCH (f1:Token{value:input_value}) " +
+			"WITH f1 " +
+			"UNWIND $output_values AS output_value " +
+			"MATCH (f1)-[fw:HAS_RELATED_TOKEN]->(f2:Token{value:output_value}) " +
+			"RETURN f1.value AS input_value, f2.value AS output_value, fw.weight AS weight, " +
+			"fw.prior_weights AS prior_weights, fw.updated_versions AS updated_versions")
+	public List<TokenPairWeightHistory> getWeightHistoryForPairs(@Param("input_values") Collection<String> input_values,
+																 @Param("output_values") Collection<String> output_values);
+
+	/**
+	 * Creates {@linkplain TokenWeight weighted} connections between many pairs of tokens in a single
+	 *  statement. Missing {@link Token}s are created, and connections that already exist keep their
+	 *  current weight.
+	 *
+	 * @param rows rows with keys input_value, output_value and weight
+	 *
+	 * @return {@link List} of {@link TokenPairWeight}s with the weight stored for each pair
+	 */
+	@Query("UNWIND $rows AS row " +
+			"MERGE (f_in:Token{value:row.input_value}) " +
+			"MERGE (f_out:Token{value:row.output_value}) " +
+			"MERGE (f_in)-[r:HAS_RELATED_TOKEN]->(f_out) " +
+			"ON CREATE SET r.weight = row.weight " +
+			"RETURN f_in.value AS input_value, f_out.value AS output_value, r.weight AS weight")
+	public List<TokenPairWeight> mergeWeightedConnections(@Param("rows") List<Map<String, Object>> rows);
+
+	/**
+	 * Creates a {@linkplain TokenWeight weighted} connection between two tokens, creating either
+	 *  token if it does not exist. An existing connection keeps its current weight.
 	 *
 	 * @param input_value
 	 * @param output_value
 	 * @param weight
 	 */
-	@Query("MATCH (f_in:Token),(f_out:Token)" +
-			"WHERE f_in.value = {input_value} AND f_out.value = {output_value}" +
-			"CREATE (f_in)-[r:HAS_RELATED_TOKEN{ weight: {weight}}]->(f_out)" +
-			"RETURN r ")
+	@Query("MERGE (f_in:Token{value:$input_value}) " +
+			"MERGE (f_out:Token{value:$output_value}) " +
+			"MERGE (f_in)-[r:HAS_RELATED_TOKEN]->(f_out) " +
+			"ON CREATE SET r.weight = $weight " +
+			"RETURN r")
 	public TokenWeight createWeightedConnection(@Param("input_value") String input_value,
 										        @Param("output_value") String output_value,
 										        @Param("weight") double weight);
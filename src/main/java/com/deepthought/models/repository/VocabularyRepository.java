@@ -3,6 +3,7 @@ package com.deepthought.models.repository;
 import java.util.List;
 import java.util.Optional;
 
+import org.springframework.data.neo4j.annotation.Depth;
 import org.springframework.data.neo4j.annotation.Query;
 import org.springframework.data.neo4j.repository.Neo4jRepository;
 import org.springframework.data.repository.query.Param;
@@ -13,6 +14,10 @@ import com.deepthought.models.Vocabulary;
 /**
  * Repository interface for Vocabulary entities in Neo4j
  * Provides CRUD operations and custom queries for vocabulary management
+ *
+ * The words of a vocabulary are stored as (v:Vocabulary)-[:HAS_WORD]->(w:VocabularyWord{index, value})
+ * and are written through {@link #appendWords(String, int, List)} rather than by saving the entity.
+ * Derived finders load vocabularies at depth 0, so their words are not read with them.
  */
 @Repository
 public interface VocabularyRepository extends Neo4jRepository<Vocabulary, Long> {
@@ -23,6 +28,7 @@ public interface VocabularyRepository extends Neo4jRepository<Vocabulary, Long>
      * @param label The vocabulary label to search for
      * @return Optional containing the vocabulary if found
      */
+    @Depth(0)
     Optional<Vocabulary> findByLabel(String label);
     
     /**
@@ -39,7 +45,7 @@ public interface VocabularyRepository extends Neo4jRepository<Vocabulary, Long>
      * @param word The word to search for
      * @return List of vocabularies containing the word
      */
-    @Query("MATCH (v:Vocabulary) WHERE $word IN v.valueList RETURN v")
+    @Query("MATCH (:VocabularyWord{value:$word})<-[:HAS_WORD]-(v:Vocabulary) RETURN DISTINCT v")
     List<Vocabulary> findByWord(@Param("word") String word);
     
     /**
@@ -48,6 +54,7 @@ public interface VocabularyRepository extends Neo4jRepository<Vocabulary, Long>
      * @param minSize The minimum size threshold
      * @return List of vocabularies meeting the size criteria
      */
+    @Depth(0)
     List<Vocabulary> findBySizeGreaterThan(int minSize);
     
     /**
@@ -57,6 +64,7 @@ public interface VocabularyRepository extends Neo4jRepository<Vocabulary, Long>
      * @param maxSize The maximum size
      * @return List of vocabularies within the size range
      */
+    @Depth(0)
     List<Vocabulary> findBySizeBetween(int minSize, int maxSize);
     
     /**
@@ -65,6 +73,7 @@ public interface VocabularyRepository extends Neo4jRepository<Vocabulary, Long>
      * @param pattern The pattern to match (can include wildcards)
      * @return List of vocabularies matching the pattern
      */
+    @AllowLabelScan
     @Query("MATCH (v:Vocabulary) WHERE toLower(v.label) CONTAINS toLower($pattern) RETURN v")
     List<Vocabulary> findByLabelContainingIgnoreCase(@Param("pattern") String pattern);
     
@@ -81,6 +90,7 @@ public interface VocabularyRepository extends Neo4jRepository<Vocabulary, Long>
      * 
      * @return The average vocabulary size
      */
+    @AllowLabelScan
     @Query("MATCH (v:Vocabulary) RETURN avg(v.size)")
     double getAverageVocabularySize();
     
@@ -89,6 +99,7 @@ public interface VocabularyRepository extends Neo4jRepository<Vocabulary, Long>
      * 
      * @return Optional containing the largest vocabulary
      */
+    @AllowLabelScan
     @Query("MATCH (v:Vocabulary) RETURN v ORDER BY v.size DESC LIMIT 1")
     Optional<Vocabulary> findLargestVocabulary();
     
@@ -100,11 +111,11 @@ public interface VocabularyRepository extends Neo4jRepository<Vocabulary, Long>
      * @param minSharedWords The minimum number of shared words
      * @return List of similar vocabularies
      */
-    @Query("MATCH (v1:Vocabulary) WHERE id(v1) = $vocabularyId " +
-           "MATCH (v2:Vocabulary) WHERE id(v2) <> $vocabularyId " +
-           "WITH v1, v2, [word IN v1.valueList WHERE word IN v2.valueList] as shared " +
-           "WHERE size(shared) >= $minSharedWords " +
-           "RETURN v2 ORDER BY size(shared) DESC")
+    @Query("MATCH (v1:Vocabulary)-[:HAS_WORD]->(w1:VocabularyWord) WHERE id(v1) = $vocabularyId " +
+           "MATCH (w2:VocabularyWord{value:w1.value})<-[:HAS_WORD]-(v2:Vocabulary) WHERE id(v2) <> $vocabularyId " +
+           "WITH v2, count(*) AS shared " +
+           "WHERE shared >= $minSharedWords " +
+           "RETURN v2 ORDER BY shared DESC")
     List<Vocabulary> findSimilarVocabularies(@Param("vocabularyId") Long vocabularyId, 
                                            @Param("minSharedWords") int minSharedWords);
     
@@ -114,13 +125,86 @@ public interface VocabularyRepository extends Neo4jRepository<Vocabulary, Long>
      * @param maxSize The maximum size for deletion
      * @return Number of vocabularies deleted
      */
-    @Query("MATCH (v:Vocabulary) WHERE v.size < $maxSize DETACH DELETE v RETURN count(v)")
+    @AllowLabelScan
+    @Query("MATCH (v:Vocabulary) WHERE v.size < $maxSize " +
+           "OPTIONAL MATCH (v)-[:HAS_WORD]->(w:VocabularyWord) " +
+           "DETACH DELETE w " +
+           "WITH DISTINCT v " +
+           "DETACH DELETE v RETURN count(v)")
     long deleteSmallVocabularies(@Param("maxSize") int maxSize);
     
     /**
-     * Updates the size field for all vocabularies based on their valueList
+     * Updates the size field for all vocabularies based on their words
      * This is useful for data consistency after manual updates
      */
-    @Query("MATCH (v:Vocabulary) SET v.size = size(v.valueList)")
+    @AllowLabelScan
+    @Query("MATCH (v:Vocabulary) " +
+           "SET v.size = size([(v)-[:HAS_WORD]->(w:VocabularyWord) | w])")
     void updateAllSizes();
+
+    /**
+     * Creates a vocabulary with no words if none exists with the label
+     *
+     * @param label The vocabulary label
+     * @return The id of the vocabulary node
+     */
+    @Query("MERGE (v:Vocabulary{label:$label}) ON CREATE SET v.size = 0 RETURN id(v)")
+    Long createIfAbsent(@Param("label") String label);
+
+    /**
+     * Appends words to a vocabulary, creating one VocabularyWord node per word. Nothing is written
+     * unless the vocabulary currently holds exactly $start words. The vocabulary node is write
+     * locked before its size is read, so a concurrent append waits for this transaction and then
+     * sees the new size, and two writers cannot assign the same index.
+     *
+     * @param label The vocabulary label
+     * @param start The index of the first word, which must equal the current vocabulary size
+     * @param words The words to append, must not be empty
+     * @return The new vocabulary size, or null if the vocabulary does not hold $start words
+     */
+    @Query("MATCH (v:Vocabulary{label:$label}) " +
+           "SET v._LOCK_ = true REMOVE v._LOCK_ " +
+           "WITH v WHERE coalesce(v.size, 0) = $start " +
+           "UNWIND range(0, size($words) - 1) AS offset " +
+           "CREATE (v)-[:HAS_WORD]->(:VocabularyWord{index:$start + offset, value:$words[offset]}) " +
+           "WITH v, count(*) AS appended " +
+           "SET v.size = $start + appended " +
+           "RETURN v.size")
+    Integer appendWords(@Param("label") String label, @Param("start") int start, @Param("words") List<String> words);
+
+    /**
+     * Loads the first words of a vocabulary
+     *
+     * @param label The vocabulary label
+     * @param count The number of words to load, words at this index or later are not loaded
+     * @return The words in index order
+     */
+    @Query("MATCH (:Vocabulary{label:$label})-[:HAS_WORD]->(w:VocabularyWord) WHERE w.index < $count " +
+           "RETURN w.value ORDER BY w.index")
+    List<String> findWords(@Param("label") String label, @Param("count") int count);
+
+    /**
+     * Deletes every word of a vocabulary and resets its size
+     *
+     * @param label The vocabulary label
+     */
+    @Query("MATCH (v:Vocabulary{label:$label}) " +
+           "OPTIONAL MATCH (v)-[:HAS_WORD]->(w:VocabularyWord) " +
+           "DETACH DELETE w " +
+           "WITH DISTINCT v " +
+           "SET v.size = 0")
+    void deleteWords(@Param("label") String label);
+
+    /**
+     * Moves the words of a vocabulary that was saved with a valueList property to VocabularyWord
+     * nodes and removes the property. Vocabularies that have been moved already are not changed.
+     *
+     * @param label The vocabulary label
+     */
+    @Query("MATCH (v:Vocabulary{label:$label}) WHERE v.valueList IS NOT NULL " +
+           "FOREACH (idx IN range(0, size(v.valueList) - 1) | " +
+               "CREATE (v)-[:HAS_WORD]->(:VocabularyWord{index:idx, value:v.valueList[idx]})) " +
+           "SET v.size = size(v.valueList) " +
+           "REMOVE v.valueList")
+    void migrateValueList(@Param("label") String label);
 }
@@ -0,0 +1,106 @@
+package com.deepthought.models.services;
+
+import java.util.List;
+import java.util.Optional;
+
+import javax.annotation.PostConstruct;
+
+import org.neo4j.ogm.session.SessionFactory;
+import org.neo4j.ogm.session.event.Event;
+import org.neo4j.ogm.session.event.EventListenerAdapter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.deepthought.models.Vocabulary;
+import com.deepthought.models.repository.VocabularyRepository;
+
+/**
+ * Loads and saves {@link Vocabulary vocabularies} together with their words. Saving only writes the
+ *  words added since the vocabulary was loaded or last saved.
+ *
+ * The words are not mapped on the vocabulary entity, so saving a vocabulary with unsaved words through
+ *  the repository would silently drop them. Such saves are rejected with an {@link IllegalStateException}.
+ */
+@Service
+public class VocabularyService {
+	@Autowired
+	private VocabularyRepository vocabulary_repo;
+
+	@Autowired
+	private SessionFactory session_factory;
+
+	@PostConstruct
+	public void start() {
+		session_factory.register(new EventListenerAdapter() {
+			@Override
+			public void onPreSave(Event event) {
+				rejectUnsavedWords(event.getObject());
+			}
+		});
+	}
+
+	/**
+	 * @throws IllegalStateException if the entity is a vocabulary with words that saving the entity would drop
+	 */
+	static void rejectUnsavedWords(Object entity) {
+		if(entity instanceof Vocabulary && ((Vocabulary)entity).hasUnsavedWords()){
+			throw new IllegalStateException("Vocabulary " + ((Vocabulary)entity).getLabel()
+					+ " has unsaved words, save it with VocabularyService.save");
+		}
+	}
+
+	/**
+	 * Loads a vocabulary. Its words are read when they are first used, see
+	 *  {@link Vocabulary#loadWordsLazily(int, java.util.function.Supplier)}. Vocabularies that still
+	 *  store their words in a valueList property are moved to word nodes first.
+	 *
+	 * @param label vocabulary label
+	 *
+	 * @return vocabulary, or empty if no vocabulary has the label
+	 */
+	@Transactional
+	public Optional<Vocabulary> findByLabel(String label) {
+		vocabulary_repo.migrateValueList(label);
+		Optional<Vocabulary> vocabulary = vocabulary_repo.findByLabel(label);
+		if(vocabulary.isPresent()){
+			//only the words present at load time, later appends fail the size check when saving
+			int size = vocabulary.get().getSize();
+			vocabulary.get().loadWordsLazily(size, () -> vocabulary_repo.findWords(label, size));
+		}
+		return vocabulary;
+	}
+
+	/**
+	 * Appends the unsaved words of the vocabulary, creating the vocabulary if it does not exist. A
+	 *  vocabulary that was cleared or had its words replaced since it was loaded has all of its
+	 *  stored words replaced.
+	 *
+	 * @param vocabulary vocabulary to save
+	 *
+	 * @return the saved vocabulary
+	 *
+	 * @throws IllegalStateException if the stored vocabulary no longer has the size it was loaded with,
+	 * 			because another writer has added words to it
+	 */
+	@Transactional
+	public Vocabulary save(Vocabulary vocabulary) {
+		vocabulary.setId(vocabulary_repo.createIfAbsent(vocabulary.getLabel()));
+
+		int start = vocabulary.getSavedSize();
+		if(vocabulary.isCleared()){
+			vocabulary_repo.deleteWords(vocabulary.getLabel());
+			start = 0;
+		}
+
+		List<String> words = vocabulary.getUnsavedWords();
+		if(!words.isEmpty()){
+			Integer size = vocabulary_repo.appendWords(vocabulary.getLabel(), start, words);
+			if(size == null){
+				throw new IllegalStateException("Vocabulary " + vocabulary.getLabel() + " was modified since it was loaded");
+			}
+		}
+		vocabulary.markSaved(start + words.size());
+		return vocabulary;
+	}
+}
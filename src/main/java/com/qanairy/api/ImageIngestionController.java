@@ -2,7 +2,9 @@ package com.qanairy.api;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -20,6 +22,8 @@ import com.deepthought.models.edges.PartOf;
 import com.deepthought.models.repository.ImageMatrixNodeRepository;
 import com.deepthought.models.repository.PartOfRepository;
 import com.qanairy.api.dto.ImageIngestRequest;
+import com.qanairy.api.dto.ImageIngestStats;
+import com.qanairy.image.ImageBlobStore;
 import com.qanairy.image.ImageProcessingService;
 
 import io.swagger.v3.oas.annotations.Operation;
@@ -31,7 +35,9 @@ import io.swagger.v3.oas.annotations.responses.ApiResponses;
 /**
  * REST endpoints for image ingestion. Accepts base64-encoded images, creates
  * Neo4j nodes for the original and derived matrices (outline, PCA, B&W, cropped
- * objects), and links them via PART_OF relationships.
+ * objects), and links them via PART_OF relationships. Images whose encoded bytes
+ * were already ingested are answered with the existing nodes without processing.
+ * An original is only found by its source hash once all of its parts are saved.
  */
 @RestController
 @RequestMapping("/images")
@@ -48,6 +54,12 @@ public class ImageIngestionController {
 	@Autowired
 	private PartOfRepository part_of_repo;
 
+	@Autowired
+	private ImageBlobStore image_blob_store;
+
+	private final AtomicLong duplicates = new AtomicLong();
+	private final AtomicLong processed = new AtomicLong();
+
 	@Operation(summary = "Ingest image and create graph nodes", description = "Accepts a base64-encoded image, creates an original image node, and derived nodes (outline, PCA, black-and-white, cropped objects) with PART_OF relationships to the original.", tags = { "Image Ingestion" })
 	@ApiResponses(value = {
 			@ApiResponse(responseCode = "200", description = "Successfully ingested image", content = @Content(schema = @Schema(implementation = ImageMatrixNode.class))),
@@ -60,45 +72,39 @@ public class ImageIngestionController {
 			return ResponseEntity.badRequest().body("Missing or empty 'image' field in request body");
 		}
 		try {
-			int[][][] rgb = image_processing_service.decodeToRgbMatrix(request.getImage());
+			byte[] image_bytes = Base64.getDecoder().decode(request.getImage());
+			String source_hash = ImageBlobStore.hash(image_bytes);
+			ImageMatrixNode existing = image_matrix_repo.findOriginalBySourceHash(source_hash);
+			if (existing != null) {
+				return duplicate(existing, source_hash);
+			}
+
+			int[][][] rgb = image_processing_service.decodeToRgbMatrix(image_bytes);
 			int height = rgb.length;
 			int width = rgb[0].length;
 
+			//every node is built before anything is written, so failed processing leaves nothing behind
 			ImageMatrixNode original = new ImageMatrixNode(ImageMatrixNode.Type.ORIGINAL, width, height, rgb);
-			original = image_matrix_repo.save(original);
-
-			List<Long> created_ids = new ArrayList<>();
-			created_ids.add(original.getId());
-
-			int[][][] outline_rgb = image_processing_service.computeOutline(rgb);
-			ImageMatrixNode outline_node = new ImageMatrixNode(ImageMatrixNode.Type.OUTLINE, outline_rgb[0].length, outline_rgb.length, outline_rgb);
-			outline_node = image_matrix_repo.save(outline_node);
-			part_of_repo.save(new PartOf(outline_node, original));
-			created_ids.add(outline_node.getId());
-
-			int[][][] pca_rgb = image_processing_service.computePca(rgb);
-			ImageMatrixNode pca_node = new ImageMatrixNode(ImageMatrixNode.Type.PCA, pca_rgb[0].length, pca_rgb.length, pca_rgb);
-			pca_node = image_matrix_repo.save(pca_node);
-			part_of_repo.save(new PartOf(pca_node, original));
-			created_ids.add(pca_node.getId());
-
-			int[][][] bw_rgb = image_processing_service.computeBlackAndWhite(rgb);
-			ImageMatrixNode bw_node = new ImageMatrixNode(ImageMatrixNode.Type.BLACK_WHITE, bw_rgb[0].length, bw_rgb.length, bw_rgb);
-			bw_node = image_matrix_repo.save(bw_node);
-			part_of_repo.save(new PartOf(bw_node, original));
-			created_ids.add(bw_node.getId());
-
-			List<int[][][]> object_crops = image_processing_service.detectAndCropObjects(rgb);
-			for (int[][][] crop : object_crops) {
-				int cw = crop[0].length;
-				int ch = crop.length;
-				ImageMatrixNode obj_node = new ImageMatrixNode(ImageMatrixNode.Type.CROPPED_OBJECT, cw, ch, crop);
-				obj_node = image_matrix_repo.save(obj_node);
-				part_of_repo.save(new PartOf(obj_node, original));
-				created_ids.add(obj_node.getId());
+			List<ImageMatrixNode> parts = new ArrayList<>();
+			parts.add(derivedNode(ImageMatrixNode.Type.OUTLINE, image_processing_service.computeOutline(rgb)));
+			parts.add(derivedNode(ImageMatrixNode.Type.PCA, image_processing_service.computePca(rgb)));
+			parts.add(derivedNode(ImageMatrixNode.Type.BLACK_WHITE, image_processing_service.computeBlackAndWhite(rgb)));
+			for (int[][][] crop : image_processing_service.detectAndCropObjects(rgb)) {
+				parts.add(derivedNode(ImageMatrixNode.Type.CROPPED_OBJECT, crop));
 			}
 
-			log.info("Ingested image {}x{}, created {} nodes", width, height, created_ids.size());
+			try {
+				original = persist(original, parts, source_hash);
+			} catch (RuntimeException e) {
+				//the source hash is unique, so a concurrent ingest of the same image may have claimed it first
+				ImageMatrixNode concurrent = image_matrix_repo.findOriginalBySourceHash(source_hash);
+				if (concurrent == null) {
+					throw e;
+				}
+				return duplicate(concurrent, source_hash);
+			}
+			processed.incrementAndGet();
+			log.info("Ingested image {}x{}, created {} nodes", width, height, parts.size() + 1);
 			return ResponseEntity.ok(original);
 		} catch (IllegalArgumentException e) {
 			log.warn("Invalid image request: {}", e.getMessage());
@@ -111,4 +117,88 @@ public class ImageIngestionController {
 			return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Processing error: " + e.getMessage());
 		}
 	}
+
+	/**
+	 * Retrieves the number of ingested images that were duplicates of an earlier image
+	 *
+	 * @return {@link ImageIngestStats} snapshot
+	 */
+	@Operation(summary = "Returns image ingestion statistics", description = "Counts ingested images that matched a previously ingested image and images that were processed.", tags = { "Image Ingestion" })
+	@RequestMapping(value = "/ingest/stats", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+	public ImageIngestStats ingestStats() {
+		return new ImageIngestStats(duplicates.get(), processed.get());
+	}
+
+	/**
+	 * Saves the original, its parts and their PART_OF relationships, then marks the original with the
+	 *  source hash. The hash is written last, so a resubmission never finds an original whose ingest
+	 *  failed part way. If anything fails, including the hash already being held by another original,
+	 *  the nodes written so far are deleted before the exception is rethrown.
+	 *
+	 * @param original unsaved original node
+	 * @param parts unsaved derived nodes, replaced by their saved instances
+	 * @param source_hash SHA-256 of the encoded image
+	 *
+	 * @return the saved original
+	 */
+	private ImageMatrixNode persist(ImageMatrixNode original, List<ImageMatrixNode> parts, String source_hash) {
+		List<Long> created_ids = new ArrayList<>();
+		try {
+			original = saveNode(original);
+			created_ids.add(original.getId());
+			for (int idx = 0; idx < parts.size(); idx++) {
+				ImageMatrixNode part = saveNode(parts.get(idx));
+				created_ids.add(part.getId());
+				parts.set(idx, part);
+				part_of_repo.save(new PartOf(part, original));
+			}
+			image_matrix_repo.setSourceHash(original.getId(), source_hash);
+		} catch (RuntimeException e) {
+			deleteCreated(created_ids);
+			throw e;
+		}
+
+		original.setSourceHash(source_hash);
+		original.setParts(parts);
+		return original;
+	}
+
+	/**
+	 * Answers with an original that was already ingested, attaching the stored pixels of it and its parts
+	 */
+	private ResponseEntity<?> duplicate(ImageMatrixNode existing, String source_hash) {
+		image_blob_store.attach(existing);
+		existing.setParts(image_blob_store.attachAll(image_matrix_repo.findParts(existing.getId())));
+		duplicates.incrementAndGet();
+		log.debug("Image {} was already ingested as node {}", source_hash, existing.getId());
+		return ResponseEntity.ok(existing);
+	}
+
+	/**
+	 * Deletes the nodes of a failed ingest. A failure here is logged so that the original error is reported.
+	 */
+	private void deleteCreated(List<Long> created_ids) {
+		if (created_ids.isEmpty()) {
+			return;
+		}
+		try {
+			image_matrix_repo.deleteByIds(created_ids);
+		} catch (RuntimeException e) {
+			log.error("Failed to delete nodes {} of a failed image ingest: {}", created_ids, e.getMessage());
+		}
+	}
+
+	private static ImageMatrixNode derivedNode(ImageMatrixNode.Type type, int[][][] rgb) {
+		return new ImageMatrixNode(type, rgb[0].length, rgb.length, rgb);
+	}
+
+	/**
+	 * Saves the node, moving its pixels into the {@link ImageBlobStore} first when the store is enabled
+	 */
+	private ImageMatrixNode saveNode(ImageMatrixNode node) {
+		if (image_blob_store.isEnabled()) {
+			image_blob_store.externalize(node);
+		}
+		return image_matrix_repo.save(node);
+	}
 }
@@ -0,0 +1,32 @@
+package com.qanairy.api.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.swagger.v3.oas.annotations.media.ArraySchema;
+import io.swagger.v3.oas.annotations.media.Schema;
+
+/**
+ * Request body for the batch learn endpoint. Feedback is applied in the order it is listed.
+ */
+public class BatchLearnRequest {
+
+	@ArraySchema(schema = @Schema(implementation = LearnFeedback.class, required = true))
+	private List<LearnFeedback> feedback;
+
+	public BatchLearnRequest() {
+		this.feedback = new ArrayList<>();
+	}
+
+	public BatchLearnRequest(List<LearnFeedback> feedback) {
+		this.feedback = feedback;
+	}
+
+	public List<LearnFeedback> getFeedback() {
+		return feedback;
+	}
+
+	public void setFeedback(List<LearnFeedback> feedback) {
+		this.feedback = feedback;
+	}
+}
@@ -0,0 +1,35 @@
+package com.qanairy.api.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+/**
+ * Point in time snapshot of image ingestion counters. A duplicate is an ingested image whose encoded
+ * bytes match an image that was already ingested.
+ */
+public class ImageIngestStats {
+
+	@Schema(description = "Number of ingested images that matched a previously ingested image", example = "42")
+	private final long duplicates;
+
+	@Schema(description = "Number of ingested images that were processed", example = "58")
+	private final long processed;
+
+	public ImageIngestStats(long duplicates, long processed) {
+		this.duplicates = duplicates;
+		this.processed = processed;
+	}
+
+	public long getDuplicates() {
+		return duplicates;
+	}
+
+	public long getProcessed() {
+		return processed;
+	}
+
+	@Schema(description = "Fraction of ingested images that were duplicates", example = "0.42")
+	public double getDuplicateRate() {
+		long total = duplicates + processed;
+		return total == 0 ? 0.0 : (double) duplicates / total;
+	}
+}
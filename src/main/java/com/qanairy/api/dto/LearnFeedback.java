@@ -0,0 +1,44 @@
+package com.qanairy.api.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+/**
+ * Single piece of learning feedback. Labels a previously persisted memory with the token value that
+ *  should have been predicted.
+ */
+public class LearnFeedback {
+
+	@Schema(description = "Unique identifier for specific memory", example = "12345", required = true)
+	@JsonProperty("memory_id")
+	private Long memory_id;
+
+	@Schema(description = "Value of token that you want to label memory with and learn from", example = "VERB", required = true)
+	@JsonProperty("token_value")
+	private String token_value;
+
+	public LearnFeedback() {
+	}
+
+	public LearnFeedback(Long memory_id, String token_value) {
+		this.memory_id = memory_id;
+		this.token_value = token_value;
+	}
+
+	public Long getMemoryId() {
+		return memory_id;
+	}
+
+	public void setMemoryId(Long memory_id) {
+		this.memory_id = memory_id;
+	}
+
+	public String getTokenValue() {
+		return token_value;
+	}
+
+	public void setTokenValue(String token_value) {
+		this.token_value = token_value;
+	}
+}
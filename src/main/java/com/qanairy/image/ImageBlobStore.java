@@ -0,0 +1,197 @@
+package com.qanairy.image;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.deepthought.models.ImageMatrixNode;
+
+/**
+ * Content-addressed store for image pixel blobs on the local file system. Blobs are keyed by the
+ * SHA-256 of their content and sharded into two levels of directories by the first four hex digits
+ * of the hash, e.g. {@code ab/cd/abcd...}. Writes go to a temporary file that is moved into place,
+ * so readers never observe a partially written blob, and reads memory-map the blob instead of
+ * copying it onto the heap.
+ */
+@Component
+public class ImageBlobStore {
+
+	private static final Logger log = LoggerFactory.getLogger(ImageBlobStore.class);
+
+	private static final Pattern HASH_PATTERN = Pattern.compile("[0-9a-f]{64}");
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final boolean enabled;
+	private final Path root;
+
+	@Autowired
+	public ImageBlobStore(@Value("${deepthought.image.blob-store.enabled:false}") boolean enabled,
+						  @Value("${deepthought.image.blob-store.directory:data/image-blobs}") String directory) {
+		this.enabled = enabled;
+		this.root = Paths.get(directory).toAbsolutePath().normalize();
+	}
+
+	/**
+	 * @return true if image nodes should keep their pixels in this store
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Stores the blob if a blob with the same content is not already present
+	 *
+	 * @param content blob content
+	 *
+	 * @return hex encoded SHA-256 of the content
+	 */
+	public String write(byte[] content) {
+		String hash = hash(content);
+		Path target = pathOf(hash);
+		if (Files.exists(target)) {
+			return hash;
+		}
+
+		try {
+			Files.createDirectories(target.getParent());
+			Path temp = Files.createTempFile(target.getParent(), hash, ".tmp");
+			try {
+				try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+					ByteBuffer buffer = ByteBuffer.wrap(content);
+					while (buffer.hasRemaining()) {
+						channel.write(buffer);
+					}
+					channel.force(true);
+				}
+				moveIntoPlace(temp, target);
+			} finally {
+				Files.deleteIfExists(temp);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to write image blob " + hash, e);
+		}
+		return hash;
+	}
+
+	/**
+	 * Memory-maps a stored blob
+	 *
+	 * @param hash hex encoded SHA-256 of the blob
+	 *
+	 * @return read-only buffer over the blob content
+	 */
+	public ByteBuffer map(String hash) {
+		Path path = pathOf(hash);
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to read image blob " + hash, e);
+		}
+	}
+
+	public boolean contains(String hash) {
+		return Files.exists(pathOf(hash));
+	}
+
+	/**
+	 * Moves the pixels of the node into the store. The node keeps only the content hash, dimensions
+	 * and type once saved.
+	 *
+	 * @param node node whose pixels to store
+	 */
+	public void externalize(ImageMatrixNode node) {
+		byte[] pixels = node.getPackedPixels();
+		if (pixels == null) {
+			return;
+		}
+		node.externalizePixels(write(pixels));
+	}
+
+	/**
+	 * Attaches the memory-mapped pixels of a node that references its pixels by hash
+	 *
+	 * @param node node loaded from the graph
+	 *
+	 * @return the given node
+	 */
+	public ImageMatrixNode attach(ImageMatrixNode node) {
+		if (node.isPixelsDetached()) {
+			node.attachPixels(map(node.getPixelHash()));
+		}
+		return node;
+	}
+
+	/**
+	 * Attaches the memory-mapped pixels of every node in the list that references its pixels by hash
+	 *
+	 * @param nodes nodes loaded from the graph
+	 *
+	 * @return the given list
+	 */
+	public List<ImageMatrixNode> attachAll(List<ImageMatrixNode> nodes) {
+		for (ImageMatrixNode node : nodes) {
+			attach(node);
+		}
+		return nodes;
+	}
+
+	/**
+	 * Resolves the path of a blob, rejecting anything that is not a hex encoded SHA-256
+	 */
+	Path pathOf(String hash) {
+		if (hash == null || !HASH_PATTERN.matcher(hash).matches()) {
+			throw new IllegalArgumentException("Invalid image blob hash " + hash);
+		}
+		return root.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash);
+	}
+
+	/**
+	 * Computes the hex encoded SHA-256 of the content
+	 */
+	public static String hash(byte[] content) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+			char[] hex = new char[digest.length * 2];
+			for (int i = 0; i < digest.length; i++) {
+				hex[i * 2] = HEX[(digest[i] >> 4) & 0xF];
+				hex[i * 2 + 1] = HEX[digest[i] & 0xF];
+			}
+			return new String(hex);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not available", e);
+		}
+	}
+
+	private static void moveIntoPlace(Path temp, Path target) throws IOException {
+		try {
+			Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+		} catch (FileAlreadyExistsException e) {
+			//another writer stored the same content first
+		} catch (AtomicMoveNotSupportedException e) {
+			log.warn("Atomic moves are not supported for {}, falling back to a plain move", target);
+			try {
+				Files.move(temp, target);
+			} catch (FileAlreadyExistsException already_exists) {
+				//another writer stored the same content first
+			}
+		}
+	}
+}
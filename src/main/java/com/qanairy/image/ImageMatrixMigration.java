@@ -0,0 +1,84 @@
+package com.qanairy.image;
+
+import java.util.List;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.deepthought.models.ImageMatrixNode;
+import com.deepthought.models.repository.ImageMatrixNodeRepository;
+
+/**
+ * One-off migration of {@link ImageMatrixNode}s whose pixels are still stored in the legacy JSON
+ * form. Runs on startup and pages through the legacy nodes in id order, converting each to packed
+ * pixels, or to a blob when the {@link ImageBlobStore} is enabled, and saving it. Saved nodes no
+ * longer match the legacy query, so the migration does nothing once every node has been converted.
+ *
+ * A node that cannot be converted, for example because its JSON is malformed, is logged and left
+ * as it is; it is tried again on the next startup.
+ */
+@Component
+public class ImageMatrixMigration {
+
+	private static final Logger log = LoggerFactory.getLogger(ImageMatrixMigration.class);
+
+	@Autowired
+	private ImageMatrixNodeRepository image_matrix_repo;
+
+	@Autowired
+	private ImageBlobStore image_blob_store;
+
+	@Value("${deepthought.image.migration.enabled:true}")
+	private boolean enabled;
+
+	@Value("${deepthought.image.migration.batch-size:100}")
+	private int batch_size;
+
+	@PostConstruct
+	public void start() {
+		if (!enabled) {
+			return;
+		}
+		migrate();
+	}
+
+	/**
+	 * Converts and saves every node that still holds legacy JSON pixels
+	 *
+	 * @return number of migrated nodes
+	 */
+	public int migrate() {
+		int migrated = 0;
+		int failed = 0;
+		long after_id = -1L;
+		List<ImageMatrixNode> nodes = image_matrix_repo.findLegacyMatrixNodes(after_id, batch_size);
+		while (!nodes.isEmpty()) {
+			for (ImageMatrixNode node : nodes) {
+				after_id = Math.max(after_id, node.getId());
+				try {
+					//reading the pixels converts them and clears the legacy JSON
+					node.getPackedPixels();
+					if (image_blob_store.isEnabled()) {
+						image_blob_store.externalize(node);
+					}
+					image_matrix_repo.save(node, 0);
+					migrated++;
+				} catch (RuntimeException e) {
+					failed++;
+					log.error("Failed to migrate the legacy pixels of image node {}. {}", node.getId(), e.getMessage());
+				}
+			}
+			nodes = image_matrix_repo.findLegacyMatrixNodes(after_id, batch_size);
+		}
+
+		if (migrated > 0 || failed > 0) {
+			log.info("migrated {} image nodes from legacy JSON pixels, {} failed", migrated, failed);
+		}
+		return migrated;
+	}
+}
@@ -55,7 +55,14 @@ public class ImageProcessingService {
 	 * Downscales if either dimension exceeds MAX_DIMENSION.
 	 */
 	public int[][][] decodeToRgbMatrix(String base64_image) throws IOException {
-		byte[] bytes = Base64.getDecoder().decode(base64_image);
+		return decodeToRgbMatrix(Base64.getDecoder().decode(base64_image));
+	}
+
+	/**
+	 * Decodes encoded image bytes into an RGB matrix (int[height][width][3]).
+	 * Downscales if either dimension exceeds MAX_DIMENSION.
+	 */
+	public int[][][] decodeToRgbMatrix(byte[] bytes) throws IOException {
 		if (bytes == null || bytes.length == 0) {
 			throw new IllegalArgumentException("Invalid or empty base64 image data");
 		}
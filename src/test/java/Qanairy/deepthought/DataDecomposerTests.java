@@ -3,10 +3,12 @@ package Qanairy.deepthought;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertTrue;
 
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
 
 import Qanairy.deepthought.resourceClasses.SelfContainedTestObject;
@@ -16,6 +18,8 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.testng.annotations.Test;
 
+import com.fasterxml.jackson.core.JsonParseException;
+
 import com.deepthought.models.Token;
 import com.qanairy.db.DataDecomposer;
 
@@ -94,4 +98,141 @@ public class DataDecomposerTests {
 		assertTrue(values.contains("gamma"));
 		assertTrue(values.contains("delta"));
 	}
+
+	@Test
+	public void decomposeJsonEmitsValuesAtAnyDepth() throws IOException {
+		List<Token> output = DataDecomposer.decomposeJson(
+				"{\"title\":\"hello world\",\"obj\":{\"inner\":{\"k\":\"deep\"}},\"items\":[\"alpha\",{\"k\":\"delta\"},[3,true]]}");
+		List<String> values = output.stream().map(Token::getValue).collect(Collectors.toList());
+
+		assertEquals(values, Arrays.asList("hello", "world", "deep", "alpha", "delta", "3", "true"));
+	}
+
+	@Test
+	public void decomposeJsonAcceptsSingleQuotes() throws IOException {
+		List<Token> output = DataDecomposer.decomposeJson("{'field_1':{'field_2':'hello'}}");
+
+		assertEquals(output.size(), 1);
+		assertEquals(output.get(0).getValue(), "hello");
+	}
+
+	@Test(expectedExceptions = JsonParseException.class)
+	public void decomposeJsonRejectsPlainText() throws IOException {
+		DataDecomposer.decomposeJson("hello world");
+	}
+
+	@Test(expectedExceptions = JsonParseException.class)
+	public void decomposeJsonRejectsTruncatedObject() throws IOException {
+		DataDecomposer.decomposeJson("{\"a\":{\"b\":\"c\"}");
+	}
+
+	@Test
+	public void decomposeJsonInParallelKeepsDocumentOrder() throws IOException {
+		StringBuilder json = new StringBuilder("{\"title\":\"large document\",\"items\":[");
+		for(int i = 0; i < 1000; i++){
+			json.append(i > 0 ? "," : "").append("{\"text\":\"word").append(i).append(" next").append(i).append("\"}");
+		}
+		json.append("],\"end\":true}");
+
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			List<String> expected = DataDecomposer.decomposeJson(json.toString()).stream().map(Token::getValue).collect(Collectors.toList());
+			List<String> parallel = DataDecomposer.decomposeJson(json.toString(), pool, 7).stream().map(Token::getValue).collect(Collectors.toList());
+			List<String> single_task = DataDecomposer.decomposeJson(json.toString(), pool, 5000).stream().map(Token::getValue).collect(Collectors.toList());
+
+			assertEquals(expected.size(), 2003);
+			assertEquals(parallel, expected);
+			assertEquals(single_task, expected);
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void decomposeJsonInParallelKeepsOrderAroundFirstTask() throws IOException {
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			for(String json : new String[]{ "{\"a\":\"one two\",\"b\":\"three\"}", "{\"a\":\"one two\",\"b\":\"three\",\"c\":[\"four\",5]}" }){
+				List<String> expected = DataDecomposer.decomposeJson(json).stream().map(Token::getValue).collect(Collectors.toList());
+				List<String> parallel = DataDecomposer.decomposeJson(json, pool, 2).stream().map(Token::getValue).collect(Collectors.toList());
+				assertEquals(parallel, expected);
+			}
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void decomposeJsonInParallelMatchesRelaxedSyntaxAndEscapes() throws IOException {
+		StringBuilder json = new StringBuilder("{title:'large \\'quoted\\' document', /* comment */ \"nested\":{\"rows\":[");
+		for(int i = 0; i < 200; i++){
+			json.append(i > 0 ? ", " : "").append("[\"tab\\tseparated").append(i).append("\", ").append(i).append(", null, {\"k\":\"\\u0041").append(i).append("\"}]");
+		}
+		json.append("] // trailing comment\n}, \"end\":false}");
+
+		ForkJoinPool pool = new ForkJoinPool(3);
+		try {
+			List<String> expected = DataDecomposer.decomposeJson(json.toString()).stream().map(Token::getValue).collect(Collectors.toList());
+			for(int chars_per_task : new int[]{ 1, 16, 100, 1000 }){
+				List<String> parallel = DataDecomposer.decomposeJson(json.toString(), pool, chars_per_task).stream().map(Token::getValue).collect(Collectors.toList());
+				assertEquals(parallel, expected);
+			}
+			assertTrue(expected.contains("A17"));
+			assertTrue(expected.contains("separated17"));
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void decomposeJsonInParallelRejectsMalformedDocuments() throws IOException {
+		String[] malformed = {
+			"{\"items\":[\"one\" \"two\", \"three\"]}",
+			"{\"items\":[\"one\", \"two\",], \"x\":1}",
+			"{\"items\":[\"one\", \"two\"], \"x\" 1}",
+			"{\"items\":[\"one\", tru, \"three\"]}",
+			"{\"items\":[\"one\", \"two\", \"three\"}"
+		};
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			for(String json : malformed){
+				try {
+					DataDecomposer.decomposeJson(json, pool, 4);
+					throw new AssertionError("Expected a parse error for "+json);
+				}
+				catch(JsonParseException e) {
+				}
+			}
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void decomposeObjectReadsPublicFields() throws IllegalArgumentException, IllegalAccessException {
+		FieldsObject obj = new FieldsObject();
+		obj.title = "hello world";
+		obj.count = 3;
+		obj.tags = new String[]{"alpha", "beta"};
+		obj.value = new String[]{"gamma"};
+
+		List<String> first = DataDecomposer.decompose((Object)obj).stream().map(Token::getValue).collect(Collectors.toList());
+		List<String> second = DataDecomposer.decompose((Object)obj).stream().map(Token::getValue).collect(Collectors.toList());
+
+		assertEquals(first.size(), 6);
+		assertTrue(first.containsAll(Arrays.asList("hello", "world", "3", "alpha", "beta", "gamma")));
+		assertEquals(second, first);
+	}
+
+	public static class FieldsObject {
+		public String title;
+		public int count;
+		public String[] tags;
+		public Object value;
+		public String missing;
+	}
 }
@@ -110,4 +110,86 @@ public class ImageMatrixNodeTests {
 		assertNotNull(result);
 		assertEquals(result.length, 0);
 	}
+
+	@Test
+	public void setRgbMatrix_packsInterleavedBytes() {
+		int[][][] rgb = new int[][][] { { { 255, 0, 10 }, { 1, 2, 3 } } };
+		ImageMatrixNode node = new ImageMatrixNode(ImageMatrixNode.Type.ORIGINAL, 2, 1, rgb);
+		byte[] packed = node.getPackedPixels();
+		assertEquals(packed.length, 6);
+		assertEquals(packed[0] & 0xFF, 255);
+		assertEquals(packed[5] & 0xFF, 3);
+		assertEquals(node.getChannels(), 3);
+	}
+
+	@Test
+	public void getPixel_readsPackedChannel() {
+		int[][][] rgb = new int[2][2][3];
+		rgb[1][0] = new int[] { 7, 200, 9 };
+		ImageMatrixNode node = new ImageMatrixNode(ImageMatrixNode.Type.ORIGINAL, 2, 2, rgb);
+		assertEquals(node.getPixel(0, 1, 1), 200);
+		assertEquals(node.getPixel(1, 1, 2), 0);
+	}
+
+	@Test(expectedExceptions = IndexOutOfBoundsException.class)
+	public void getPixel_rejectsOutOfBoundsCoordinates() {
+		ImageMatrixNode node = new ImageMatrixNode(ImageMatrixNode.Type.ORIGINAL, 1, 1, new int[][][] { { { 1, 2, 3 } } });
+		node.getPixel(1, 0, 0);
+	}
+
+	@Test
+	public void legacyJsonMatrix_isMigratedOnRead() throws Exception {
+		ImageMatrixNode node = new ImageMatrixNode();
+		node.setWidth(2);
+		node.setHeight(1);
+		java.lang.reflect.Field json = ImageMatrixNode.class.getDeclaredField("rgb_matrix_json");
+		json.setAccessible(true);
+		json.set(node, "[[[10,20,30],[40,50,60]]]");
+
+		assertEquals(node.getPixel(1, 0, 2), 60);
+		assertEquals(node.getRgbMatrix()[0][0][1], 20);
+		assertNull(json.get(node));
+		assertEquals(node.getPackedPixels().length, 6);
+	}
+
+	@Test
+	public void setRgbMatrix_rejectsRaggedRows() {
+		ImageMatrixNode node = new ImageMatrixNode();
+		try {
+			node.setRgbMatrix(new int[][][] { { { 1, 2, 3 }, { 4, 5, 6 } }, { { 7, 8, 9 } } });
+			fail("Expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage().contains("Row 1"));
+		}
+		assertNull(node.getPackedPixels());
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void setRgbMatrix_rejectsPixelsWithDifferentChannelCounts() {
+		new ImageMatrixNode().setRgbMatrix(new int[][][] { { { 1, 2, 3 }, { 4, 5 } } });
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void constructor_rejectsDimensionsThatDoNotMatchMatrix() {
+		new ImageMatrixNode(ImageMatrixNode.Type.ORIGINAL, 3, 1, new int[1][2][3]);
+	}
+
+	@Test
+	public void legacyJsonMatrix_padsRaggedRows() throws Exception {
+		ImageMatrixNode node = new ImageMatrixNode();
+		java.lang.reflect.Field json = ImageMatrixNode.class.getDeclaredField("rgb_matrix_json");
+		json.setAccessible(true);
+		json.set(node, "[[[10,20,30],[40,50,60]],[[70,80,90]]]");
+
+		assertEquals(node.getWidth(), 0);
+		assertEquals(node.getPixel(0, 1, 0), 70);
+		assertEquals(node.getPixel(1, 1, 2), 0);
+		assertEquals(node.getWidth(), 2);
+		assertEquals(node.getHeight(), 2);
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void setPackedPixels_rejectsMismatchedLength() {
+		new ImageMatrixNode().setPackedPixels(2, 2, 3, new byte[5]);
+	}
 }
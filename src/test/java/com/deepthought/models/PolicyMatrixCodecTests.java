@@ -0,0 +1,100 @@
+package com.deepthought.models;
+
+import static org.testng.Assert.*;
+
+import java.lang.reflect.Field;
+
+import org.testng.annotations.Test;
+
+@Test(groups = "Regression")
+public class PolicyMatrixCodecTests {
+
+    @Test
+    public void float32_roundTripsWithinSinglePrecision() {
+        double[][] policy = new double[][] { { 0.1, 0.9, 0.333333 }, { 1.5, 0.0, 12345.678 } };
+
+        byte[] encoded = PolicyMatrixCodec.encode(policy, PolicyMatrixCodec.Encoding.FLOAT32);
+        double[][] decoded = PolicyMatrixCodec.decode(encoded);
+
+        assertEquals(encoded.length, PolicyMatrixCodec.HEADER_BYTES + 6 * 4);
+        assertEquals(decoded.length, 2);
+        assertEquals(decoded[1].length, 3);
+        for (int row = 0; row < policy.length; row++) {
+            for (int column = 0; column < policy[row].length; column++) {
+                assertEquals(decoded[row][column], (float) policy[row][column], 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void float16_roundTripsWithinHalfPrecision() {
+        double[][] policy = new double[][] { { 0.1, 0.9 }, { 0.5, 2.75 } };
+
+        byte[] encoded = PolicyMatrixCodec.encode(policy, PolicyMatrixCodec.Encoding.FLOAT16);
+        double[][] decoded = PolicyMatrixCodec.decode(encoded);
+
+        assertEquals(encoded.length, PolicyMatrixCodec.HEADER_BYTES + 4 * 2);
+        assertEquals(decoded[0][0], 0.1, 0.0001);
+        assertEquals(decoded[0][1], 0.9, 0.0005);
+        assertEquals(decoded[1][0], 0.5, 0.0);
+        assertEquals(decoded[1][1], 2.75, 0.0);
+    }
+
+    @Test
+    public void halfConversion_handlesSpecialValues() {
+        assertEquals(PolicyMatrixCodec.halfToFloat(PolicyMatrixCodec.floatToHalf(0.0f)), 0.0f, 0.0f);
+        assertEquals(PolicyMatrixCodec.halfToFloat(PolicyMatrixCodec.floatToHalf(65504.0f)), 65504.0f, 0.0f);
+        assertTrue(Float.isInfinite(PolicyMatrixCodec.halfToFloat(PolicyMatrixCodec.floatToHalf(1.0e6f))));
+        assertTrue(Float.isNaN(PolicyMatrixCodec.halfToFloat(PolicyMatrixCodec.floatToHalf(Float.NaN))));
+        assertEquals(PolicyMatrixCodec.halfToFloat(PolicyMatrixCodec.floatToHalf(-0x1.0p-24f)), -0x1.0p-24f, 0.0f);
+        assertEquals(PolicyMatrixCodec.halfToFloat(PolicyMatrixCodec.floatToHalf(1.0e-9f)), 0.0f, 0.0f);
+    }
+
+    @Test
+    public void emptyPolicy_roundTrips() {
+        double[][] decoded = PolicyMatrixCodec.decode(PolicyMatrixCodec.encode(new double[0][0], PolicyMatrixCodec.Encoding.FLOAT32));
+        assertEquals(decoded.length, 0);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void decode_rejectsUnknownVersion() {
+        byte[] encoded = PolicyMatrixCodec.encode(new double[][] { { 1.0 } }, PolicyMatrixCodec.Encoding.FLOAT32);
+        encoded[0] = 99;
+        PolicyMatrixCodec.decode(encoded);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void decode_rejectsTruncatedData() {
+        byte[] encoded = PolicyMatrixCodec.encode(new double[][] { { 1.0, 2.0 } }, PolicyMatrixCodec.Encoding.FLOAT32);
+        byte[] truncated = new byte[encoded.length - 1];
+        System.arraycopy(encoded, 0, truncated, 0, truncated.length);
+        PolicyMatrixCodec.decode(truncated);
+    }
+
+    @Test
+    public void memoryRecord_readsLegacyJsonPolicy() throws Exception {
+        MemoryRecord record = new MemoryRecord();
+        Field json = MemoryRecord.class.getDeclaredField("policy_matrix_json");
+        json.setAccessible(true);
+        json.set(record, "[[0.25,0.75]]");
+
+        assertEquals(record.getPolicyMatrix()[0][1], 0.75, 0.0);
+        assertNull(record.getEncodedPolicyMatrix());
+    }
+
+    @Test
+    public void memoryRecord_decodesStoredPolicyOnce() throws Exception {
+        MemoryRecord stored = new MemoryRecord();
+        stored.setPolicyMatrix(new double[][] { { 0.5, 0.25 } }, PolicyMatrixCodec.Encoding.FLOAT16);
+
+        //simulate a memory loaded from the graph, which only has the encoded property
+        MemoryRecord loaded = new MemoryRecord();
+        Field encoded = MemoryRecord.class.getDeclaredField("policy_matrix");
+        encoded.setAccessible(true);
+        encoded.set(loaded, stored.getEncodedPolicyMatrix());
+
+        double[][] policy = loaded.getPolicyMatrix();
+        assertEquals(policy[0][1], 0.25, 0.0);
+        assertSame(loaded.getPolicyMatrix(), policy);
+    }
+}
@@ -324,4 +324,58 @@ public class VocabularyTests {
             }
         }
     }
+
+    @Test
+    public void testSetValueListBuildsMappingsOnLookup() {
+        vocabulary.setValueList(Arrays.asList("word1", "word2"));
+
+        assertEquals(2, vocabulary.size());
+        assertEquals(1, vocabulary.getIndex("word2"));
+        assertEquals(2, vocabulary.addWord("word3"));
+        assertEquals(0, vocabulary.addWord("word1"));
+    }
+
+    @Test
+    public void testGetUnsavedWords() {
+        vocabulary.setValueList(Arrays.asList("word1", "word2"));
+        vocabulary.markSaved(2);
+        assertTrue(vocabulary.getUnsavedWords().isEmpty());
+
+        vocabulary.addWord("word3");
+        vocabulary.addWord("word2");
+        assertEquals(Arrays.asList("word3"), vocabulary.getUnsavedWords());
+        assertEquals(2, vocabulary.getSavedSize());
+
+        vocabulary.markSaved(3);
+        assertTrue(vocabulary.getUnsavedWords().isEmpty());
+    }
+
+    @Test
+    public void testClearMarksWordsForReplacement() {
+        vocabulary.addWord("hello");
+        vocabulary.markSaved(1);
+
+        vocabulary.clear();
+        assertTrue(vocabulary.isCleared());
+        assertEquals(0, vocabulary.getSavedSize());
+
+        vocabulary.addWord("a");
+        vocabulary.addWord("b");
+        assertEquals(Arrays.asList("a", "b"), vocabulary.getUnsavedWords());
+
+        vocabulary.markSaved(2);
+        assertFalse(vocabulary.isCleared());
+        assertTrue(vocabulary.getUnsavedWords().isEmpty());
+    }
+
+    @Test
+    public void testClearThenReaddingSavedSizeWordsIsUnsaved() {
+        vocabulary.addWord("hello");
+        vocabulary.markSaved(1);
+
+        vocabulary.clear();
+        vocabulary.addWord("world");
+        assertTrue(vocabulary.isCleared());
+        assertEquals(Arrays.asList("world"), vocabulary.getUnsavedWords());
+    }
 }
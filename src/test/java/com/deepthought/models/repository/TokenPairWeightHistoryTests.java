@@ -0,0 +1,35 @@
+package com.deepthought.models.repository;
+
+import static org.testng.Assert.*;
+
+import java.util.Arrays;
+
+import org.testng.annotations.Test;
+
+@Test(groups = "Regression")
+public class TokenPairWeightHistoryTests {
+
+    private final TokenPairWeightHistory history = new TokenPairWeightHistory("in", "out", 0.9,
+            Arrays.asList(0.1, 0.4, 0.7), Arrays.asList(100L, 200L, 300L));
+
+    @Test
+    public void weightAt_returnsPriorWeightOfFirstLaterUpdate() {
+        assertEquals(history.weightAt(50L), 0.1, 0.0);
+        assertEquals(history.weightAt(100L), 0.4, 0.0);
+        assertEquals(history.weightAt(250L), 0.7, 0.0);
+    }
+
+    @Test
+    public void weightAt_returnsCurrentWeightWhenNotUpdatedSince() {
+        assertEquals(history.weightAt(300L), 0.9, 0.0);
+        assertEquals(history.weightAt(1000L), 0.9, 0.0);
+    }
+
+    @Test
+    public void weightAt_treatsMissingHistoryAsNoUpdates() {
+        TokenPairWeightHistory unchanged = new TokenPairWeightHistory("in", "out", 0.3, null, null);
+
+        assertEquals(unchanged.weightAt(0L), 0.3, 0.0);
+        assertTrue(unchanged.getPriorWeights().isEmpty());
+    }
+}
@@ -0,0 +1,205 @@
+package com.deepthought.models.services;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.Optional;
+
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.neo4j.ogm.session.SessionFactory;
+import org.neo4j.ogm.session.event.Event;
+import org.neo4j.ogm.session.event.EventListener;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.deepthought.models.Vocabulary;
+import com.deepthought.models.repository.VocabularyRepository;
+
+@Test(groups = "Regression")
+public class VocabularyServiceTests {
+
+	private VocabularyService service;
+	private VocabularyRepository vocabulary_repo;
+	private SessionFactory session_factory;
+
+	@BeforeMethod
+	public void setUp() throws Exception {
+		vocabulary_repo = mock(VocabularyRepository.class);
+		session_factory = mock(SessionFactory.class);
+		when(vocabulary_repo.createIfAbsent(anyString())).thenReturn(7L);
+
+		service = new VocabularyService();
+		setField("vocabulary_repo", vocabulary_repo);
+		setField("session_factory", session_factory);
+	}
+
+	@Test
+	public void findByLabel_migratesValueListBeforeLoading() {
+		when(vocabulary_repo.findByLabel("fruit")).thenReturn(Optional.of(stored("fruit", 0)));
+
+		service.findByLabel("fruit");
+
+		InOrder order = inOrder(vocabulary_repo);
+		order.verify(vocabulary_repo).migrateValueList("fruit");
+		order.verify(vocabulary_repo).findByLabel("fruit");
+	}
+
+	@Test
+	public void findByLabel_readsWordsOnFirstUse() {
+		when(vocabulary_repo.findByLabel("fruit")).thenReturn(Optional.of(stored("fruit", 2)));
+		when(vocabulary_repo.findWords("fruit", 2)).thenReturn(Arrays.asList("apple", "pear"));
+
+		Vocabulary vocabulary = service.findByLabel("fruit").get();
+
+		assertEquals(vocabulary.size(), 2);
+		verify(vocabulary_repo, never()).findWords(anyString(), anyInt());
+		assertEquals(vocabulary.getIndex("pear"), 1);
+		assertEquals(vocabulary.getWord(0), "apple");
+		verify(vocabulary_repo).findWords("fruit", 2);
+	}
+
+	@Test
+	public void findByLabel_returnsEmptyForUnknownLabel() {
+		when(vocabulary_repo.findByLabel("fruit")).thenReturn(Optional.<Vocabulary>empty());
+
+		assertFalse(service.findByLabel("fruit").isPresent());
+	}
+
+	@Test
+	public void words_failWhenStoredWordsNoLongerMatchLoadedSize() {
+		when(vocabulary_repo.findByLabel("fruit")).thenReturn(Optional.of(stored("fruit", 2)));
+		when(vocabulary_repo.findWords("fruit", 2)).thenReturn(Arrays.asList("apple"));
+		Vocabulary vocabulary = service.findByLabel("fruit").get();
+
+		try{
+			vocabulary.getWords();
+			fail("Expected the missing word to be reported");
+		}
+		catch(IllegalStateException e){
+			assertTrue(e.getMessage().contains("fruit"));
+		}
+	}
+
+	@Test
+	public void save_appendsOnlyWordsAddedSinceLoad() {
+		when(vocabulary_repo.findByLabel("fruit")).thenReturn(Optional.of(stored("fruit", 2)));
+		when(vocabulary_repo.findWords("fruit", 2)).thenReturn(Arrays.asList("apple", "pear"));
+		when(vocabulary_repo.appendWords("fruit", 2, Arrays.asList("plum"))).thenReturn(3);
+		Vocabulary vocabulary = service.findByLabel("fruit").get();
+		vocabulary.addWord("plum");
+
+		service.save(vocabulary);
+
+		verify(vocabulary_repo).appendWords("fruit", 2, Arrays.asList("plum"));
+		verify(vocabulary_repo, never()).deleteWords(anyString());
+		assertEquals(vocabulary.getSavedSize(), 3);
+		assertEquals(vocabulary.getId(), Long.valueOf(7L));
+		assertFalse(vocabulary.hasUnsavedWords());
+	}
+
+	@Test
+	public void save_writesNothingWhenNoWordsWereAdded() {
+		when(vocabulary_repo.findByLabel("fruit")).thenReturn(Optional.of(stored("fruit", 2)));
+		Vocabulary vocabulary = service.findByLabel("fruit").get();
+
+		service.save(vocabulary);
+
+		verify(vocabulary_repo, never()).appendWords(anyString(), anyInt(), any());
+		verify(vocabulary_repo, never()).findWords(anyString(), anyInt());
+		assertEquals(vocabulary.getSavedSize(), 2);
+	}
+
+	@Test
+	public void save_throwsWhenStoredSizeChangedSinceLoad() {
+		Vocabulary vocabulary = new Vocabulary("fruit");
+		vocabulary.addWord("apple");
+		when(vocabulary_repo.appendWords(eq("fruit"), eq(0), any())).thenReturn(null);
+
+		try{
+			service.save(vocabulary);
+			fail("Expected the concurrent append to be reported");
+		}
+		catch(IllegalStateException e){
+			assertTrue(e.getMessage().contains("fruit"));
+		}
+		assertEquals(vocabulary.getSavedSize(), 0);
+	}
+
+	@Test
+	public void save_replacesStoredWordsOfClearedVocabulary() {
+		when(vocabulary_repo.findByLabel("fruit")).thenReturn(Optional.of(stored("fruit", 2)));
+		when(vocabulary_repo.appendWords("fruit", 0, Arrays.asList("kiwi"))).thenReturn(1);
+		Vocabulary vocabulary = service.findByLabel("fruit").get();
+		vocabulary.clear();
+		vocabulary.addWord("kiwi");
+
+		service.save(vocabulary);
+
+		InOrder order = inOrder(vocabulary_repo);
+		order.verify(vocabulary_repo).deleteWords("fruit");
+		order.verify(vocabulary_repo).appendWords("fruit", 0, Arrays.asList("kiwi"));
+		assertEquals(vocabulary.getSavedSize(), 1);
+		verify(vocabulary_repo, never()).findWords(anyString(), anyInt());
+	}
+
+	@Test
+	public void repositorySave_isRejected_whenVocabularyHasUnsavedWords() {
+		service.start();
+		ArgumentCaptor<EventListener> listener = ArgumentCaptor.forClass(EventListener.class);
+		verify(session_factory).register(listener.capture());
+		Vocabulary vocabulary = new Vocabulary("fruit");
+		vocabulary.addWord("apple");
+		Event event = mock(Event.class);
+		when(event.getObject()).thenReturn(vocabulary);
+
+		try{
+			listener.getValue().onPreSave(event);
+			fail("Expected the save to be rejected");
+		}
+		catch(IllegalStateException e){
+			assertTrue(e.getMessage().contains("VocabularyService"));
+		}
+	}
+
+	@Test
+	public void rejectUnsavedWords_onlyRejectsVocabulariesWithUnpersistedChanges() {
+		Vocabulary cleared = new Vocabulary("fruit");
+		cleared.clear();
+
+		VocabularyService.rejectUnsavedWords(new Vocabulary("fruit"));
+		VocabularyService.rejectUnsavedWords("not a vocabulary");
+		try{
+			VocabularyService.rejectUnsavedWords(cleared);
+			fail("Expected the clear to need the service");
+		}
+		catch(IllegalStateException e){
+			//a clear is only persisted by the service
+		}
+	}
+
+	private static Vocabulary stored(String label, int size) {
+		Vocabulary vocabulary = new Vocabulary(label);
+		vocabulary.setSize(size);
+		return vocabulary;
+	}
+
+	private void setField(String name, Object value) throws Exception {
+		Field f = VocabularyService.class.getDeclaredField(name);
+		f.setAccessible(true);
+		f.set(service, value);
+	}
+}
@@ -1,8 +1,11 @@
 package com.qanairy.api;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -10,7 +13,9 @@ import static org.testng.Assert.*;
 
 import java.io.IOException;
 import java.lang.reflect.Field;
+import java.nio.file.Files;
 import java.util.Arrays;
+import java.util.Base64;
 import java.util.Collections;
 
 import org.springframework.http.ResponseEntity;
@@ -22,6 +27,8 @@ import com.deepthought.models.edges.PartOf;
 import com.deepthought.models.repository.ImageMatrixNodeRepository;
 import com.deepthought.models.repository.PartOfRepository;
 import com.qanairy.api.dto.ImageIngestRequest;
+import com.qanairy.api.dto.ImageIngestStats;
+import com.qanairy.image.ImageBlobStore;
 import com.qanairy.image.ImageProcessingService;
 
 /**
@@ -48,12 +55,13 @@ public class ImageIngestionControllerTests {
 		setField(controller, "image_processing_service", image_processing_service);
 		setField(controller, "image_matrix_repo", image_matrix_repo);
 		setField(controller, "part_of_repo", part_of_repo);
+		setField(controller, "image_blob_store", new ImageBlobStore(false, "target/image-blobs"));
 
 		int[][][] rgb = new int[1][1][3];
 		rgb[0][0][0] = 255;
 		rgb[0][0][1] = 0;
 		rgb[0][0][2] = 0;
-		when(image_processing_service.decodeToRgbMatrix(any())).thenReturn(rgb);
+		when(image_processing_service.decodeToRgbMatrix(any(byte[].class))).thenReturn(rgb);
 		when(image_processing_service.computeOutline(any())).thenReturn(rgb);
 		when(image_processing_service.computePca(any())).thenReturn(rgb);
 		when(image_processing_service.computeBlackAndWhite(any())).thenReturn(rgb);
@@ -68,6 +76,23 @@ public class ImageIngestionControllerTests {
 		});
 	}
 
+	/**
+	 * Stores the pixels and returns a node as loaded from the graph, which only has the hash and dimensions
+	 */
+	private static ImageMatrixNode loadedFromStore(ImageBlobStore store, int[][][] rgb) throws Exception {
+		ImageMatrixNode stored = new ImageMatrixNode(ImageMatrixNode.Type.ORIGINAL, rgb[0].length, rgb.length, rgb);
+		store.externalize(stored);
+		ImageMatrixNode loaded = new ImageMatrixNode();
+		loaded.setWidth(stored.getWidth());
+		loaded.setHeight(stored.getHeight());
+		for (String name : new String[] { "channels", "pixel_hash" }) {
+			Field f = ImageMatrixNode.class.getDeclaredField(name);
+			f.setAccessible(true);
+			f.set(loaded, f.get(stored));
+		}
+		return loaded;
+	}
+
 	private void setField(Object target, String name, Object value) throws Exception {
 		Field f = ImageIngestionController.class.getDeclaredField(name);
 		f.setAccessible(true);
@@ -105,6 +130,123 @@ public class ImageIngestionControllerTests {
 		verify(part_of_repo, times(5)).save(any(PartOf.class));
 	}
 
+	@Test
+	public void ingest_storesSourceHashAndReturnsParts_whenImageIsNew() {
+		ResponseEntity<?> response = controller.ingest(new ImageIngestRequest(TINY_BASE64_PNG));
+		ImageMatrixNode original = (ImageMatrixNode) response.getBody();
+		assertEquals(original.getSourceHash(), ImageBlobStore.hash(Base64.getDecoder().decode(TINY_BASE64_PNG)));
+		assertEquals(original.getParts().size(), 3);
+		verify(image_matrix_repo).findOriginalBySourceHash(original.getSourceHash());
+	}
+
+	@Test
+	public void ingest_returnsExistingNodesWithoutProcessing_whenImageAlreadyIngested() throws IOException {
+		String source_hash = ImageBlobStore.hash(Base64.getDecoder().decode(TINY_BASE64_PNG));
+		ImageMatrixNode existing = new ImageMatrixNode(ImageMatrixNode.Type.ORIGINAL, 1, 1, new int[1][1][3]);
+		existing.setId(7L);
+		existing.setSourceHash(source_hash);
+		ImageMatrixNode outline = new ImageMatrixNode(ImageMatrixNode.Type.OUTLINE, 1, 1, new int[1][1][3]);
+		when(image_matrix_repo.findOriginalBySourceHash(source_hash)).thenReturn(existing);
+		when(image_matrix_repo.findParts(7L)).thenReturn(Arrays.asList(outline));
+
+		ResponseEntity<?> response = controller.ingest(new ImageIngestRequest(TINY_BASE64_PNG));
+
+		assertEquals(response.getStatusCodeValue(), 200);
+		assertSame(response.getBody(), existing);
+		assertEquals(existing.getParts(), Arrays.asList(outline));
+		verify(image_processing_service, never()).decodeToRgbMatrix(any(byte[].class));
+		verify(image_matrix_repo, never()).save(any(ImageMatrixNode.class));
+		verify(part_of_repo, never()).save(any(PartOf.class));
+	}
+
+	@Test
+	public void ingest_attachesStoredPixelsOfExistingNodes_whenImageAlreadyIngested() throws Exception {
+		ImageBlobStore store = new ImageBlobStore(true, Files.createTempDirectory("image-blobs").toString());
+		setField(controller, "image_blob_store", store);
+		String source_hash = ImageBlobStore.hash(Base64.getDecoder().decode(TINY_BASE64_PNG));
+		ImageMatrixNode existing = loadedFromStore(store, new int[][][] { { { 9, 8, 7 } } });
+		existing.setId(7L);
+		existing.setSourceHash(source_hash);
+		ImageMatrixNode outline = loadedFromStore(store, new int[][][] { { { 1, 2, 3 } } });
+		assertTrue(existing.isPixelsDetached());
+		when(image_matrix_repo.findOriginalBySourceHash(source_hash)).thenReturn(existing);
+		when(image_matrix_repo.findParts(7L)).thenReturn(Arrays.asList(outline));
+
+		controller.ingest(new ImageIngestRequest(TINY_BASE64_PNG));
+
+		assertFalse(existing.isPixelsDetached());
+		assertEquals(existing.getPixel(0, 0, 0), 9);
+		assertFalse(outline.isPixelsDetached());
+		assertEquals(outline.getPixel(0, 0, 2), 3);
+	}
+
+	@Test
+	public void ingest_deletesPartialNodesAndAcceptsResubmission_whenPartCreationFails() {
+		String source_hash = ImageBlobStore.hash(Base64.getDecoder().decode(TINY_BASE64_PNG));
+		when(part_of_repo.save(any(PartOf.class)))
+				.thenThrow(new RuntimeException("Connection reset"))
+				.thenAnswer(inv -> inv.getArgument(0));
+
+		ResponseEntity<?> failed = controller.ingest(new ImageIngestRequest(TINY_BASE64_PNG));
+
+		assertEquals(failed.getStatusCodeValue(), 500);
+		verify(image_matrix_repo, never()).setSourceHash(anyLong(), any());
+		verify(image_matrix_repo).deleteByIds(Arrays.asList(1L, 1L));
+
+		ResponseEntity<?> resubmitted = controller.ingest(new ImageIngestRequest(TINY_BASE64_PNG));
+
+		assertEquals(resubmitted.getStatusCodeValue(), 200);
+		ImageMatrixNode original = (ImageMatrixNode) resubmitted.getBody();
+		assertEquals(original.getSourceHash(), source_hash);
+		assertEquals(original.getParts().size(), 3);
+		verify(image_matrix_repo).setSourceHash(1L, source_hash);
+		assertEquals(controller.ingestStats().getProcessed(), 1);
+	}
+
+	@Test
+	public void ingest_writesNothing_whenProcessingFails() {
+		when(image_processing_service.computeBlackAndWhite(any())).thenThrow(new RuntimeException("OpenCV error"));
+
+		controller.ingest(new ImageIngestRequest(TINY_BASE64_PNG));
+
+		verify(image_matrix_repo, never()).save(any(ImageMatrixNode.class));
+		verify(image_matrix_repo, never()).deleteByIds(any());
+	}
+
+	@Test
+	public void ingest_returnsConcurrentOriginal_whenSourceHashIsTaken() {
+		String source_hash = ImageBlobStore.hash(Base64.getDecoder().decode(TINY_BASE64_PNG));
+		ImageMatrixNode concurrent = new ImageMatrixNode(ImageMatrixNode.Type.ORIGINAL, 1, 1, new int[1][1][3]);
+		concurrent.setId(7L);
+		concurrent.setSourceHash(source_hash);
+		when(image_matrix_repo.findOriginalBySourceHash(source_hash)).thenReturn(null, concurrent);
+		doThrow(new RuntimeException("Node already exists with label ImageMatrixNode and property source_hash"))
+				.when(image_matrix_repo).setSourceHash(anyLong(), any());
+
+		ResponseEntity<?> response = controller.ingest(new ImageIngestRequest(TINY_BASE64_PNG));
+
+		assertEquals(response.getStatusCodeValue(), 200);
+		assertSame(response.getBody(), concurrent);
+		verify(image_matrix_repo).deleteByIds(Arrays.asList(1L, 1L, 1L, 1L));
+		assertEquals(controller.ingestStats().getDuplicates(), 1);
+		assertEquals(controller.ingestStats().getProcessed(), 0);
+	}
+
+	@Test
+	public void ingestStats_countsDuplicatesAndProcessedImages() {
+		controller.ingest(new ImageIngestRequest(TINY_BASE64_PNG));
+		ImageMatrixNode existing = new ImageMatrixNode(ImageMatrixNode.Type.ORIGINAL, 1, 1, new int[1][1][3]);
+		existing.setId(7L);
+		when(image_matrix_repo.findOriginalBySourceHash(any())).thenReturn(existing);
+		controller.ingest(new ImageIngestRequest(TINY_BASE64_PNG));
+		controller.ingest(new ImageIngestRequest(TINY_BASE64_PNG));
+
+		ImageIngestStats stats = controller.ingestStats();
+		assertEquals(stats.getDuplicates(), 2);
+		assertEquals(stats.getProcessed(), 1);
+		assertEquals(stats.getDuplicateRate(), 2.0 / 3, 1e-9);
+	}
+
 	@Test
 	public void ingest_returns400_whenRequestNull() {
 		ResponseEntity<?> response = controller.ingest(null);
@@ -136,7 +278,7 @@ public class ImageIngestionControllerTests {
 
 	@Test
 	public void ingest_returns400_whenDecodeThrowsIllegalArgumentException() throws IOException {
-		when(image_processing_service.decodeToRgbMatrix(any()))
+		when(image_processing_service.decodeToRgbMatrix(any(byte[].class)))
 				.thenThrow(new IllegalArgumentException("Invalid base64"));
 		ImageIngestRequest request = new ImageIngestRequest("invalid");
 		ResponseEntity<?> response = controller.ingest(request);
@@ -145,9 +287,18 @@ public class ImageIngestionControllerTests {
 		assertTrue(response.getBody().toString().contains("Invalid base64"));
 	}
 
+	@Test
+	public void ingest_returns400_whenProcessingReturnsRaggedMatrix() {
+		int[][][] ragged = new int[][][] { new int[2][3], new int[1][3] };
+		when(image_processing_service.detectAndCropObjects(any())).thenReturn(Collections.singletonList(ragged));
+		ResponseEntity<?> response = controller.ingest(new ImageIngestRequest(TINY_BASE64_PNG));
+		assertEquals(response.getStatusCodeValue(), 400);
+		assertTrue(response.getBody().toString().contains("Row 1"));
+	}
+
 	@Test
 	public void ingest_returns500_whenDecodeThrowsIOException() throws IOException {
-		when(image_processing_service.decodeToRgbMatrix(any()))
+		when(image_processing_service.decodeToRgbMatrix(any(byte[].class)))
 				.thenThrow(new IOException("Corrupt image data"));
 		ImageIngestRequest request = new ImageIngestRequest("invalid");
 		ResponseEntity<?> response = controller.ingest(request);
@@ -2,20 +2,26 @@ package com.qanairy.api;
 
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
 
 import java.io.IOException;
 import java.lang.reflect.Field;
+import java.nio.file.NoSuchFileException;
 import java.util.Arrays;
 import java.util.Optional;
 
+import org.mockito.InOrder;
 import org.springframework.web.server.ResponseStatusException;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
@@ -25,7 +31,13 @@ import com.deepthought.models.MemoryRecord;
 import com.deepthought.models.repository.TokenRepository;
 import com.deepthought.models.repository.MemoryRecordRepository;
 import com.deepthought.models.repository.PredictionRepository;
+import com.qanairy.api.dto.BatchLearnRequest;
+import com.qanairy.api.dto.LearnFeedback;
 import com.qanairy.brain.Brain;
+import com.qanairy.db.JsonDecomposer;
+import com.qanairy.db.MemoryArchive;
+import com.qanairy.db.MemoryRecordWriter;
+import com.qanairy.db.TokenWeightSnapshot;
 
 @Test(groups = "Regression")
 public class ReinforcementLearningControllerTests {
@@ -35,6 +47,8 @@ public class ReinforcementLearningControllerTests {
 	private MemoryRecordRepository memory_repo;
 	private PredictionRepository prediction_repo;
 	private Brain brain;
+	private MemoryArchive memory_archive;
+	private TokenWeightSnapshot weight_snapshot;
 
 	@BeforeMethod
 	public void setUp() throws Exception {
@@ -43,20 +57,33 @@ public class ReinforcementLearningControllerTests {
 		memory_repo = mock(MemoryRecordRepository.class);
 		prediction_repo = mock(PredictionRepository.class);
 		brain = mock(Brain.class);
+		memory_archive = mock(MemoryArchive.class);
+		weight_snapshot = mock(TokenWeightSnapshot.class);
 
 		setField("token_repo", token_repo);
 		setField("memory_repo", memory_repo);
-		setField("prediction_repo", prediction_repo);
 		setField("brain", brain);
+		setField("memory_archive", memory_archive);
+		setField("weight_snapshot", weight_snapshot);
+		setField("json_decomposer", new JsonDecomposer());
+
+		MemoryRecordWriter memory_writer = new MemoryRecordWriter();
+		setField(memory_writer, "memory_repo", memory_repo);
+		setField(memory_writer, "prediction_repo", prediction_repo);
+		setField("memory_writer", memory_writer);
 
 		when(memory_repo.save(any(MemoryRecord.class))).thenAnswer(invocation -> invocation.getArgument(0));
 		when(prediction_repo.save(any())).thenAnswer(invocation -> invocation.getArgument(0));
 	}
 
 	private void setField(String name, Object value) throws Exception {
-		Field f = ReinforcementLearningController.class.getDeclaredField(name);
+		setField(controller, name, value);
+	}
+
+	private void setField(Object target, String name, Object value) throws Exception {
+		Field f = target.getClass().getDeclaredField(name);
 		f.setAccessible(true);
-		f.set(controller, value);
+		f.set(target, value);
 	}
 
 	@Test
@@ -89,25 +116,69 @@ public class ReinforcementLearningControllerTests {
 		}
 	}
 
+	@Test
+	public void learn_returns404ForUnwrittenReservation() throws IOException, IllegalAccessException {
+		MemoryRecord reservation = new MemoryRecord();
+		reservation.setID(77L);
+		when(memory_repo.findById(77L)).thenReturn(Optional.of(reservation));
+
+		try {
+			controller.learn(77L, "label");
+			fail("Expected ResponseStatusException");
+		} catch (ResponseStatusException e) {
+			assertEquals(e.getStatus().value(), 404);
+		}
+		verify(brain, never()).learn(any(MemoryRecord.class), any(Token.class));
+	}
+
+	@Test
+	public void learn_returns503WhenQueuedMemoryCannotBeFlushed() throws Exception {
+		MemoryRecordWriter memory_writer = mock(MemoryRecordWriter.class);
+		when(memory_writer.awaitPersisted(78L)).thenReturn(false);
+		setField("memory_writer", memory_writer);
+
+		try {
+			controller.learn(78L, "label");
+			fail("Expected ResponseStatusException");
+		} catch (ResponseStatusException e) {
+			assertEquals(e.getStatus().value(), 503);
+		}
+		verify(memory_repo, never()).findById(78L);
+	}
+
 	@Test
 	public void learn_usesExistingTokenWhenPresent() throws Exception {
-		when(memory_repo.findById(123L)).thenReturn(Optional.of(new MemoryRecord()));
+		MemoryRecord memory = memoryWithId(123L);
+		when(memory_repo.findById(123L)).thenReturn(Optional.of(memory));
 		Token existingToken = new Token("existing");
 		when(token_repo.findByValue("existing")).thenReturn(existingToken);
 
 		controller.learn(123L, "existing");
 
-		verify(brain).learn(123L, existingToken);
+		verify(brain).learn(memory, existingToken);
 	}
 
 	@Test
 	public void learn_createsTokenWhenMissing() throws Exception {
-		when(memory_repo.findById(321L)).thenReturn(Optional.of(new MemoryRecord()));
+		MemoryRecord memory = memoryWithId(321L);
+		when(memory_repo.findById(321L)).thenReturn(Optional.of(memory));
 		when(token_repo.findByValue("new-token")).thenReturn(null);
 
 		controller.learn(321L, "new-token");
 
-		verify(brain).learn(eq(321L), any(Token.class));
+		verify(brain).learn(eq(memory), any(Token.class));
+	}
+
+	@Test
+	public void learn_fallsBackToArchivedMemory() throws Exception {
+		MemoryRecord archived = memoryWithId(55L);
+		archived.setArchived(true);
+		when(memory_repo.findById(55L)).thenReturn(Optional.empty());
+		when(memory_archive.find(55L)).thenReturn(archived);
+
+		controller.learn(55L, "label");
+
+		verify(brain).learn(eq(archived), any(Token.class));
 	}
 
 	@Test
@@ -125,7 +196,7 @@ public class ReinforcementLearningControllerTests {
 		when(brain.generatePolicy(any(), any())).thenReturn(new double[][] { { 0.1, 0.9 } });
 		when(brain.predict(any())).thenReturn(new double[] { 0.2, 0.8 });
 
-		MemoryRecord memory = controller.predict("{\"text\":\"alpha beta\"}", new String[] { "known_output", "new_output" });
+		MemoryRecord memory = controller.predict("{\"text\":\"alpha beta\"}", new String[] { "known_output", "new_output" }, null);
 
 		assertNotNull(memory);
 		assertNotNull(memory.getPredictedToken());
@@ -140,7 +211,7 @@ public class ReinforcementLearningControllerTests {
 		when(brain.generatePolicy(any(), any())).thenReturn(new double[][] { { 1.0 } });
 		when(brain.predict(any())).thenReturn(new double[] { 1.0 });
 
-		MemoryRecord memory = controller.predict("plain text input", new String[] { "label" });
+		MemoryRecord memory = controller.predict("plain text input", new String[] { "label" }, null);
 
 		assertNotNull(memory);
 		assertEquals(memory.getPredictions().size(), 1);
@@ -152,12 +223,23 @@ public class ReinforcementLearningControllerTests {
 		when(brain.generatePolicy(any(), any())).thenReturn(new double[][] { { 1.0 } });
 		when(brain.predict(any())).thenReturn(new double[] { 1.0 });
 
-		MemoryRecord memory = controller.predict("{\"a\":\"hello\",\"b\":\"hello\",\"c\":\"null\",\"d\":\"\"}", new String[] { "hello" });
+		MemoryRecord memory = controller.predict("{\"a\":\"hello\",\"b\":\"hello\",\"c\":\"null\",\"d\":\"\"}", new String[] { "hello" }, null);
 
 		assertNotNull(memory);
 		assertTrue(memory.getInputTokenValues().isEmpty());
 		verify(brain).generatePolicy(any(), any());
-		verify(brain, never()).learn(any(Long.class), any(Token.class));
+		verify(brain, never()).learn(any(MemoryRecord.class), any(Token.class));
+	}
+
+	@Test
+	public void predict_scrubsInputTokensIgnoringCase() throws Exception {
+		when(token_repo.findByValue("Label")).thenReturn(new Token("Label"));
+		when(brain.generatePolicy(any(), any())).thenReturn(new double[][] { { 1.0 } });
+		when(brain.predict(any())).thenReturn(new double[] { 1.0 });
+
+		MemoryRecord memory = controller.predict("{\"a\":\"label Alpha\",\"b\":\"alpha LABEL beta\"}", new String[] { "Label" }, null);
+
+		assertEquals(memory.getInputTokenValues(), Arrays.asList("Alpha", "beta"));
 	}
 
 	@Test
@@ -167,9 +249,222 @@ public class ReinforcementLearningControllerTests {
 		when(brain.generatePolicy(any(), any())).thenReturn(new double[][] { { 1.0 } });
 		when(brain.predict(any())).thenReturn(new double[] { 1.0 });
 
-		MemoryRecord memory = controller.predict("{\"a\":\"value\"}", new String[] { "[fresh]" });
+		MemoryRecord memory = controller.predict("{\"a\":\"value\"}", new String[] { "[fresh]" }, null);
 
 		assertNotNull(memory);
 		assertEquals(Arrays.asList(memory.getOutputTokenKeys()), Arrays.asList("fresh"));
 	}
+
+	@Test
+	public void predict_persistsOnlyTopKPredictions() throws Exception {
+		when(token_repo.findByValue(any())).thenReturn(null);
+		when(brain.generatePolicy(any(), any())).thenReturn(new double[][] { { 0.1, 0.2, 0.3, 0.4 } });
+		when(brain.predict(any())).thenReturn(new double[] { 0.1, 0.4, 0.2, 0.3 });
+
+		MemoryRecord memory = controller.predict("{\"a\":\"value\"}", new String[] { "w", "x", "y", "z" }, 2);
+
+		assertEquals(memory.getPredictions().size(), 2);
+		assertEquals(memory.getPredictions().get(0).getToken().getValue(), "x");
+		assertEquals(memory.getPredictions().get(1).getToken().getValue(), "z");
+		assertEquals(memory.getPredictedToken().getValue(), "x");
+		assertEquals(memory.getOutputTokenKeys().length, 4);
+		verify(prediction_repo, times(2)).save(any());
+	}
+
+	@Test
+	public void predict_rejectsNonPositiveTopK() throws Exception {
+		try {
+			controller.predict("{\"a\":\"value\"}", new String[] { "label" }, 0);
+			fail("Expected ResponseStatusException");
+		} catch (ResponseStatusException e) {
+			assertEquals(e.getStatus().value(), 400);
+		}
+	}
+
+	@Test
+	public void learnBatch_passesMemoriesInFeedbackOrder() {
+		MemoryRecord first = memoryWithId(1L);
+		MemoryRecord second = memoryWithId(2L);
+		when(memory_repo.findAllById(any())).thenReturn(Arrays.asList(second, first));
+
+		controller.learnBatch(new BatchLearnRequest(Arrays.asList(
+				new LearnFeedback(1L, "a"),
+				new LearnFeedback(2L, "b"),
+				new LearnFeedback(1L, "c"))));
+
+		verify(memory_repo, times(1)).findAllById(any());
+		verify(brain).learnBatch(Arrays.asList(first, second, first), Arrays.asList("a", "b", "c"));
+	}
+
+	@Test
+	public void learnBatch_returns404ListingMissingMemories() {
+		when(memory_repo.findAllById(any())).thenReturn(Arrays.asList(memoryWithId(1L)));
+
+		try {
+			controller.learnBatch(new BatchLearnRequest(Arrays.asList(
+					new LearnFeedback(1L, "a"),
+					new LearnFeedback(77L, "b"))));
+			fail("Expected ResponseStatusException");
+		} catch (ResponseStatusException e) {
+			assertEquals(e.getStatus().value(), 404);
+			assertTrue(e.getReason().contains("77"));
+		}
+		verify(brain, never()).learnBatch(any(), any());
+	}
+
+	@Test
+	public void learnBatch_fallsBackToArchivedMemories() {
+		MemoryRecord first = memoryWithId(1L);
+		MemoryRecord archived = memoryWithId(77L);
+		archived.setArchived(true);
+		when(memory_repo.findAllById(any())).thenReturn(Arrays.asList(first));
+		when(memory_archive.find(77L)).thenReturn(archived);
+
+		controller.learnBatch(new BatchLearnRequest(Arrays.asList(
+				new LearnFeedback(1L, "a"),
+				new LearnFeedback(77L, "b"))));
+
+		verify(memory_archive, never()).find(1L);
+		verify(brain).learnBatch(Arrays.asList(first, archived), Arrays.asList("a", "b"));
+	}
+
+	@Test
+	public void learnBatch_rejectsEmptyFeedback() {
+		try {
+			controller.learnBatch(new BatchLearnRequest());
+			fail("Expected ResponseStatusException");
+		} catch (ResponseStatusException e) {
+			assertEquals(e.getStatus().value(), 400);
+		}
+	}
+
+	@Test
+	public void predict_storesWeightVersionInsteadOfPolicyWhenByReference() throws Exception {
+		setField("policy_by_reference", true);
+		when(token_repo.findByValue("label")).thenReturn(new Token("label"));
+		when(token_repo.getWeightVersion()).thenReturn(42L);
+		when(brain.generatePolicy(any(), any())).thenReturn(new double[][] { { 1.0 } });
+		when(brain.predict(any())).thenReturn(new double[] { 1.0 });
+
+		MemoryRecord memory = controller.predict("{\"a\":\"value\"}", new String[] { "label" }, null);
+
+		assertNull(memory.getEncodedPolicyMatrix());
+		assertEquals(memory.getWeightVersion(), Long.valueOf(42L));
+		InOrder order = inOrder(token_repo, brain);
+		order.verify(token_repo).getWeightVersion();
+		order.verify(brain).generatePolicy(any(), any());
+		assertEquals(memory.getPrediction()[0], 1.0, 0.0);
+	}
+
+	@Test
+	public void memoryPolicy_returnsPolicyLoadedByBrain() {
+		MemoryRecord memory = memoryWithId(5L);
+		double[][] policy = new double[][] { { 0.5 } };
+		when(memory_repo.findById(5L)).thenReturn(Optional.of(memory));
+		when(brain.loadPolicy(memory)).thenReturn(policy);
+
+		assertSame(controller.memoryPolicy(5L), policy);
+	}
+
+	@Test
+	public void memoryPolicy_returns404WhenMemoryDoesNotExist() {
+		when(memory_repo.findById(404L)).thenReturn(Optional.empty());
+
+		try {
+			controller.memoryPolicy(404L);
+			fail("Expected ResponseStatusException");
+		} catch (ResponseStatusException e) {
+			assertEquals(e.getStatus().value(), 404);
+		}
+	}
+
+	@Test
+	public void memory_returnsMemoryFromGraph() {
+		MemoryRecord memory = memoryWithId(6L);
+		when(memory_repo.findById(6L)).thenReturn(Optional.of(memory));
+
+		assertSame(controller.memory(6L), memory);
+		verify(memory_archive, never()).find(6L);
+	}
+
+	@Test
+	public void memory_fallsBackToArchive() {
+		MemoryRecord archived = memoryWithId(7L);
+		when(memory_repo.findById(7L)).thenReturn(Optional.empty());
+		when(memory_archive.find(7L)).thenReturn(archived);
+
+		assertSame(controller.memory(7L), archived);
+	}
+
+	@Test
+	public void memory_returns404WhenNotInGraphOrArchive() {
+		when(memory_repo.findById(8L)).thenReturn(Optional.empty());
+
+		try {
+			controller.memory(8L);
+			fail("Expected ResponseStatusException");
+		} catch (ResponseStatusException e) {
+			assertEquals(e.getStatus().value(), 404);
+			assertTrue(e.getReason().contains("8"));
+		}
+	}
+
+	@Test
+	public void memoryPolicy_loadsPolicyOfArchivedMemory() {
+		MemoryRecord archived = memoryWithId(9L);
+		double[][] policy = new double[][] { { 0.25 } };
+		when(memory_repo.findById(9L)).thenReturn(Optional.empty());
+		when(memory_archive.find(9L)).thenReturn(archived);
+		when(brain.loadPolicy(archived)).thenReturn(policy);
+
+		assertSame(controller.memoryPolicy(9L), policy);
+	}
+
+	@Test
+	public void exportSnapshot_returnsSummary() throws IOException {
+		TokenWeightSnapshot.Summary summary = new TokenWeightSnapshot.Summary("baseline", 3, 5L);
+		when(weight_snapshot.export("baseline")).thenReturn(summary);
+
+		assertSame(controller.exportSnapshot("baseline"), summary);
+	}
+
+	@Test
+	public void exportSnapshot_returns400ForInvalidName() throws IOException {
+		when(weight_snapshot.export("../x")).thenThrow(new IllegalArgumentException("Invalid snapshot name ../x"));
+
+		try {
+			controller.exportSnapshot("../x");
+			fail("Expected ResponseStatusException");
+		} catch (ResponseStatusException e) {
+			assertEquals(e.getStatus().value(), 400);
+		}
+	}
+
+	@Test
+	public void restoreSnapshot_passesReplaceFlag() throws IOException {
+		TokenWeightSnapshot.Summary summary = new TokenWeightSnapshot.Summary("baseline", 3, 5L);
+		when(weight_snapshot.restore("baseline", true)).thenReturn(summary);
+
+		assertSame(controller.restoreSnapshot("baseline", true), summary);
+	}
+
+	@Test
+	public void restoreSnapshot_returns404WhenSnapshotDoesNotExist() throws IOException {
+		when(weight_snapshot.restore("missing", false)).thenThrow(new NoSuchFileException("missing.snapshot"));
+
+		try {
+			controller.restoreSnapshot("missing", false);
+			fail("Expected ResponseStatusException");
+		} catch (ResponseStatusException e) {
+			assertEquals(e.getStatus().value(), 404);
+			assertTrue(e.getReason().contains("missing"));
+		}
+	}
+
+	private static MemoryRecord memoryWithId(long id) {
+		MemoryRecord memory = new MemoryRecord();
+		memory.setID(id);
+		memory.setPredictedToken(new Token("predicted"));
+		return memory;
+	}
 }
@@ -0,0 +1,40 @@
+package com.qanairy.api.dto;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+import java.util.Arrays;
+
+/**
+ * Unit tests for BatchLearnRequest and LearnFeedback DTOs.
+ */
+@Test(groups = "Regression")
+public class BatchLearnRequestTests {
+
+	@Test
+	public void defaultConstructor_createsEmptyFeedbackList() {
+		BatchLearnRequest request = new BatchLearnRequest();
+		assertNotNull(request.getFeedback());
+		assertTrue(request.getFeedback().isEmpty());
+	}
+
+	@Test
+	public void constructorWithFeedback_keepsOrder() {
+		LearnFeedback first = new LearnFeedback(1L, "a");
+		LearnFeedback second = new LearnFeedback(2L, "b");
+		BatchLearnRequest request = new BatchLearnRequest(Arrays.asList(first, second));
+		assertEquals(request.getFeedback(), Arrays.asList(first, second));
+	}
+
+	@Test
+	public void learnFeedback_settersUpdateValues() {
+		LearnFeedback feedback = new LearnFeedback();
+		assertNull(feedback.getMemoryId());
+		assertNull(feedback.getTokenValue());
+		feedback.setMemoryId(42L);
+		feedback.setTokenValue("VERB");
+		assertEquals(feedback.getMemoryId(), Long.valueOf(42L));
+		assertEquals(feedback.getTokenValue(), "VERB");
+	}
+}
@@ -0,0 +1,46 @@
+package com.qanairy.brain;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+@Test(groups = "Regression")
+public class InitialWeightsTests {
+
+	@Test
+	public void weight_isDeterministicForSameSeedAndValues() {
+		assertEquals(InitialWeights.weight(7L, "hello", "GREETING"), InitialWeights.weight(7L, "hello", "GREETING"), 0.0);
+	}
+
+	@Test
+	public void weight_staysWithinUnitInterval() {
+		for(int idx = 0; idx < 1000; idx++){
+			double weight = InitialWeights.weight(idx, "input_" + idx, "output_" + (idx % 7));
+			assertTrue(weight >= 0.0 && weight < 1.0);
+		}
+	}
+
+	@Test
+	public void weight_dependsOnSeed() {
+		assertNotEquals(InitialWeights.weight(1L, "hello", "GREETING"), InitialWeights.weight(2L, "hello", "GREETING"));
+	}
+
+	@Test
+	public void weight_dependsOnDirectionAndValueBoundary() {
+		assertNotEquals(InitialWeights.weight(0L, "a", "b"), InitialWeights.weight(0L, "b", "a"));
+		assertNotEquals(InitialWeights.weight(0L, "ab", "c"), InitialWeights.weight(0L, "a", "bc"));
+	}
+
+	@Test
+	public void weight_isRoughlyUniform() {
+		int below_half = 0;
+		for(int idx = 0; idx < 10000; idx++){
+			if(InitialWeights.weight(0L, "token_" + idx, "label") < 0.5){
+				below_half++;
+			}
+		}
+		assertTrue(below_half > 4700 && below_half < 5300);
+	}
+}
@@ -0,0 +1,93 @@
+package com.qanairy.brain;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the column-walking prediction that {@link Brain#predict(double[][])} used to perform
+ *  against the row by row {@link PredictionKernel#predict(double[][], double[])} it uses now.
+ *
+ * Run with {@code mvn test-compile} followed by executing {@link #main(String[])} on the test classpath.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PredictionKernelBenchmark {
+
+	@Param({ "1000x100", "10000x1000" })
+	public String shape;
+
+	private double[][] policy;
+	private double[] prediction;
+
+	@Setup
+	public void setUp() {
+		String[] dimensions = shape.split("x");
+		int rows = Integer.parseInt(dimensions[0]);
+		int columns = Integer.parseInt(dimensions[1]);
+
+		Random random = new Random(42);
+		policy = new double[rows][columns];
+		for(int row = 0; row < rows; row++){
+			for(int column = 0; column < columns; column++){
+				policy[row][column] = random.nextDouble();
+			}
+		}
+		prediction = new double[columns];
+	}
+
+	@Benchmark
+	public double[] columnWalk() {
+		double[] result = new double[policy[0].length];
+		for(int idx1 = 0; idx1 < policy[0].length; idx1++){
+			double sum = 0.0;
+			for(int idx2 = 0; idx2 < policy.length; idx2++){
+				sum += policy[idx2][idx1];
+			}
+			result[idx1] = sum;
+		}
+
+		double total = 0.0;
+		for(double value : result){
+			total += value;
+		}
+		double[] normalized = new double[result.length];
+		for(int idx = 0; idx < result.length; idx++){
+			normalized[idx] = result[idx] / total;
+		}
+		return normalized;
+	}
+
+	@Benchmark
+	public void rowAccumulate(Blackhole blackhole) {
+		PredictionKernel.predict(policy, prediction);
+		blackhole.consume(prediction);
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder()
+				.include(PredictionKernelBenchmark.class.getSimpleName())
+				.build();
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,82 @@
+package com.qanairy.brain;
+
+import static org.testng.Assert.assertEquals;
+
+import org.testng.annotations.Test;
+
+@Test(groups = "Regression")
+public class PredictionKernelTests {
+
+	@Test
+	public void predict_normalizesColumnTotals() {
+		double[][] policy = new double[][] { { 2.0, 2.0 },
+											 { 2.0, 6.0 } };
+		double[] prediction = new double[2];
+
+		PredictionKernel.predict(policy, prediction);
+
+		assertEquals(prediction[0], 0.3333333333333333, 0.0000001);
+		assertEquals(prediction[1], 0.6666666666666666, 0.0000001);
+	}
+
+	@Test
+	public void predict_matchesColumnSums() {
+		double[][] policy = new double[][] { { 0.1, 0.7, 0.2 }, { 0.4, 0.4, 0.9 }, { 0.3, 0.0, 0.5 } };
+		double[] prediction = new double[3];
+
+		PredictionKernel.predict(policy, prediction);
+
+		assertEquals(prediction[0], 0.8 / 3.5, 0.0000001);
+		assertEquals(prediction[1], 1.1 / 3.5, 0.0000001);
+		assertEquals(prediction[2], 1.6 / 3.5, 0.0000001);
+	}
+
+	@Test
+	public void predict_reusesCallerBuffer() {
+		double[] prediction = new double[] { 9.0, 9.0, 9.0 };
+
+		PredictionKernel.predict(new double[][] { { 1.0, 1.0 } }, prediction);
+
+		assertEquals(prediction[0], 0.5, 0.0000001);
+		assertEquals(prediction[1], 0.5, 0.0000001);
+		assertEquals(prediction[2], 9.0, 0.0000001);
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void predict_rejectsUndersizedPredictionBuffer() {
+		PredictionKernel.predict(new double[2][2], new double[1]);
+	}
+
+	@Test
+	public void topK_selectsLargestValuesInDescendingOrder() {
+		double[] values = new double[] { 0.1, 0.9, 0.3, 0.7, 0.05, 0.8 };
+		int[] indices = new int[3];
+
+		int count = PredictionKernel.topK(values, 3, indices);
+
+		assertEquals(count, 3);
+		assertEquals(indices, new int[] { 1, 5, 3 });
+	}
+
+	@Test
+	public void topK_prefersLowerIndexOnTies() {
+		double[] values = new double[] { 0.5, 0.2, 0.5, 0.5 };
+		int[] indices = new int[2];
+
+		PredictionKernel.topK(values, 2, indices);
+
+		assertEquals(indices, new int[] { 0, 2 });
+	}
+
+	@Test
+	public void topK_limitsCountToNumberOfValues() {
+		double[] values = new double[] { -0.2, -0.1 };
+		int[] indices = new int[5];
+
+		int count = PredictionKernel.topK(values, 5, indices);
+
+		assertEquals(count, 2);
+		assertEquals(indices[0], 1);
+		assertEquals(indices[1], 0);
+	}
+}
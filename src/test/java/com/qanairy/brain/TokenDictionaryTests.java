@@ -0,0 +1,41 @@
+package com.qanairy.brain;
+
+import static org.testng.Assert.assertEquals;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test(groups = "Regression")
+public class TokenDictionaryTests {
+
+	private TokenDictionary dictionary;
+
+	@BeforeMethod
+	public void setUp() {
+		dictionary = new TokenDictionary();
+	}
+
+	@Test
+	public void idOf_assignsDenseIdsOnce() {
+		assertEquals(dictionary.idOf("button"), 0);
+		assertEquals(dictionary.idOf("form"), 1);
+		assertEquals(dictionary.idOf("button"), 0);
+		assertEquals(dictionary.size(), 2);
+	}
+
+	@Test
+	public void idOf_doesNotAssignIdsToNullOrEmptyValues() {
+		assertEquals(dictionary.idOf(null), -1);
+		assertEquals(dictionary.idOf(""), -1);
+		assertEquals(dictionary.size(), 0);
+	}
+
+	@Test
+	public void lookup_doesNotAssignIds() {
+		assertEquals(dictionary.lookup("button"), -1);
+		assertEquals(dictionary.size(), 0);
+
+		int id = dictionary.idOf("button");
+		assertEquals(dictionary.lookup("button"), id);
+	}
+}
@@ -0,0 +1,135 @@
+package com.qanairy.brain;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test(groups = "Regression")
+public class TokenWeightCacheTests {
+
+	private AtomicLong now;
+	private TokenWeightCache cache;
+
+	@BeforeMethod
+	public void setUp() {
+		now = new AtomicLong();
+		cache = new TokenWeightCache(2, 100L, now::get, 1);
+	}
+
+	@Test
+	public void get_returnsStoredWeightAndCountsHit() {
+		cache.put(1, 2, 0.25);
+
+		assertEquals(cache.get(1, 2), 0.25, 0.0000001);
+		assertEquals(cache.getStats().getHits(), 1L);
+		assertEquals(cache.getStats().getMisses(), 0L);
+	}
+
+	@Test
+	public void get_countsMissForUnknownPair() {
+		assertNull(cache.get(1, 2));
+		assertEquals(cache.getStats().getMisses(), 1L);
+	}
+
+	@Test
+	public void put_evictsLeastRecentlyUsedEntryWhenFull() {
+		cache.put(10, 20, 0.1);
+		cache.put(11, 20, 0.2);
+		cache.get(10, 20);
+		cache.put(12, 20, 0.3);
+
+		assertNull(cache.get(11, 20));
+		assertEquals(cache.get(10, 20), 0.1, 0.0000001);
+		assertEquals(cache.size(), 2);
+		assertEquals(cache.getStats().getEvictions(), 1L);
+	}
+
+	@Test
+	public void get_expiresEntriesOlderThanTtl() {
+		cache.put(1, 2, 0.5);
+		now.set(101L);
+
+		assertNull(cache.get(1, 2));
+		assertEquals(cache.size(), 0);
+		assertEquals(cache.getStats().getEvictions(), 1L);
+	}
+
+	@Test
+	public void put_overwritesExistingWeight() {
+		cache.put(1, 2, 0.5);
+		cache.put(1, 2, 0.75);
+
+		assertEquals(cache.get(1, 2), 0.75, 0.0000001);
+		assertEquals(cache.size(), 1);
+	}
+
+	@Test
+	public void stats_reportHitRate() {
+		cache.put(1, 2, 0.5);
+		cache.get(1, 2);
+		cache.get(1, 3);
+
+		assertEquals(cache.getStats().getHitRate(), 0.5, 0.0000001);
+	}
+
+	@Test
+	public void put_ignoresPairsWithoutDictionaryIds() {
+		cache.put(-1, 2, 0.5);
+		cache.put(1, -1, 0.5);
+
+		assertEquals(cache.size(), 0);
+		assertNull(cache.get(-1, 2));
+		assertEquals(cache.getStats().getMisses(), 1L);
+	}
+
+	@Test
+	public void putIfNotWrittenSince_cachesWeightReadBeforeAnyWriteThrough() {
+		long read_stamp = cache.readStamp();
+
+		assertTrue(cache.putIfNotWrittenSince(1, 2, 0.5, read_stamp));
+		assertEquals(cache.get(1, 2), 0.5, 0.0000001);
+	}
+
+	@Test
+	public void putIfNotWrittenSince_keepsNewerWriteThrough() {
+		long read_stamp = cache.readStamp();
+		cache.put(1, 2, 0.75);
+
+		assertFalse(cache.putIfNotWrittenSince(1, 2, 0.5, read_stamp));
+		assertEquals(cache.get(1, 2), 0.75, 0.0000001);
+	}
+
+	@Test
+	public void putIfNotWrittenSince_dropsWeightReadBeforeClear() {
+		long read_stamp = cache.readStamp();
+		cache.clear();
+
+		assertFalse(cache.putIfNotWrittenSince(1, 2, 0.5, read_stamp));
+		assertNull(cache.get(1, 2));
+	}
+
+	@Test
+	public void stripes_holdAtLeastMaxSizeEntries() {
+		TokenWeightCache striped = new TokenWeightCache(64, 100L, now::get, 4);
+		for(int idx = 0; idx < 1000; idx++){
+			striped.put(idx, idx + 1, 0.5);
+		}
+
+		assertEquals(striped.size(), 64);
+		assertEquals(striped.getStats().getEvictions(), 1000L - 64);
+	}
+
+	@Test
+	public void defaultStripeCount_isPowerOfTwoNoLargerThanMaxSize() {
+		assertEquals(TokenWeightCache.defaultStripeCount(100000, 1), 4);
+		assertEquals(TokenWeightCache.defaultStripeCount(100000, 6), 32);
+		assertEquals(TokenWeightCache.defaultStripeCount(3, 8), 2);
+		assertEquals(TokenWeightCache.defaultStripeCount(0, 8), 1);
+	}
+}
@@ -0,0 +1,124 @@
+package com.qanairy.config;
+
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.neo4j.driver.Driver;
+import org.neo4j.driver.Result;
+import org.neo4j.driver.Session;
+import org.neo4j.driver.summary.Plan;
+import org.neo4j.driver.summary.ResultSummary;
+import org.testng.annotations.Test;
+
+import com.deepthought.models.repository.TokenRepository;
+import com.qanairy.config.SchemaManager.RepositoryQuery;
+
+@Test(groups = "Regression")
+public class SchemaManagerTests {
+
+	@Test
+	public void findLabelScans_collectsScanOperatorsFromNestedPlans() {
+		Plan scan = plan("NodeByLabelScan@neo4j");
+		Plan seek = plan("NodeUniqueIndexSeek@neo4j");
+		Plan root = plan("ProduceResults@neo4j", plan("Expand(All)@neo4j", scan), seek);
+
+		assertEquals(SchemaManager.findLabelScans(root), Arrays.asList("NodeByLabelScan@neo4j"));
+	}
+
+	@Test
+	public void findLabelScans_returnsEmptyForIndexSeeks() {
+		Plan root = plan("ProduceResults", plan("NodeIndexSeek"));
+
+		assertTrue(SchemaManager.findLabelScans(root).isEmpty());
+	}
+
+	@Test
+	public void queriesOf_collectsQueryMethodsWithBoundParameters() {
+		List<RepositoryQuery> queries = SchemaManager.queriesOf(TokenRepository.class);
+
+		RepositoryQuery all_values = find(queries, "TokenRepository.findAllValues");
+		assertTrue(all_values.isLabelScanAllowed());
+
+		RepositoryQuery connected = find(queries, "TokenRepository.getConnectedTokens");
+		assertFalse(connected.isLabelScanAllowed());
+		assertTrue(connected.getParameters().containsKey("input_value"));
+		assertTrue(connected.getParameters().containsKey("output_value"));
+
+		for(RepositoryQuery query : queries){
+			assertFalse(query.getName().endsWith(".findByValue"), "derived queries have no cypher to explain");
+		}
+	}
+
+	@Test
+	public void checkQueryPlans_failsWhenPlanScansLabel() throws Exception {
+		SchemaManager schema_manager = schemaManager(SchemaManager.PlanCheck.FAIL);
+		Driver driver = driverReturning(plan("ProduceResults", plan("NodeByLabelScan")));
+		RepositoryQuery query = new RepositoryQuery("TokenRepository.scan", "MATCH (t:Token) RETURN t", Collections.emptyMap(), false);
+
+		try{
+			schema_manager.checkQueryPlans(driver, Arrays.asList(query));
+			fail("expected the plan check to fail");
+		}
+		catch(IllegalStateException e){
+			assertTrue(e.getMessage().contains("TokenRepository.scan"));
+		}
+	}
+
+	@Test
+	public void checkQueryPlans_ignoresAllowedScansAndWarnings() throws Exception {
+		Driver driver = driverReturning(plan("NodeByLabelScan"));
+		RepositoryQuery allowed = new RepositoryQuery("TokenRepository.allowed", "MATCH (t:Token) RETURN t", Collections.emptyMap(), true);
+		RepositoryQuery scan = new RepositoryQuery("TokenRepository.scan", "MATCH (t:Token) RETURN t", Collections.emptyMap(), false);
+
+		schemaManager(SchemaManager.PlanCheck.FAIL).checkQueryPlans(driver, Arrays.asList(allowed));
+		schemaManager(SchemaManager.PlanCheck.WARN).checkQueryPlans(driver, Arrays.asList(scan));
+	}
+
+	private static RepositoryQuery find(List<RepositoryQuery> queries, String name) {
+		for(RepositoryQuery query : queries){
+			if(query.getName().equals(name)){
+				return query;
+			}
+		}
+		throw new AssertionError("no query named " + name);
+	}
+
+	private static Plan plan(String operator, Plan... children) {
+		Plan plan = mock(Plan.class);
+		when(plan.operatorType()).thenReturn(operator);
+		when(plan.children()).thenAnswer(invocation -> Arrays.asList(children));
+		return plan;
+	}
+
+	private static Driver driverReturning(Plan plan) {
+		ResultSummary summary = mock(ResultSummary.class);
+		when(summary.hasPlan()).thenReturn(true);
+		when(summary.plan()).thenReturn(plan);
+		Result result = mock(Result.class);
+		when(result.consume()).thenReturn(summary);
+		Session session = mock(Session.class);
+		when(session.run(anyString(), anyMap())).thenReturn(result);
+		Driver driver = mock(Driver.class);
+		when(driver.session()).thenReturn(session);
+		return driver;
+	}
+
+	private static SchemaManager schemaManager(SchemaManager.PlanCheck plan_check) throws Exception {
+		SchemaManager schema_manager = new SchemaManager();
+		Field field = SchemaManager.class.getDeclaredField("plan_check");
+		field.setAccessible(true);
+		field.set(schema_manager, plan_check);
+		return schema_manager;
+	}
+}
@@ -0,0 +1,57 @@
+package com.qanairy.db;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+@Test(groups = "Regression")
+public class CaseInsensitiveStringSetTests {
+
+	@Test
+	public void add_rejectsValuesEqualIgnoringCase() {
+		CaseInsensitiveStringSet set = new CaseInsensitiveStringSet();
+
+		assertTrue(set.add("Hello"));
+		assertFalse(set.add("hello"));
+		assertFalse(set.add("HELLO"));
+		assertTrue(set.add("world"));
+		assertEquals(set.size(), 2);
+		assertTrue(set.contains("WORLD"));
+		assertFalse(set.contains("hell"));
+	}
+
+	@Test
+	public void add_foldsCaseLikeEqualsIgnoreCase() {
+		CaseInsensitiveStringSet set = new CaseInsensitiveStringSet();
+		set.add("caf\u00e9");
+
+		assertTrue("CAF\u00c9".equalsIgnoreCase("caf\u00e9"));
+		assertTrue(set.contains("CAF\u00c9"));
+	}
+
+	@Test
+	public void add_growsPastInitialCapacity() {
+		CaseInsensitiveStringSet set = new CaseInsensitiveStringSet(1);
+		for(int i = 0; i < 1000; i++){
+			assertTrue(set.add("word" + i));
+		}
+
+		assertEquals(set.size(), 1000);
+		for(int i = 0; i < 1000; i++){
+			assertTrue(set.contains("WORD" + i));
+		}
+	}
+
+	@Test
+	public void clear_emptiesSetForReuse() {
+		CaseInsensitiveStringSet set = new CaseInsensitiveStringSet();
+		set.add("alpha");
+		set.clear();
+
+		assertEquals(set.size(), 0);
+		assertFalse(set.contains("alpha"));
+		assertTrue(set.add("ALPHA"));
+	}
+}
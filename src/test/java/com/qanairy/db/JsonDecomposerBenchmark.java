@@ -0,0 +1,111 @@
+package com.qanairy.db;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.deepthought.models.Token;
+
+/**
+ * Compares decomposing JSON documents of different sizes on the calling thread against
+ *  {@link DataDecomposer#decomposeJson(String, ForkJoinPool, int)} with the default chars per task.
+ *  Documents of at most chars_per_task chars should cost the same either way.
+ *
+ * After each iteration the process CPU time is divided by the wall time of the iteration and printed
+ *  as "cores used". On a host with several processors, the fork-join benchmark of large documents
+ *  should use more than one core while the calling thread benchmark stays at about one.
+ *
+ * Run with {@code mvn test-compile} followed by executing {@link #main(String[])} on the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonDecomposerBenchmark {
+
+	private static final int CHARS_PER_TASK = 65536;
+
+	@Param({ "100", "2048", "20000", "200000" })
+	public int values;
+
+	private String json;
+	private ForkJoinPool pool;
+	private long iteration_cpu_nanos;
+	private long iteration_wall_nanos;
+
+	@Setup
+	public void setUp() {
+		//an array of strings and an array of small objects, so both elements and fields are split
+		StringBuilder builder = new StringBuilder("{\"items\":[");
+		for(int idx = 0; idx < values / 2; idx++){
+			builder.append(idx > 0 ? "," : "").append("\"word").append(idx % 5000).append(" other").append(idx % 977).append(" text\"");
+		}
+		builder.append("],\"records\":[");
+		for(int idx = 0; idx < values - values / 2; idx++){
+			builder.append(idx > 0 ? "," : "").append("{\"name\":\"record").append(idx % 3000).append(" entry\",\"count\":").append(idx).append('}');
+		}
+		json = builder.append("]}").toString();
+		pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+	}
+
+	@Setup(Level.Iteration)
+	public void startIteration() {
+		iteration_cpu_nanos = processCpuNanos();
+		iteration_wall_nanos = System.nanoTime();
+	}
+
+	@TearDown(Level.Iteration)
+	public void endIteration() {
+		long cpu_nanos = processCpuNanos() - iteration_cpu_nanos;
+		long wall_nanos = System.nanoTime() - iteration_wall_nanos;
+		System.out.printf(" cores used: %.2f ", (double)cpu_nanos / wall_nanos);
+	}
+
+	@TearDown
+	public void tearDown() {
+		pool.shutdown();
+	}
+
+	private static long processCpuNanos() {
+		return ((com.sun.management.OperatingSystemMXBean)ManagementFactory.getOperatingSystemMXBean()).getProcessCpuTime();
+	}
+
+	@Benchmark
+	public List<Token> callingThread() throws IOException {
+		return DataDecomposer.decomposeJson(json);
+	}
+
+	@Benchmark
+	public List<Token> forkJoinPool() throws IOException {
+		return DataDecomposer.decomposeJson(json, pool, CHARS_PER_TASK);
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder()
+				.include(JsonDecomposerBenchmark.class.getSimpleName())
+				.build();
+		new Runner(options).run();
+	}
+}
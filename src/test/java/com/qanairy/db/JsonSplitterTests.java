@@ -0,0 +1,49 @@
+package com.qanairy.db;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+@Test(groups = "Regression")
+public class JsonSplitterTests {
+
+	@Test
+	public void split_returnsNoRunsForSmallDocuments() throws Exception {
+		assertTrue(JsonSplitter.split("{\"a\":[1,2,3]}", 100).isEmpty());
+	}
+
+	@Test
+	public void split_groupsElementsOfLargeArraysIntoRuns() throws Exception {
+		List<JsonSplitter.Run> runs = JsonSplitter.split("{\"a\":[\"one\",\"two\",\"three\",\"four\"]}", 12);
+
+		assertEquals(runs.size(), 2);
+		assertEquals(text(runs.get(0), "{\"a\":[\"one\",\"two\",\"three\",\"four\"]}"), "[\"one\",\"two\",\"three\"]");
+		assertEquals(text(runs.get(1), "{\"a\":[\"one\",\"two\",\"three\",\"four\"]}"), "[\"four\"]");
+	}
+
+	@Test
+	public void split_keepsSiblingsOfSplitContainersInOrder() throws Exception {
+		String json = "{\"first\":\"x\",\"big\":[\"aaaaaa\",\"bbbbbb\"],\"last\":{\"k\":1}}";
+		List<JsonSplitter.Run> runs = JsonSplitter.split(json, 12);
+
+		assertEquals(runs.size(), 3);
+		assertEquals(text(runs.get(0), json), "{\"first\":\"x\"}");
+		assertEquals(text(runs.get(1), json), "[\"aaaaaa\",\"bbbbbb\"]");
+		assertEquals(text(runs.get(2), json), "{\"last\":{\"k\":1}}");
+	}
+
+	private static String text(JsonSplitter.Run run, String json) throws Exception {
+		StringBuilder text = new StringBuilder();
+		char[] buffer = new char[3];
+		try(java.io.Reader reader = run.reader(json)){
+			int count;
+			while((count = reader.read(buffer, 0, buffer.length)) > 0){
+				text.append(buffer, 0, count);
+			}
+		}
+		return text.toString();
+	}
+}
@@ -0,0 +1,87 @@
+package com.qanairy.db;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+@Test(groups = "Regression")
+public class LearningLogTests {
+
+	@Test
+	public void encode_roundTripsEntry() throws IOException {
+		LearningLog.Entry entry = LearningLog.Entry.of(Arrays.asList(update("caf\u00e9", "NOUN", 0.21, 0.5)),
+													   Arrays.asList(desiredToken(7L, "NOUN")));
+
+		LearningLog.Entry decoded = LearningLog.decode(9L, LearningLog.encode(entry));
+
+		assertEquals(decoded.getLsn(), 9L);
+		assertEquals(decoded.getUpdates().size(), 1);
+		assertEquals(decoded.getUpdates().get(0).getInputValue(), "caf\u00e9");
+		assertEquals(decoded.getUpdates().get(0).getOutputValue(), "NOUN");
+		assertEquals(decoded.getUpdates().get(0).getDelta(), 0.21, 0.0);
+		assertEquals(decoded.getUpdates().get(0).getInitialWeight(), 0.5, 0.0);
+		assertEquals(LearningLog.desiredTokenRows(Arrays.asList(decoded)).get(0).get("id"), 7L);
+	}
+
+	@Test
+	public void fold_keepsDeltasOfEachPairInLogOrder() {
+		LearningLog.Entry first = LearningLog.Entry.of(Arrays.asList(update("a", "x", 0.1, 0.5), update("b", "x", -0.3, 0.6)),
+													   Arrays.asList(desiredToken(1L, "x")));
+		LearningLog.Entry second = LearningLog.Entry.of(Arrays.asList(update("a", "x", 0.2, 0.9)),
+														Arrays.asList(desiredToken(2L, "x")));
+
+		List<Map<String, Object>> rows = LearningLog.fold(Arrays.asList(first, second));
+
+		assertEquals(rows.size(), 2);
+		assertEquals(rows.get(0).get("input_value"), "a");
+		assertEquals(rows.get(0).get("initial_weight"), 0.5);
+		assertEquals(rows.get(0).get("deltas"), Arrays.asList(0.1, 0.2));
+		assertEquals(rows.get(1).get("deltas"), Arrays.asList(-0.3));
+	}
+
+	@Test
+	public void foldRows_matchesFoldOfEntries() {
+		List<Map<String, Object>> updates = Arrays.asList(update("a", "x", 0.1, 0.5), update("b", "x", -0.3, 0.6), update("a", "x", 0.2, 0.9));
+
+		List<Map<String, Object>> rows = LearningLog.foldRows(updates);
+
+		assertEquals(rows, LearningLog.fold(Arrays.asList(LearningLog.Entry.of(updates, Arrays.<Map<String, Object>>asList()))));
+		assertEquals(rows.get(0).get("deltas"), Arrays.asList(0.1, 0.2));
+	}
+
+	@Test
+	public void desiredTokenRows_keepsLatestFeedbackPerMemory() {
+		LearningLog.Entry first = LearningLog.Entry.of(Arrays.<Map<String, Object>>asList(),
+													   Arrays.asList(desiredToken(1L, "x"), desiredToken(2L, "y")));
+		LearningLog.Entry second = LearningLog.Entry.of(Arrays.<Map<String, Object>>asList(),
+														Arrays.asList(desiredToken(1L, "z")));
+
+		List<Map<String, Object>> rows = LearningLog.desiredTokenRows(Arrays.asList(first, second));
+
+		assertEquals(rows.size(), 2);
+		assertEquals(rows.get(0).get("id"), 2L);
+		assertEquals(rows.get(1).get("token"), "z");
+	}
+
+	private static Map<String, Object> update(String input_value, String output_value, double delta, double initial_weight) {
+		Map<String, Object> row = new HashMap<String, Object>();
+		row.put("input_value", input_value);
+		row.put("output_value", output_value);
+		row.put("delta", delta);
+		row.put("initial_weight", initial_weight);
+		return row;
+	}
+
+	private static Map<String, Object> desiredToken(long memory_id, String token) {
+		Map<String, Object> row = new HashMap<String, Object>();
+		row.put("id", memory_id);
+		row.put("token", token);
+		return row;
+	}
+}
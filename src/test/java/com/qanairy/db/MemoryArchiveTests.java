@@ -0,0 +1,194 @@
+package com.qanairy.db;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.deepthought.models.MemoryRecord;
+import com.deepthought.models.PolicyMatrixCodec;
+import com.deepthought.models.repository.ArchivedMemory;
+
+@Test(groups = "Regression")
+public class MemoryArchiveTests {
+
+	private Path directory;
+
+	@BeforeMethod
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("memory-archive");
+	}
+
+	@AfterMethod
+	public void tearDown() throws IOException {
+		try(Stream<Path> paths = Files.walk(directory)){
+			for(Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())){
+				Files.delete(path);
+			}
+		}
+	}
+
+	@Test
+	public void find_rebuildsArchivedMemory() {
+		MemoryArchive archive = open(1 << 20);
+		archive.append(Arrays.asList(archivedMemory(42L, "a")));
+
+		MemoryRecord memory = archive.find(42L);
+		assertEquals(memory.getID(), Long.valueOf(42L));
+		assertEquals(memory.getDate().getTime(), 1700000000123L);
+		assertEquals(memory.getInputTokenValues(), Arrays.asList("hello", "world"));
+		assertEquals(memory.getOutputTokenKeys(), new String[] { "a", "b" });
+		assertEquals(memory.getPolicyMatrix()[1][0], 0.75, 0.0);
+		assertEquals(memory.getPredictedToken().getValue(), "a");
+		assertEquals(memory.getDesiredToken().getValue(), "b");
+		assertEquals(memory.getPredictions().size(), 2);
+		assertEquals(memory.getPredictions().get(1).getWeight(), 0.4, 0.0);
+		archive.close();
+	}
+
+	@Test
+	public void read_returnsNullForUnknownMemory() {
+		MemoryArchive archive = open(1 << 20);
+		assertNull(archive.read(1L));
+		assertNull(archive.find(1L));
+		archive.close();
+	}
+
+	@Test
+	public void open_rebuildsIndexFromSegments() {
+		MemoryArchive archive = open(1 << 20);
+		archive.append(Arrays.asList(archivedMemory(1L, "a"), archivedMemory(2L, "b")));
+		archive.close();
+
+		MemoryArchive reopened = open(1 << 20);
+		assertEquals(reopened.size(), 2);
+		assertEquals(reopened.read(2L).getPredictedToken(), "b");
+		reopened.close();
+	}
+
+	@Test
+	public void open_truncatesPartiallyWrittenEntry() throws IOException {
+		MemoryArchive archive = open(1 << 20);
+		archive.append(Arrays.asList(archivedMemory(1L, "a")));
+		archive.close();
+
+		Path segment = segments().get(0);
+		long size = Files.size(segment);
+		Files.write(segment, new byte[] { 0, 0, 0, 0, 0, 0, 0, 9, 0, 0, 1 }, StandardOpenOption.APPEND);
+
+		MemoryArchive reopened = open(1 << 20);
+		assertEquals(Files.size(segment), size);
+		assertEquals(reopened.read(1L).getPredictedToken(), "a");
+		reopened.append(Arrays.asList(archivedMemory(9L, "b")));
+		assertEquals(reopened.read(9L).getPredictedToken(), "b");
+		reopened.close();
+	}
+
+	@Test
+	public void open_truncatesAtFirstCorruptEntry() throws IOException {
+		MemoryArchive archive = open(1 << 20);
+		archive.append(Arrays.asList(archivedMemory(1L, "a")));
+		Path segment = segments().get(0);
+		long size = Files.size(segment);
+		archive.append(Arrays.asList(archivedMemory(2L, "b"), archivedMemory(3L, "c")));
+		archive.close();
+
+		byte[] bytes = Files.readAllBytes(segment);
+		bytes[(int) size + MemoryArchive.ENTRY_HEADER_BYTES] ^= 0x01;
+		Files.write(segment, bytes);
+
+		MemoryArchive reopened = open(1 << 20);
+		assertEquals(Files.size(segment), size);
+		assertEquals(reopened.size(), 1);
+		assertEquals(reopened.read(1L).getPredictedToken(), "a");
+		assertNull(reopened.read(2L));
+		assertNull(reopened.read(3L));
+		reopened.close();
+	}
+
+	@Test
+	public void append_startsNewSegmentWhenFull() throws IOException {
+		MemoryArchive archive = open(1);
+		archive.append(Arrays.asList(archivedMemory(1L, "a"), archivedMemory(2L, "b"), archivedMemory(3L, "c")));
+
+		assertEquals(segments().size(), 3);
+		assertEquals(archive.read(1L).getPredictedToken(), "a");
+		assertEquals(archive.read(3L).getPredictedToken(), "c");
+		archive.close();
+	}
+
+	@Test
+	public void append_latestEntryWinsForRepeatedId() {
+		MemoryArchive archive = open(1 << 20);
+		archive.append(Arrays.asList(archivedMemory(1L, "a")));
+		archive.append(Arrays.asList(archivedMemory(1L, "b")));
+		archive.close();
+
+		MemoryArchive reopened = open(1 << 20);
+		assertEquals(reopened.size(), 1);
+		assertEquals(reopened.read(1L).getPredictedToken(), "b");
+		assertTrue(reopened.contains(1L));
+		reopened.close();
+	}
+
+	@Test
+	public void append_keepsMemoriesThatReusedAnId() {
+		ArchivedMemory reused = archivedMemory(1L, "b");
+		reused.setDate("2023-11-15T22:13:20.123Z");
+		MemoryArchive archive = open(1 << 20);
+		archive.append(Arrays.asList(archivedMemory(1L, "a")));
+		archive.append(Arrays.asList(reused));
+		archive.close();
+
+		MemoryArchive reopened = open(1 << 20);
+		assertEquals(reopened.size(), 2);
+		assertEquals(reopened.read(1L).getPredictedToken(), "b");
+		assertEquals(reopened.read(1L, new Date(1700000000123L)).getPredictedToken(), "a");
+		assertEquals(reopened.find(1L, new Date(1700086400123L)).getPredictedToken().getValue(), "b");
+		assertNull(reopened.read(1L, new Date(1700000000124L)));
+		reopened.close();
+	}
+
+	private MemoryArchive open(long segment_max_bytes) {
+		MemoryArchive archive = new MemoryArchive(directory.toString(), segment_max_bytes);
+		archive.open();
+		return archive;
+	}
+
+	private List<Path> segments() throws IOException {
+		try(Stream<Path> paths = Files.list(directory)){
+			return paths.sorted().collect(Collectors.toList());
+		}
+	}
+
+	private static ArchivedMemory archivedMemory(long id, String predicted_token) {
+		byte[] policy = PolicyMatrixCodec.encode(new double[][] { { 0.5, 0.25 }, { 0.75, 1.0 } }, PolicyMatrixCodec.Encoding.FLOAT32);
+
+		ArchivedMemory memory = new ArchivedMemory();
+		memory.setId(id);
+		memory.setDate("2023-11-14T22:13:20.123Z");
+		memory.setInputTokenValues(Arrays.asList("hello", "world"));
+		memory.setOutputTokenValues(Arrays.asList("a", "b"));
+		memory.setPolicyMatrix(Base64.getEncoder().encodeToString(policy));
+		memory.setPredictedToken(predicted_token);
+		memory.setDesiredToken("b");
+		memory.setPredictionTokens(Arrays.asList("a", "b"));
+		memory.setPredictionWeights(Arrays.asList(0.6, 0.4));
+		return memory;
+	}
+}
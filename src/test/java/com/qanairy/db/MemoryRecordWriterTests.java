@@ -0,0 +1,200 @@
+package com.qanairy.db;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.deepthought.models.MemoryRecord;
+import com.deepthought.models.Token;
+import com.deepthought.models.edges.Prediction;
+import com.deepthought.models.repository.MemoryRecordRepository;
+import com.deepthought.models.repository.PredictionRepository;
+
+@Test(groups = "Regression")
+public class MemoryRecordWriterTests {
+
+	private MemoryRecordWriter writer;
+	private MemoryRecordRepository memory_repo;
+	private long next_id;
+
+	@BeforeMethod
+	public void setUp() throws Exception {
+		memory_repo = mock(MemoryRecordRepository.class);
+		next_id = 100L;
+		when(memory_repo.reserveIds(anyInt())).thenAnswer(inv -> {
+			List<Long> ids = new ArrayList<Long>();
+			for(int idx = 0; idx < inv.<Integer>getArgument(0); idx++){
+				ids.add(next_id++);
+			}
+			return ids;
+		});
+		when(memory_repo.persistReserved(any())).thenAnswer(inv -> writtenIds(inv.getArgument(0)));
+
+		writer = new MemoryRecordWriter();
+		setField("memory_repo", memory_repo);
+		setField("prediction_repo", mock(PredictionRepository.class));
+		setField("write_behind_enabled", true);
+		setField("queue_capacity", 2);
+		setField("batch_size", 10);
+		setField("id_block_size", 4);
+		//long enough that the background flusher never runs during a test
+		setField("flush_interval_ms", 3600000L);
+		setField("reservation_ttl_ms", 7200000L);
+		writer.start();
+	}
+
+	@AfterMethod
+	public void tearDown() {
+		try{
+			writer.shutdown();
+		}
+		catch(RuntimeException e){
+			//tests that fail every write leave memories queued
+		}
+	}
+
+	@Test
+	public void save_returnsReservedIdAndPersistsOnAwait() {
+		MemoryRecord memory = writer.save(memory("apple"), Collections.<Prediction>emptyList());
+
+		assertEquals(memory.getID(), Long.valueOf(100L));
+		assertEquals(writer.getPendingCount(), 1);
+		assertTrue(writer.awaitPersisted(100L));
+		assertEquals(writer.getPendingCount(), 0);
+		verify(memory_repo).persistReserved(any());
+	}
+
+	@Test
+	public void save_flushesOnCallingThreadWhenQueueIsFull() {
+		writer.save(memory("a"), Collections.<Prediction>emptyList());
+		writer.save(memory("b"), Collections.<Prediction>emptyList());
+		writer.save(memory("c"), Collections.<Prediction>emptyList());
+
+		verify(memory_repo, times(1)).persistReserved(any());
+		assertEquals(writer.getPendingCount(), 1);
+	}
+
+	@Test
+	public void save_doesNotLeaveMemoryPending_whenBackPressureFlushFails() {
+		doThrow(new RuntimeException("database unavailable")).when(memory_repo).persistReserved(any());
+		writer.save(memory("a"), Collections.<Prediction>emptyList());
+		writer.save(memory("b"), Collections.<Prediction>emptyList());
+
+		try{
+			writer.save(memory("c"), Collections.<Prediction>emptyList());
+			fail("Expected the failed flush to be rethrown");
+		}
+		catch(RuntimeException e){
+			assertEquals(e.getMessage(), "database unavailable");
+		}
+
+		assertEquals(writer.getPendingCount(), 2);
+		assertTrue(writer.awaitPersisted(102L));
+		assertFalse(writer.awaitPersisted(100L));
+	}
+
+	@Test
+	public void flush_requeuesBatchWhenWriteFails() {
+		doThrow(new RuntimeException("database unavailable"))
+				.doAnswer(inv -> writtenIds(inv.getArgument(0)))
+				.when(memory_repo).persistReserved(any());
+		writer.save(memory("a"), Collections.<Prediction>emptyList());
+
+		assertFalse(writer.awaitPersisted(100L));
+		assertEquals(writer.getPendingCount(), 1);
+		assertTrue(writer.awaitPersisted(100L));
+		assertEquals(writer.getPendingCount(), 0);
+	}
+
+	@Test
+	public void flush_reportsMemoriesWhoseReservationWasDeleted() {
+		doReturn(Arrays.asList(100L)).when(memory_repo).persistReserved(any());
+		writer.save(memory("a"), Collections.<Prediction>emptyList());
+		writer.save(memory("b"), Collections.<Prediction>emptyList());
+
+		writer.flush();
+
+		assertEquals(writer.getPendingCount(), 0);
+		assertEquals(writer.getLostCount(), 1L);
+		assertTrue(writer.awaitPersisted(101L));
+	}
+
+	@Test
+	public void save_releasesReservedIdsOlderThanHalfTheTtl() throws Exception {
+		writer.save(memory("a"), Collections.<Prediction>emptyList());
+		setField("reserved_ids_at", 0L);
+
+		MemoryRecord memory = writer.save(memory("b"), Collections.<Prediction>emptyList());
+
+		verify(memory_repo).releaseIds(Arrays.asList(101L, 102L, 103L));
+		assertEquals(memory.getID(), Long.valueOf(104L));
+	}
+
+	@Test
+	public void shutdown_flushesQueuedMemoriesAndReleasesUnusedIds() {
+		writer.save(memory("a"), Collections.<Prediction>emptyList());
+
+		writer.shutdown();
+
+		verify(memory_repo).persistReserved(any());
+		verify(memory_repo).releaseIds(Arrays.asList(101L, 102L, 103L));
+		assertEquals(writer.getPendingCount(), 0);
+	}
+
+	@Test
+	public void save_writesImmediately_whenWriteBehindIsDisabled() throws Exception {
+		writer.shutdown();
+		setField("write_behind_enabled", false);
+		when(memory_repo.save(any(MemoryRecord.class))).thenAnswer(inv -> inv.getArgument(0));
+
+		writer.save(memory("a"), Collections.<Prediction>emptyList());
+
+		verify(memory_repo).save(any(MemoryRecord.class));
+		verify(memory_repo, never()).reserveIds(anyInt());
+	}
+
+	private static List<Long> writtenIds(List<Map<String, Object>> rows) {
+		List<Long> ids = new ArrayList<Long>();
+		for(Map<String, Object> row : rows){
+			ids.add((Long)row.get("id"));
+		}
+		return ids;
+	}
+
+	private static MemoryRecord memory(String input_value) {
+		MemoryRecord memory = new MemoryRecord();
+		memory.setDate(new Date());
+		memory.setInputTokenValues(Arrays.asList(input_value));
+		memory.setOutputTokenKeys(new String[] { "fruit" });
+		memory.setPredictedToken(new Token("fruit"));
+		return memory;
+	}
+
+	private void setField(String name, Object value) throws Exception {
+		Field f = MemoryRecordWriter.class.getDeclaredField(name);
+		f.setAccessible(true);
+		f.set(writer, value);
+	}
+}
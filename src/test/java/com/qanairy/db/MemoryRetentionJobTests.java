@@ -0,0 +1,109 @@
+package com.qanairy.db;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.fail;
+
+import java.lang.reflect.Field;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.mockito.InOrder;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.deepthought.models.repository.ArchivedMemory;
+import com.deepthought.models.repository.MemoryRecordRepository;
+
+@Test(groups = "Regression")
+public class MemoryRetentionJobTests {
+
+	private MemoryRetentionJob job;
+	private MemoryRecordRepository memory_repo;
+	private MemoryArchive memory_archive;
+
+	@BeforeMethod
+	public void setUp() throws Exception {
+		memory_repo = mock(MemoryRecordRepository.class);
+		memory_archive = mock(MemoryArchive.class);
+		job = new MemoryRetentionJob();
+		setField("memory_repo", memory_repo);
+		setField("memory_archive", memory_archive);
+		setField("batch_size", 2);
+		setField("archive_learned", true);
+		when(memory_repo.findCreatedBefore(any(), anyInt())).thenReturn(Collections.emptyList());
+		when(memory_repo.findLearned(anyInt())).thenReturn(Collections.emptyList());
+	}
+
+	private void setField(String name, Object value) throws Exception {
+		Field f = MemoryRetentionJob.class.getDeclaredField(name);
+		f.setAccessible(true);
+		f.set(job, value);
+	}
+
+	@Test
+	public void archive_archivesEachBatchBeforeDeletingIt() {
+		List<ArchivedMemory> first = Arrays.asList(archivedMemory(1L), archivedMemory(2L));
+		List<ArchivedMemory> second = Arrays.asList(archivedMemory(3L));
+		when(memory_repo.findCreatedBefore("2024-01-01T00:00:00.000Z", 2))
+				.thenReturn(first, second, Collections.emptyList());
+
+		int archived = job.archive(Instant.parse("2024-01-01T00:00:00Z"));
+
+		assertEquals(archived, 3);
+		InOrder order = inOrder(memory_archive, memory_repo);
+		order.verify(memory_archive).append(first);
+		order.verify(memory_repo).deleteByIds(Arrays.asList(1L, 2L));
+		order.verify(memory_archive).append(second);
+		order.verify(memory_repo).deleteByIds(Arrays.asList(3L));
+	}
+
+	@Test
+	public void archive_includesLearnedMemoriesWhenEnabled() {
+		List<ArchivedMemory> learned = Arrays.asList(archivedMemory(4L));
+		when(memory_repo.findLearned(2)).thenReturn(learned, Collections.emptyList());
+
+		assertEquals(job.archive(Instant.now()), 1);
+		verify(memory_repo).deleteByIds(Arrays.asList(4L));
+	}
+
+	@Test
+	public void archive_skipsLearnedMemoriesWhenDisabled() throws Exception {
+		setField("archive_learned", false);
+
+		assertEquals(job.archive(Instant.now()), 0);
+		verify(memory_repo, never()).findLearned(anyInt());
+		verify(memory_archive, never()).append(any());
+	}
+
+	@Test
+	public void archive_doesNotDeleteWhenArchiveFails() {
+		List<ArchivedMemory> batch = Arrays.asList(archivedMemory(5L));
+		when(memory_repo.findCreatedBefore(any(), eq(2))).thenReturn(batch);
+		doThrow(new IllegalStateException("disk full")).when(memory_archive).append(batch);
+
+		try {
+			job.archive(Instant.now());
+			fail("Expected IllegalStateException");
+		} catch (IllegalStateException e) {
+			assertEquals(e.getMessage(), "disk full");
+		}
+		verify(memory_repo, never()).deleteByIds(any());
+	}
+
+	private static ArchivedMemory archivedMemory(long id) {
+		ArchivedMemory memory = new ArchivedMemory();
+		memory.setId(id);
+		return memory;
+	}
+}
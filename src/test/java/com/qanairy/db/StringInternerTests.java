@@ -0,0 +1,49 @@
+package com.qanairy.db;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+
+import org.testng.annotations.Test;
+
+@Test(groups = "Regression")
+public class StringInternerTests {
+
+	@Test
+	public void intern_returnsSameStringForEqualRegions() {
+		StringInterner interner = new StringInterner(16);
+		String first = interner.intern("hello world", 0, 5);
+		String second = interner.intern("say hello", 4, 5);
+
+		assertEquals(first, "hello");
+		assertSame(second, first);
+		assertEquals(interner.size(), 1);
+	}
+
+	@Test
+	public void intern_startsNewGenerationWhenFull() {
+		StringInterner interner = new StringInterner(100);
+		String first = interner.intern("word0", 0, 5);
+		for(int i = 1; i < 100; i++){
+			interner.intern("word" + i, 0, ("word" + i).length());
+		}
+		assertEquals(interner.size(), 100);
+		assertSame(interner.intern(new String("word0"), 0, 5), first);
+
+		String overflow = interner.intern("overflow", 0, 8);
+		assertEquals(interner.size(), 1);
+		assertSame(interner.intern("an overflow", 3, 8), overflow);
+		assertNotSame(interner.intern(new String("word0"), 0, 5), first);
+		assertEquals(interner.size(), 2);
+	}
+
+	@Test
+	public void clear_removesEveryString() {
+		StringInterner interner = new StringInterner(16);
+		String first = interner.intern("hello", 0, 5);
+		interner.clear();
+
+		assertEquals(interner.size(), 0);
+		assertNotSame(interner.intern(new String("hello"), 0, 5), first);
+	}
+}
@@ -0,0 +1,153 @@
+package com.qanairy.db;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test(groups = "Regression")
+public class TokenWeightSnapshotTests {
+
+	private Path file;
+
+	@BeforeMethod
+	public void setUp() throws IOException {
+		file = Files.createTempFile("token-weights", TokenWeightSnapshot.EXTENSION);
+	}
+
+	@AfterMethod
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(file);
+	}
+
+	@Test
+	public void reader_returnsConnectionsAndDictionaryWrittenByWriter() throws IOException {
+		try(TokenWeightSnapshot.Writer writer = new TokenWeightSnapshot.Writer(Files.newOutputStream(file))){
+			writer.add(0, 1, 0.5f);
+			writer.add(1, 2, 0.25f);
+			writer.finish(Arrays.asList("hello", "world", "h\u00e9llo"));
+		}
+
+		try(TokenWeightSnapshot.Reader reader = new TokenWeightSnapshot.Reader(file)){
+			assertEquals(reader.getTokens(), Arrays.asList("hello", "world", "h\u00e9llo"));
+			assertEquals(reader.getConnectionCount(), 2L);
+
+			int[] inputs = new int[TokenWeightSnapshot.BLOCK_SIZE];
+			int[] outputs = new int[TokenWeightSnapshot.BLOCK_SIZE];
+			float[] weights = new float[TokenWeightSnapshot.BLOCK_SIZE];
+			assertEquals(reader.readBlock(inputs, outputs, weights), 2);
+			assertEquals(inputs[1], 1);
+			assertEquals(outputs[1], 2);
+			assertEquals(weights[0], 0.5f, 0.0f);
+			assertEquals(reader.readBlock(inputs, outputs, weights), 0);
+		}
+	}
+
+	@Test
+	public void reader_streamsConnectionsAcrossBlocks() throws IOException {
+		int connections = TokenWeightSnapshot.BLOCK_SIZE * 2 + 3;
+		try(TokenWeightSnapshot.Writer writer = new TokenWeightSnapshot.Writer(Files.newOutputStream(file))){
+			for(int idx = 0; idx < connections; idx++){
+				writer.add(idx % 2, (idx + 1) % 2, idx);
+			}
+			writer.finish(Arrays.asList("a", "b"));
+		}
+
+		try(TokenWeightSnapshot.Reader reader = new TokenWeightSnapshot.Reader(file)){
+			int[] inputs = new int[TokenWeightSnapshot.BLOCK_SIZE];
+			int[] outputs = new int[TokenWeightSnapshot.BLOCK_SIZE];
+			float[] weights = new float[TokenWeightSnapshot.BLOCK_SIZE];
+			int total = 0;
+			int count;
+			while((count = reader.readBlock(inputs, outputs, weights)) > 0){
+				assertEquals(weights[count - 1], (float)(total + count - 1), 0.0f);
+				assertEquals(inputs[0], total % 2);
+				total += count;
+			}
+			assertEquals(total, connections);
+			assertEquals(reader.getConnectionCount(), (long)connections);
+		}
+	}
+
+	@Test
+	public void reader_rejectsTruncatedSnapshot() throws IOException {
+		try(TokenWeightSnapshot.Writer writer = new TokenWeightSnapshot.Writer(Files.newOutputStream(file))){
+			writer.add(0, 0, 1.0f);
+			writer.finish(Arrays.asList("a"));
+		}
+		byte[] bytes = Files.readAllBytes(file);
+		Files.write(file, Arrays.copyOf(bytes, bytes.length - 1), StandardOpenOption.TRUNCATE_EXISTING);
+
+		try{
+			new TokenWeightSnapshot.Reader(file).close();
+			fail("Expected IOException");
+		}
+		catch(IOException e){
+			assertTrue(e.getMessage().contains("trailer"));
+		}
+	}
+
+	@Test
+	public void verify_readsEveryBlockOfValidSnapshot() throws IOException {
+		try(TokenWeightSnapshot.Writer writer = new TokenWeightSnapshot.Writer(Files.newOutputStream(file))){
+			for(int idx = 0; idx < TokenWeightSnapshot.BLOCK_SIZE + 1; idx++){
+				writer.add(0, 1, 1.0f);
+			}
+			writer.finish(Arrays.asList("a", "b"));
+		}
+
+		try(TokenWeightSnapshot.Reader reader = new TokenWeightSnapshot.Reader(file)){
+			reader.verify();
+		}
+	}
+
+	@Test
+	public void verify_rejectsConnectionsToUnknownTokens() throws IOException {
+		try(TokenWeightSnapshot.Writer writer = new TokenWeightSnapshot.Writer(Files.newOutputStream(file))){
+			writer.add(0, 0, 1.0f);
+			writer.add(0, 3, 1.0f);
+			writer.finish(Arrays.asList("a"));
+		}
+
+		try(TokenWeightSnapshot.Reader reader = new TokenWeightSnapshot.Reader(file)){
+			reader.verify();
+			fail("Expected IOException");
+		}
+		catch(IOException e){
+			assertTrue(e.getMessage().contains("unknown token"));
+		}
+	}
+
+	@Test
+	public void pathOf_resolvesNamesInsideSnapshotDirectory() throws Exception {
+		TokenWeightSnapshot snapshot = new TokenWeightSnapshot();
+		Field directory = TokenWeightSnapshot.class.getDeclaredField("directory");
+		directory.setAccessible(true);
+		directory.set(snapshot, "target/snapshots");
+
+		Path path = snapshot.pathOf("model-2024.01_a");
+		assertEquals(path.getFileName().toString(), "model-2024.01_a" + TokenWeightSnapshot.EXTENSION);
+		assertEquals(path.getParent(), Paths.get("target/snapshots").toAbsolutePath());
+
+		for(String name : new String[] { "../etc/passwd", "a/b", ".hidden", "", null }){
+			try{
+				snapshot.pathOf(name);
+				fail("Expected IllegalArgumentException for " + name);
+			}
+			catch(IllegalArgumentException e){
+				//expected
+			}
+		}
+	}
+}
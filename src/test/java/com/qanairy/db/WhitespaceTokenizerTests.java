@@ -0,0 +1,94 @@
+package com.qanairy.db;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+@Test(groups = "Regression")
+public class WhitespaceTokenizerTests {
+
+	@Test
+	public void tokenize_findsWordsBetweenWhitespaceRuns() {
+		WhitespaceTokenizer tokenizer = new WhitespaceTokenizer(1);
+		String text = "  hello\tbrave \r\n new\u000Bworld\f ";
+
+		assertEquals(tokenizer.tokenize(text), 4);
+		assertEquals(words(tokenizer, text), Arrays.asList("hello", "brave", "new", "world"));
+		assertEquals(tokenizer.offset(1), 8);
+		assertEquals(tokenizer.length(1), 5);
+	}
+
+	@Test
+	public void tokenize_matchesRegexSplitWithoutEmptyWords() {
+		String text = "a  b c\td ";
+		List<String> expected = new ArrayList<String>(Arrays.asList(text.split("\\s+")));
+		WhitespaceTokenizer tokenizer = new WhitespaceTokenizer();
+		tokenizer.tokenize(text);
+
+		assertEquals(words(tokenizer, text), expected);
+	}
+
+	@Test
+	public void tokenize_reusesBuffersAcrossCalls() {
+		WhitespaceTokenizer tokenizer = new WhitespaceTokenizer();
+		tokenizer.tokenize("one two three");
+
+		assertEquals(tokenizer.tokenize(" \t "), 0);
+		assertEquals(tokenizer.tokenize(new StringBuilder("four")), 1);
+		assertEquals(tokenizer.length(0), 4);
+	}
+
+	@Test
+	public void tokenize_passesEachWordToSink() {
+		List<String> words = new ArrayList<String>();
+		new WhitespaceTokenizer().tokenize("x yy zzz", (text, offset, length) -> words.add(text.subSequence(offset, offset + length).toString()));
+
+		assertEquals(words, Arrays.asList("x", "yy", "zzz"));
+	}
+
+	@Test(expectedExceptions = IndexOutOfBoundsException.class)
+	public void offset_rejectsWordBeyondCount() {
+		WhitespaceTokenizer tokenizer = new WhitespaceTokenizer();
+		tokenizer.tokenize("a b");
+		tokenizer.offset(2);
+	}
+
+	@Test
+	public void intern_returnsSameStringForEqualRegions() {
+		StringInterner interner = new StringInterner(100);
+		String first = interner.intern("the cat and the hat", 0, 3);
+		String second = interner.intern("the cat and the hat", 12, 3);
+
+		assertEquals(first, "the");
+		assertSame(second, first);
+		assertEquals(interner.size(), 1);
+	}
+
+	@Test
+	public void intern_stopsAddingOnceFull() {
+		StringInterner interner = new StringInterner(2);
+		for(int idx = 0; idx < 100; idx++){
+			interner.intern("word" + idx, 0, ("word" + idx).length());
+		}
+		assertEquals(interner.size(), 2);
+
+		String word = interner.intern("xword50", 1, 6);
+		assertEquals(word, "word50");
+		assertNotSame(interner.intern("xword50", 1, 6), word);
+		assertSame(interner.intern("word1", 0, 5), interner.intern("xword1", 1, 5));
+	}
+
+	private static List<String> words(WhitespaceTokenizer tokenizer, String text) {
+		List<String> words = new ArrayList<String>();
+		for(int idx = 0; idx < tokenizer.count(); idx++){
+			words.add(text.substring(tokenizer.offset(idx), tokenizer.offset(idx) + tokenizer.length(idx)));
+		}
+		return words;
+	}
+}
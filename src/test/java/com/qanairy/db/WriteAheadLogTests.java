@@ -0,0 +1,153 @@
+package com.qanairy.db;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test(groups = "Regression")
+public class WriteAheadLogTests {
+
+	private Path directory;
+
+	@BeforeMethod
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("write-ahead-log");
+	}
+
+	@AfterMethod
+	public void tearDown() throws IOException {
+		try(Stream<Path> paths = Files.walk(directory)){
+			for(Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())){
+				Files.delete(path);
+			}
+		}
+	}
+
+	@Test
+	public void open_returnsRecordsAfterCheckpoint() throws IOException {
+		WriteAheadLog wal = new WriteAheadLog(directory, 1 << 20);
+		wal.open(0);
+		assertEquals(wal.append(bytes("a")), 1L);
+		assertEquals(wal.append(bytes("b")), 2L);
+		long lsn = wal.append(bytes("c"));
+		wal.sync(lsn);
+		wal.close();
+
+		WriteAheadLog reopened = new WriteAheadLog(directory, 1 << 20);
+		List<WriteAheadLog.LogRecord> records = reopened.open(1);
+		assertEquals(records.size(), 2);
+		assertEquals(records.get(0).getLsn(), 2L);
+		assertEquals(new String(records.get(1).getPayload(), StandardCharsets.UTF_8), "c");
+		assertEquals(reopened.append(bytes("d")), 4L);
+		reopened.close();
+	}
+
+	@Test
+	public void open_truncatesPartiallyWrittenRecord() throws IOException {
+		WriteAheadLog wal = new WriteAheadLog(directory, 1 << 20);
+		wal.open(0);
+		wal.append(bytes("a"));
+		wal.sync(wal.append(bytes("b")));
+		wal.close();
+
+		Path segment = onlySegment();
+		long size = Files.size(segment);
+		Files.write(segment, new byte[] { 0, 0, 0, 0, 0, 0, 0, 3, 0, 0 }, StandardOpenOption.APPEND);
+
+		WriteAheadLog reopened = new WriteAheadLog(directory, 1 << 20);
+		assertEquals(reopened.open(0).size(), 2);
+		assertEquals(Files.size(segment), size);
+		assertEquals(reopened.append(bytes("c")), 3L);
+		reopened.close();
+
+		assertEquals(new WriteAheadLog(directory, 1 << 20).open(0).size(), 3);
+	}
+
+	@Test
+	public void open_dropsRecordWithChecksumMismatch() throws IOException {
+		WriteAheadLog wal = new WriteAheadLog(directory, 1 << 20);
+		wal.open(0);
+		wal.append(bytes("a"));
+		wal.sync(wal.append(bytes("b")));
+		wal.close();
+
+		//corrupt the payload of the last record
+		Path segment = onlySegment();
+		byte[] contents = Files.readAllBytes(segment);
+		contents[contents.length - 1] ^= 0x7f;
+		Files.write(segment, contents);
+
+		List<WriteAheadLog.LogRecord> records = new WriteAheadLog(directory, 1 << 20).open(0);
+		assertEquals(records.size(), 1);
+		assertEquals(records.get(0).getLsn(), 1L);
+	}
+
+	@Test
+	public void open_continuesAfterCheckpointBeyondLog() throws IOException {
+		WriteAheadLog wal = new WriteAheadLog(directory, 1 << 20);
+		wal.open(0);
+		wal.sync(wal.append(bytes("a")));
+		wal.close();
+
+		//the graph checkpoint is ahead of the log, e.g. after the log directory was replaced
+		WriteAheadLog reopened = new WriteAheadLog(directory, 1 << 20);
+		assertTrue(reopened.open(10).isEmpty());
+		assertEquals(reopened.append(bytes("b")), 11L);
+		reopened.close();
+
+		List<WriteAheadLog.LogRecord> records = new WriteAheadLog(directory, 1 << 20).open(10);
+		assertEquals(records.size(), 1);
+		assertEquals(records.get(0).getLsn(), 11L);
+	}
+
+	@Test
+	public void truncate_deletesAppliedSegments() throws IOException {
+		WriteAheadLog wal = new WriteAheadLog(directory, 1);
+		wal.open(0);
+		for(int idx = 0; idx < 4; idx++){
+			wal.sync(wal.append(bytes("entry " + idx)));
+		}
+		assertEquals(segmentCount(), 4L);
+
+		wal.truncate(2);
+		assertEquals(segmentCount(), 2L);
+		wal.truncate(4);
+		assertEquals(segmentCount(), 1L);
+		wal.close();
+
+		List<WriteAheadLog.LogRecord> records = new WriteAheadLog(directory, 1).open(2);
+		assertEquals(records.size(), 1);
+		assertEquals(records.get(0).getLsn(), 4L);
+	}
+
+	private Path onlySegment() throws IOException {
+		try(Stream<Path> paths = Files.list(directory)){
+			List<Path> segments = paths.collect(Collectors.toList());
+			assertEquals(segments.size(), 1);
+			return segments.get(0);
+		}
+	}
+
+	private long segmentCount() throws IOException {
+		try(Stream<Path> paths = Files.list(directory)){
+			return paths.count();
+		}
+	}
+
+	private static byte[] bytes(String value) {
+		return value.getBytes(StandardCharsets.UTF_8);
+	}
+}
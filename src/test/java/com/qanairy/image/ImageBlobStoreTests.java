@@ -0,0 +1,127 @@
+package com.qanairy.image;
+
+import static org.testng.Assert.*;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.deepthought.models.ImageMatrixNode;
+
+/**
+ * Unit tests for ImageBlobStore. Uses a temporary directory per test.
+ */
+@Test(groups = "Regression")
+public class ImageBlobStoreTests {
+
+	private Path directory;
+	private ImageBlobStore store;
+
+	@BeforeMethod
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("image-blobs");
+		store = new ImageBlobStore(true, directory.toString());
+	}
+
+	@AfterMethod
+	public void tearDown() throws IOException {
+		try (Stream<Path> paths = Files.walk(directory)) {
+			paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	@Test
+	public void write_storesBlobUnderShardedContentHash() {
+		byte[] content = new byte[] { 1, 2, 3, 4 };
+		String hash = store.write(content);
+
+		assertEquals(hash, ImageBlobStore.hash(content));
+		assertEquals(hash.length(), 64);
+		Path path = store.pathOf(hash);
+		assertEquals(path.getParent().getFileName().toString(), hash.substring(2, 4));
+		assertEquals(path.getParent().getParent().getFileName().toString(), hash.substring(0, 2));
+		assertTrue(store.contains(hash));
+	}
+
+	@Test
+	public void write_isIdempotentForSameContent() throws IOException {
+		String first = store.write(new byte[] { 9, 9 });
+		String second = store.write(new byte[] { 9, 9 });
+
+		assertEquals(first, second);
+		try (Stream<Path> files = Files.list(store.pathOf(first).getParent())) {
+			assertEquals(files.count(), 1L);
+		}
+	}
+
+	@Test
+	public void map_returnsStoredContent() {
+		String hash = store.write(new byte[] { 5, 6, 7 });
+		ByteBuffer buffer = store.map(hash);
+
+		assertEquals(buffer.remaining(), 3);
+		assertEquals(buffer.get(2), (byte) 7);
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void pathOf_rejectsNonHashKeys() {
+		store.pathOf("../../etc/passwd");
+	}
+
+	@Test
+	public void externalizeAndAttach_roundTripsNodePixels() throws Exception {
+		int[][][] rgb = new int[][][] { { { 10, 20, 30 }, { 40, 50, 60 } } };
+		ImageMatrixNode node = new ImageMatrixNode(ImageMatrixNode.Type.ORIGINAL, 2, 1, rgb);
+
+		store.externalize(node);
+		assertNull(node.getPackedPixels());
+		assertTrue(store.contains(node.getPixelHash()));
+
+		//simulate the node as loaded from the graph, which only has the hash and dimensions
+		ImageMatrixNode loaded = new ImageMatrixNode();
+		loaded.setWidth(2);
+		loaded.setHeight(1);
+		setField(loaded, "channels", 3);
+		setField(loaded, "pixel_hash", node.getPixelHash());
+		assertTrue(loaded.isPixelsDetached());
+
+		store.attach(loaded);
+		assertEquals(loaded.getPixel(1, 0, 2), 60);
+		assertEquals(loaded.getRgbMatrix()[0][0][1], 20);
+	}
+
+	@Test
+	public void attachAll_attachesDetachedNodesAndKeepsInMemoryNodes() throws Exception {
+		ImageMatrixNode stored = new ImageMatrixNode(ImageMatrixNode.Type.OUTLINE, 1, 1, new int[][][] { { { 1, 2, 3 } } });
+		store.externalize(stored);
+		ImageMatrixNode loaded = new ImageMatrixNode();
+		loaded.setWidth(1);
+		loaded.setHeight(1);
+		setField(loaded, "channels", 3);
+		setField(loaded, "pixel_hash", stored.getPixelHash());
+		ImageMatrixNode in_memory = new ImageMatrixNode(ImageMatrixNode.Type.PCA, 1, 1, new int[][][] { { { 4, 5, 6 } } });
+
+		List<ImageMatrixNode> nodes = Arrays.asList(loaded, in_memory);
+		assertSame(store.attachAll(nodes), nodes);
+
+		assertFalse(loaded.isPixelsDetached());
+		assertEquals(loaded.getPixel(0, 0, 2), 3);
+		assertEquals(in_memory.getPixel(0, 0, 0), 4);
+	}
+
+	private static void setField(Object target, String name, Object value) throws Exception {
+		Field f = target.getClass().getDeclaredField(name);
+		f.setAccessible(true);
+		f.set(target, value);
+	}
+}
@@ -0,0 +1,122 @@
+package com.qanairy.image;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.deepthought.models.ImageMatrixNode;
+import com.deepthought.models.repository.ImageMatrixNodeRepository;
+
+/**
+ * Unit tests for ImageMatrixMigration with a mocked repository and blob store.
+ */
+@Test(groups = "Regression")
+public class ImageMatrixMigrationTests {
+
+	private ImageMatrixMigration migration;
+	private ImageMatrixNodeRepository image_matrix_repo;
+	private ImageBlobStore image_blob_store;
+
+	@BeforeMethod
+	public void setUp() throws Exception {
+		image_matrix_repo = mock(ImageMatrixNodeRepository.class);
+		image_blob_store = mock(ImageBlobStore.class);
+		when(image_matrix_repo.findLegacyMatrixNodes(anyLong(), anyInt())).thenReturn(Collections.<ImageMatrixNode>emptyList());
+
+		migration = new ImageMatrixMigration();
+		setField("image_matrix_repo", image_matrix_repo);
+		setField("image_blob_store", image_blob_store);
+		setField("batch_size", 2);
+	}
+
+	@Test
+	public void migrate_savesConvertedNodesPageByPage() throws Exception {
+		ImageMatrixNode first = legacyNode(3L, "[[[10,20,30],[40,50,60]]]");
+		ImageMatrixNode second = legacyNode(5L, "[[[1,2,3]]]");
+		ImageMatrixNode third = legacyNode(8L, "[[[7,8,9]]]");
+		when(image_matrix_repo.findLegacyMatrixNodes(-1L, 2)).thenReturn(Arrays.asList(first, second));
+		when(image_matrix_repo.findLegacyMatrixNodes(5L, 2)).thenReturn(Arrays.asList(third));
+
+		assertEquals(migration.migrate(), 3);
+
+		verify(image_matrix_repo).save(first, 0);
+		verify(image_matrix_repo).save(second, 0);
+		verify(image_matrix_repo).save(third, 0);
+		verify(image_matrix_repo).findLegacyMatrixNodes(8L, 2);
+		assertEquals(first.getPackedPixels().length, 6);
+		assertNull(legacyJson(first));
+	}
+
+	@Test
+	public void migrate_externalizesPixels_whenBlobStoreIsEnabled() throws Exception {
+		ImageMatrixNode node = legacyNode(3L, "[[[10,20,30]]]");
+		when(image_matrix_repo.findLegacyMatrixNodes(-1L, 2)).thenReturn(Arrays.asList(node));
+		when(image_blob_store.isEnabled()).thenReturn(true);
+
+		migration.migrate();
+
+		verify(image_blob_store).externalize(node);
+		verify(image_matrix_repo).save(node, 0);
+	}
+
+	@Test
+	public void migrate_skipsNodesThatCannotBeConverted() throws Exception {
+		ImageMatrixNode malformed = legacyNode(3L, "[[[10,20");
+		ImageMatrixNode node = legacyNode(4L, "[[[10,20,30]]]");
+		when(image_matrix_repo.findLegacyMatrixNodes(-1L, 2)).thenReturn(Arrays.asList(malformed, node));
+
+		assertEquals(migration.migrate(), 1);
+
+		verify(image_matrix_repo, never()).save(eq(malformed), anyInt());
+		verify(image_matrix_repo).save(node, 0);
+		assertNotNull(legacyJson(malformed));
+	}
+
+	@Test
+	public void start_doesNothing_whenDisabled() throws Exception {
+		setField("enabled", false);
+
+		migration.start();
+
+		verify(image_matrix_repo, never()).findLegacyMatrixNodes(anyLong(), anyInt());
+		verify(image_matrix_repo, never()).save(any(ImageMatrixNode.class), anyInt());
+	}
+
+	private static ImageMatrixNode legacyNode(long id, String rgb_matrix_json) throws Exception {
+		ImageMatrixNode node = new ImageMatrixNode();
+		Field id_field = ImageMatrixNode.class.getDeclaredField("id");
+		id_field.setAccessible(true);
+		id_field.set(node, id);
+		Field json = ImageMatrixNode.class.getDeclaredField("rgb_matrix_json");
+		json.setAccessible(true);
+		json.set(node, rgb_matrix_json);
+		return node;
+	}
+
+	private static Object legacyJson(ImageMatrixNode node) throws Exception {
+		Field json = ImageMatrixNode.class.getDeclaredField("rgb_matrix_json");
+		json.setAccessible(true);
+		return json.get(node);
+	}
+
+	private void setField(String name, Object value) throws Exception {
+		Field f = ImageMatrixMigration.class.getDeclaredField(name);
+		f.setAccessible(true);
+		f.set(migration, value);
+	}
+}